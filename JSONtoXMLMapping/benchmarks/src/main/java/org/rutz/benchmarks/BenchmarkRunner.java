@@ -0,0 +1,43 @@
+package org.rutz.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of {@code benchmarks.jar}. Takes the usual JMH command line and always adds the GC profiler,
+ * so every run reports allocation per operation ({@code gc.alloc.rate.norm}) and GC counts next to the times.
+ * Results are also written as JSON to {@code target/jmh-result.json} unless {@code -rf}/{@code -rff} say otherwise, to keep
+ * a baseline to compare later runs against.
+ * <pre>
+ * java -jar target/benchmarks.jar                                  # everything with the default parameters
+ * java -jar target/benchmarks.jar PipelineBenchmark -p depth=4     # one class, other nesting
+ * java -Xmx16g -jar target/benchmarks.jar PipelineBenchmark.streamingFromFile -p documentSize=1GB
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+                || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+            // Informational options are handled by the stock JMH main
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine).addProfiler(GCProfiler.class);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("target/jmh-result.json");
+        }
+        Options built = options.build();
+        new Runner(built).run();
+    }
+}
@@ -0,0 +1,98 @@
+package org.rutz.benchmarks;
+
+import org.apache.commons.jexl3.JexlContext;
+import org.apache.commons.jexl3.JexlExpression;
+import org.apache.commons.jexl3.MapContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rutz.AttributeLevelTransformation;
+import org.rutz.ExpressionEvaluator;
+import org.rutz.Mapping;
+import org.rutz.MappingPlan;
+import org.rutz.ValueTransformer;
+
+import java.util.List;
+
+/**
+ * Per-value cost of {@code AttributeLevelTransformation.transform} and {@code ExpressionEvaluator.evaluate},
+ * of a JEXL expression parsed once and run by the interpreter, and of the transformer a {@link MappingPlan}
+ * binds for the same mapping, which compiles the expression where it can.
+ */
+@State(Scope.Benchmark)
+public class ExpressionBenchmark {
+
+    // Which expression of the synthetic mappings is evaluated
+    @Param({"none", "concat", "function", "date", "arithmetic"})
+    public String expression;
+
+    private Mapping mapping;
+    private String value;
+    private JexlExpression jexlExpression; // null without an expression
+    private ValueTransformer planTransformer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (expression) {
+            case "none":
+                mapping = mapping("", "String");
+                value = "M1";
+                break;
+            case "concat":
+                mapping = mapping("'ID-' + val", "String");
+                value = "M1";
+                break;
+            case "function":
+                mapping = mapping("fmfcn:addFive(val)", "Integer");
+                value = "12";
+                break;
+            case "date":
+                mapping = mapping("fmfcn:convertUTCToESTDateOnly(val)", "String");
+                value = "2024-06-14T18:30:00Z";
+                break;
+            case "arithmetic":
+                mapping = mapping("'#' + (val * 2 + 1)", "Integer");
+                value = "12";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown expression: " + expression);
+        }
+        jexlExpression = mapping.getExprsn().isEmpty() ? null : ExpressionEvaluator.compile(mapping.getExprsn());
+        planTransformer = MappingPlan.compile(List.of(mapping)).getRoots().get(0).getTransformer();
+    }
+
+    private static Mapping mapping(String exprsn, String xmlType) {
+        return new Mapping("$.value", "Value", false, "String", xmlType, exprsn, "Default", "Root", 0);
+    }
+
+    @Benchmark
+    public String attributeLevelTransformation() throws Exception {
+        return AttributeLevelTransformation.transform(value, mapping);
+    }
+
+    @Benchmark
+    public Object expressionEvaluator() throws Exception {
+        if (mapping.getExprsn().isEmpty()) {
+            return value;
+        }
+        JexlContext context = new MapContext();
+        context.set("val", AttributeLevelTransformation.convertToDataTypeValue(value, mapping.getXmlType()));
+        return ExpressionEvaluator.evaluate(mapping.getExprsn(), context);
+    }
+
+    @Benchmark
+    public String precompiledJexl() throws Exception {
+        if (jexlExpression == null) {
+            return value;
+        }
+        return AttributeLevelTransformation.transform(value, jexlExpression, mapping.getXmlType(), mapping.getJPath());
+    }
+
+    @Benchmark
+    public String compiledPlan() throws Exception {
+        return planTransformer.transform(value);
+    }
+}
@@ -0,0 +1,65 @@
+package org.rutz.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.util.ParallelGzipOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed XML output: {@link ParallelGzipOutputStream} against a single-threaded {@link GZIPOutputStream},
+ * compressing the workload's XML alone and transforming straight into the compressed stream.
+ * Run with {@code -p documentSize=64MB} or larger; small documents fit in a handful of blocks.
+ */
+@State(Scope.Benchmark)
+public class GzipBenchmark {
+
+    @Param({"131072", "1048576"})
+    public int blockSize;
+
+    private JsonToXmlEngine engine;
+    private byte[] xml;
+
+    @Setup(Level.Trial)
+    public void setUp(WorkloadState state) throws Exception {
+        engine = JsonToXmlEngine.builder(state.plan).build();
+        ByteArrayOutputStream xmlStream = new ByteArrayOutputStream();
+        engine.transform(state.json(), xmlStream);
+        xml = xmlStream.toByteArray();
+    }
+
+    @Benchmark
+    public void compressGzip() throws Exception {
+        try (OutputStream out = new GZIPOutputStream(OutputStream.nullOutputStream(), 64 * 1024)) {
+            out.write(xml);
+        }
+    }
+
+    @Benchmark
+    public void compressParallel() throws Exception {
+        try (OutputStream out = ParallelGzipOutputStream.builder(OutputStream.nullOutputStream()).blockSize(blockSize).build()) {
+            out.write(xml);
+        }
+    }
+
+    @Benchmark
+    public void transformGzip(WorkloadState state) throws Exception {
+        try (OutputStream out = new GZIPOutputStream(OutputStream.nullOutputStream(), 64 * 1024)) {
+            engine.transform(state.json(), out);
+        }
+    }
+
+    @Benchmark
+    public void transformParallel(WorkloadState state) throws Exception {
+        try (OutputStream out = ParallelGzipOutputStream.builder(OutputStream.nullOutputStream()).blockSize(blockSize).build()) {
+            engine.transform(state.json(), out);
+        }
+    }
+}
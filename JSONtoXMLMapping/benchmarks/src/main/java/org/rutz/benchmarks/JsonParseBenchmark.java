@@ -0,0 +1,38 @@
+package org.rutz.benchmarks;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Reading the JSON input: the tree {@code JsonToXmlSteam} works on, and the bare token stream
+ * {@code StreamingJsonToXml} consumes.
+ */
+public class JsonParseBenchmark {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Benchmark
+    public JsonNode readTree(WorkloadState state) throws Exception {
+        return OBJECT_MAPPER.readTree(state.json());
+    }
+
+    @Benchmark
+    public int tokenStream(WorkloadState state) throws Exception {
+        int tokens = 0;
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(state.json())) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token.isScalarValue()) {
+                    // Materialize values like the transform does
+                    tokens += parser.getText().length() > 0 ? 1 : 0;
+                } else {
+                    tokens++;
+                }
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,423 @@
+package org.rutz.benchmarks;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlEngine.InputMode;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-test driver: runs a {@link JsonToXmlEngine} over documents from {@link MappingDocumentGenerator} at a
+ * target rate and reports latency percentiles, throughput and GC pauses.
+ * <pre>
+ * LoadTest &lt;mappings.csv&gt; [--rate docs/s] [--duration s] [--warmup s] [--threads N] [--documents N]
+ *          [--mode STREAMING|TREE] [--seed N] [--list-size min:max] [--value-length min:max]
+ *          [--null-ratio r] [--missing-ratio r]
+ * </pre>
+ * With a rate the load is open-loop: transforms are started on a fixed schedule whether or not earlier ones
+ * have finished, and latency is measured from the scheduled start, so queueing behind a slow transform or a
+ * GC pause is counted instead of hidden. Without a rate ({@code --rate 0}) every thread transforms back to back
+ * and the run measures the maximum throughput.
+ * <p>
+ * A pool of {@code --documents} documents is generated before the run, so generation is not measured.
+ */
+public final class LoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final long STOP = Long.MIN_VALUE; // queue marker ending a worker
+
+    private final JsonToXmlEngine engine;
+    private final byte[][] documents;
+    private final double rate;
+    private final int threads;
+
+    public LoadTest(JsonToXmlEngine engine, byte[][] documents, double rate, int threads) {
+        if (documents.length == 0) {
+            throw new IllegalArgumentException("Documents cannot be empty.");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        this.engine = engine;
+        this.documents = documents;
+        this.rate = rate;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadTest <mappings.csv> [--rate docs/s] [--duration s] [--warmup s] [--threads N]"
+                    + " [--documents N] [--mode STREAMING|TREE] [--seed N] [--list-size min:max]"
+                    + " [--value-length min:max] [--null-ratio r] [--missing-ratio r]");
+            System.exit(2);
+        }
+
+        List<Mapping> mappings = MappingGenerator.readMappingsFromCsv(args[0]);
+        MappingPlan plan = MappingPlan.compile(mappings);
+        MappingDocumentGenerator.Builder generator = MappingDocumentGenerator.builder(mappings);
+        double rate = 1000;
+        int durationSeconds = 60;
+        int warmupSeconds = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int documentCount = 1000;
+        InputMode mode = InputMode.STREAMING;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--documents":
+                    documentCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--mode":
+                    mode = InputMode.valueOf(args[++i]);
+                    break;
+                case "--seed":
+                    generator.seed(Long.parseLong(args[++i]));
+                    break;
+                case "--list-size":
+                    int[] listSize = range(args[++i]);
+                    generator.listSize(listSize[0], listSize[1]);
+                    break;
+                case "--value-length":
+                    int[] valueLength = range(args[++i]);
+                    generator.valueLength(valueLength[0], valueLength[1]);
+                    break;
+                case "--null-ratio":
+                    generator.nullRatio(Double.parseDouble(args[++i]));
+                    break;
+                case "--missing-ratio":
+                    generator.missingRatio(Double.parseDouble(args[++i]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        MappingDocumentGenerator documents = generator.build();
+        byte[][] pool = new byte[documentCount][];
+        long poolBytes = 0;
+        for (int i = 0; i < documentCount; i++) {
+            pool[i] = documents.generate(i);
+            poolBytes += pool[i].length;
+        }
+        LOGGER.info("Generated {} documents, {} bytes on average", documentCount, poolBytes / documentCount);
+
+        LoadTest loadTest = new LoadTest(JsonToXmlEngine.builder(plan).inputMode(mode).build(), pool, rate, threads);
+        if (warmupSeconds > 0) {
+            LOGGER.info("Warm-up: {}", loadTest.run(warmupSeconds, TimeUnit.SECONDS));
+        }
+        Report report = loadTest.run(durationSeconds, TimeUnit.SECONDS);
+        LOGGER.info("Load test: {}", report);
+        if (report.failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int[] range(String text) {
+        String[] parts = text.split(":");
+        int min = Integer.parseInt(parts[0]);
+        return new int[]{min, parts.length > 1 ? Integer.parseInt(parts[1]) : min};
+    }
+
+    /**
+     * Runs the load for the given time and waits for the started transforms to finish.
+     */
+    public Report run(long duration, TimeUnit unit) throws InterruptedException {
+        GcPauseRecorder gcPauses = new GcPauseRecorder();
+        long gcCountBefore = collectionCount();
+        AtomicLong inputBytes = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Worker[] workers = new Worker[threads];
+        // Open-loop schedule: scheduled start times, handed to whichever worker is free
+        BlockingQueue<Long> schedule = rate > 0 ? new ArrayBlockingQueue<>(Math.max(threads * 16, (int) Math.min(rate, 1_000_000))) : null;
+
+        long start = System.nanoTime();
+        long end = start + unit.toNanos(duration);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, schedule, end, inputBytes, failed);
+            workers[i].start();
+        }
+        long dropped = 0;
+        if (schedule != null) {
+            double intervalNanos = 1_000_000_000d / rate;
+            for (long n = 0; ; n++) {
+                long scheduled = start + (long) (n * intervalNanos);
+                if (scheduled >= end) {
+                    break;
+                }
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (!schedule.offer(scheduled)) {
+                    // The queue is full: the engine cannot keep up with the rate
+                    dropped++;
+                }
+            }
+            for (int i = 0; i < threads; i++) {
+                schedule.put(STOP);
+            }
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        gcPauses.close();
+
+        List<long[]> latencies = new ArrayList<>();
+        int count = 0;
+        for (Worker worker : workers) {
+            latencies.add(worker.latencies());
+            count += worker.count;
+        }
+        long[] all = new long[count];
+        int offset = 0;
+        for (long[] worker : latencies) {
+            System.arraycopy(worker, 0, all, offset, worker.length);
+            offset += worker.length;
+        }
+        Arrays.sort(all);
+        return new Report(all, failed.get(), dropped, elapsed, inputBytes.get(),
+                collectionCount() - gcCountBefore, gcPauses.count(), gcPauses.totalMillis(), gcPauses.maxMillis());
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private final class Worker extends Thread {
+        private final BlockingQueue<Long> schedule; // null for the closed loop
+        private final long end;
+        private final AtomicLong inputBytes;
+        private final AtomicLong failed;
+        private long[] latencies = new long[1024];
+        private int count;
+        private int next;
+
+        Worker(int index, BlockingQueue<Long> schedule, long end, AtomicLong inputBytes, AtomicLong failed) {
+            super("load-test-" + index);
+            setDaemon(true);
+            this.schedule = schedule;
+            this.end = end;
+            this.inputBytes = inputBytes;
+            this.failed = failed;
+            this.next = index;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long scheduled;
+                    if (schedule != null) {
+                        scheduled = schedule.take();
+                        if (scheduled == STOP) {
+                            return;
+                        }
+                    } else {
+                        scheduled = System.nanoTime();
+                        if (scheduled >= end) {
+                            return;
+                        }
+                    }
+                    transform(scheduled);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void transform(long scheduled) {
+            byte[] document = documents[next];
+            next = (next + threads) % documents.length;
+            try {
+                engine.transform(document, OutputStream.nullOutputStream());
+                inputBytes.addAndGet(document.length);
+            } catch (Exception e) {
+                if (failed.incrementAndGet() == 1) {
+                    LOGGER.error("Transform failed", e);
+                }
+                return;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - scheduled;
+        }
+
+        long[] latencies() {
+            return Arrays.copyOf(latencies, count);
+        }
+    }
+
+    // Stop-the-world pauses reported by the JVM's GC notifications
+    private static final class GcPauseRecorder implements NotificationListener {
+        private final List<NotificationEmitter> emitters = new ArrayList<>();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        GcPauseRecorder() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+                    emitters.add((NotificationEmitter) collector);
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            String name = info.getGcName();
+            if (name.contains("Cycles") || name.contains("Concurrent")) {
+                // Concurrent work of ZGC, Shenandoah and G1 runs beside the application, not a pause
+                return;
+            }
+            long millis = info.getGcInfo().getDuration();
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        void close() {
+            for (NotificationEmitter emitter : emitters) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // Already removed
+                }
+            }
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        long totalMillis() {
+            return totalMillis.get();
+        }
+
+        long maxMillis() {
+            return maxMillis.get();
+        }
+    }
+
+    /**
+     * Outcome of one run. Latencies are in nanoseconds, sorted.
+     */
+    public static final class Report {
+        private final long[] latencies;
+        private final long failed;
+        private final long dropped;
+        private final long elapsedNanos;
+        private final long inputBytes;
+        private final long gcCollections;
+        private final long gcPauses;
+        private final long gcPauseMillis;
+        private final long gcMaxPauseMillis;
+
+        Report(long[] latencies, long failed, long dropped, long elapsedNanos, long inputBytes,
+               long gcCollections, long gcPauses, long gcPauseMillis, long gcMaxPauseMillis) {
+            this.latencies = latencies;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.elapsedNanos = elapsedNanos;
+            this.inputBytes = inputBytes;
+            this.gcCollections = gcCollections;
+            this.gcPauses = gcPauses;
+            this.gcPauseMillis = gcPauseMillis;
+            this.gcMaxPauseMillis = gcMaxPauseMillis;
+        }
+
+        public long getCompleted() {
+            return latencies.length;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        // Scheduled transforms never started because every worker was busy and the queue was full
+        public long getDropped() {
+            return dropped;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+        }
+
+        public double getInputMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : inputBytes * 1e9 / elapsedNanos / (1024 * 1024);
+        }
+
+        // Latency at the percentile (0 to 100), in nanoseconds
+        public long getLatency(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+        }
+
+        public long getGcPauses() {
+            return gcPauses;
+        }
+
+        public long getGcPauseMillis() {
+            return gcPauseMillis;
+        }
+
+        public long getGcMaxPauseMillis() {
+            return gcMaxPauseMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d completed, %d failed, %d dropped in %.1f s: %.1f docs/s, %.2f MB/s;"
+                            + " latency p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms;"
+                            + " GC %d collections, %d pauses, %d ms paused, longest %d ms",
+                    getCompleted(), failed, dropped, elapsedNanos / 1e9, getThroughput(), getInputMegabytesPerSecond(),
+                    getLatency(50) / 1e6, getLatency(99) / 1e6, getLatency(99.9) / 1e6, getLatency(100) / 1e6,
+                    gcCollections, gcPauses, gcPauseMillis, gcMaxPauseMillis);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.rutz.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Loading the mapping CSV and compiling it into a {@link MappingPlan}.
+ * {@link #readLargeMappingCsv} loads a generated sheet of {@code rows} rows with every level listed before its parents.
+ */
+@State(Scope.Benchmark)
+public class MappingCsvBenchmark {
+
+    // Nested list levels; each adds five mapping rows
+    @Param({"2", "16", "64"})
+    public int depth;
+
+    @Param({"0.5"})
+    public double expressionShare;
+
+    private Path csvFile;
+    private List<Mapping> mappings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Workload workload = new Workload("1KB", depth, 1, expressionShare);
+        csvFile = Files.createTempFile("mappings-", ".csv");
+        workload.writeMappingCsv(csvFile);
+        mappings = workload.mappings();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Benchmark
+    public List<Mapping> readMappingsFromCsv() throws Exception {
+        return MappingGenerator.readMappingsFromCsv(csvFile.toString());
+    }
+
+    @Benchmark
+    public MappingPlan compilePlan() {
+        return MappingPlan.compile(mappings);
+    }
+
+    @Benchmark
+    public List<Mapping> readLargeMappingCsv(LargeCsv csv) throws Exception {
+        return MappingGenerator.readMappingsFromCsv(csv.file.toString());
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeCsv {
+
+        @Param({"100000"})
+        public int rows;
+
+        // Rows per chain from a top level mapping down
+        @Param({"10"})
+        public int levels;
+
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            int chains = Math.max(1, rows / levels);
+            StringBuilder csv = new StringBuilder("jPath,xPath,isList,jsonType,xmlType,exprsn,namespace,parentXPath,order\n");
+            for (int level = levels - 1; level >= 0; level--) {
+                for (int i = 0; i < chains; i++) {
+                    String parent = level == 0 ? "" : "E" + (level - 1) + "_" + i;
+                    csv.append("$.v").append(i).append(",E").append(level).append('_').append(i)
+                            .append(",No,string,string,,,").append(parent).append(',').append(chains - i).append('\n');
+                }
+            }
+            file = Files.createTempFile("large-mappings-", ".csv");
+            Files.writeString(file, csv);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            Files.deleteIfExists(file);
+        }
+    }
+}
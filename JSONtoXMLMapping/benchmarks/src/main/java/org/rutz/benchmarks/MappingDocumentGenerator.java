@@ -0,0 +1,369 @@
+package org.rutz.benchmarks;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates JSON documents with the shape a mapping set expects, e.g. for {@code src/main/resources/mappings.csv}.
+ * <p>
+ * The mapping hierarchy is turned into a document template once: a jPath of {@code $} stays on the parent's
+ * object, {@code $.a.b} creates nested objects, list mappings create arrays and mappings without children
+ * create values. Values follow the mapping: UTC timestamps for the {@code convertUTCToEST} functions, digits for
+ * {@code Integer}, {@code Long}, {@code Double} and {@code Decimal} types, {@code Date} timestamps, random text
+ * otherwise.
+ * <p>
+ * Document {@code n} of a generator is always the same for the same settings and seed, so load tests can be
+ * repeated. Instances are immutable and thread-safe.
+ */
+public final class MappingDocumentGenerator {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+    private static final long EPOCH_2020 = Instant.parse("2020-01-01T00:00:00Z").getEpochSecond();
+    private static final int FIVE_YEARS_SECONDS = 5 * 365 * 24 * 3600;
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ".toCharArray();
+
+    private final ObjectTemplate root;
+    private final long seed;
+    private final int minValueLength;
+    private final int maxValueLength;
+    private final double nullRatio;
+    private final double missingRatio;
+
+    private MappingDocumentGenerator(Builder builder) {
+        this.seed = builder.seed;
+        this.minValueLength = builder.minValueLength;
+        this.maxValueLength = builder.maxValueLength;
+        this.nullRatio = builder.nullRatio;
+        this.missingRatio = builder.missingRatio;
+        this.root = new ObjectTemplate();
+        for (Mapping mapping : builder.mappings) {
+            addMapping(root, mapping, builder);
+        }
+    }
+
+    public static Builder builder(List<Mapping> mappings) {
+        return new Builder(mappings);
+    }
+
+    public static Builder builder(String mappingCsvPath) throws Exception {
+        return new Builder(MappingGenerator.readMappingsFromCsv(mappingCsvPath));
+    }
+
+    public byte[] generate(long documentIndex) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        generate(documentIndex, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes document {@code documentIndex} to the stream, which is not closed.
+     */
+    public void generate(long documentIndex, OutputStream out) throws IOException {
+        // Spreads the indexes so neighbouring documents do not get correlated sequences
+        SplittableRandom random = new SplittableRandom(seed ^ (documentIndex * 0x9E3779B97F4A7C15L));
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            root.write(generator, random);
+        }
+    }
+
+    // Adds the mapping and its children below the object the parent mapping points at
+    private void addMapping(ObjectTemplate parent, Mapping mapping, Builder builder) {
+        String jPath = mapping.getJPath() == null ? "$" : mapping.getJPath().trim();
+        List<Mapping> children = mapping.getChildMappings();
+        boolean leaf = children == null || children.isEmpty();
+        if (jPath.equals("$")) {
+            // Wrappers such as GGs/GG stay on the parent's object
+            if (!leaf) {
+                for (Mapping child : children) {
+                    addMapping(parent, child, builder);
+                }
+            }
+            return;
+        }
+        if (!jPath.startsWith("$.")) {
+            throw new IllegalArgumentException("Invalid JSONPath expression: " + jPath);
+        }
+
+        String[] segments = jPath.substring(2).replace("[*]", "").split("\\.");
+        ObjectTemplate object = parent;
+        for (int i = 0; i < segments.length - 1; i++) {
+            object = object.object(segments[i]);
+        }
+        String field = segments[segments.length - 1];
+
+        Template element;
+        if (leaf) {
+            element = object.fields.computeIfAbsent(field, name -> scalar(mapping));
+            if (mapping.isList() && !(element instanceof ArrayTemplate)) {
+                int[] size = builder.listSize(mapping.getXPath());
+                element = new ArrayTemplate(element, size[0], size[1]);
+                object.fields.put(field, element);
+            }
+            return;
+        }
+
+        ObjectTemplate target;
+        if (mapping.isList()) {
+            Template existing = object.fields.get(field);
+            if (existing instanceof ArrayTemplate && ((ArrayTemplate) existing).element instanceof ObjectTemplate) {
+                target = (ObjectTemplate) ((ArrayTemplate) existing).element;
+            } else {
+                target = new ObjectTemplate();
+                int[] size = builder.listSize(mapping.getXPath());
+                object.fields.put(field, new ArrayTemplate(target, size[0], size[1]));
+            }
+        } else {
+            target = object.object(field);
+        }
+        for (Mapping child : children) {
+            addMapping(target, child, builder);
+        }
+    }
+
+    private abstract static class Template {
+        abstract void write(JsonGenerator generator, SplittableRandom random) throws IOException;
+    }
+
+    private final class ObjectTemplate extends Template {
+        private final Map<String, Template> fields = new LinkedHashMap<>();
+
+        ObjectTemplate object(String field) {
+            Template existing = fields.get(field);
+            if (existing instanceof ObjectTemplate) {
+                return (ObjectTemplate) existing;
+            }
+            ObjectTemplate object = new ObjectTemplate();
+            fields.put(field, object);
+            return object;
+        }
+
+        @Override
+        void write(JsonGenerator generator, SplittableRandom random) throws IOException {
+            generator.writeStartObject();
+            for (Map.Entry<String, Template> field : fields.entrySet()) {
+                double draw = random.nextDouble();
+                if (draw < missingRatio) {
+                    continue;
+                }
+                generator.writeFieldName(field.getKey());
+                if (draw < missingRatio + nullRatio) {
+                    generator.writeNull();
+                } else {
+                    field.getValue().write(generator, random);
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static final class ArrayTemplate extends Template {
+        private final Template element;
+        private final int minSize;
+        private final int maxSize;
+
+        ArrayTemplate(Template element, int minSize, int maxSize) {
+            this.element = element;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        void write(JsonGenerator generator, SplittableRandom random) throws IOException {
+            int size = minSize == maxSize ? minSize : random.nextInt(minSize, maxSize + 1);
+            generator.writeStartArray();
+            for (int i = 0; i < size; i++) {
+                element.write(generator, random);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private enum ValueKind { TEXT, UTC_TIMESTAMP, DATE, INTEGER, DECIMAL, BOOLEAN }
+
+    private final class ScalarTemplate extends Template {
+        private final ValueKind kind;
+        private final boolean number; // written as a JSON number rather than a string
+
+        ScalarTemplate(ValueKind kind, boolean number) {
+            this.kind = kind;
+            this.number = number;
+        }
+
+        @Override
+        void write(JsonGenerator generator, SplittableRandom random) throws IOException {
+            switch (kind) {
+                case BOOLEAN:
+                    generator.writeBoolean(random.nextBoolean());
+                    break;
+                case INTEGER:
+                    int integer = random.nextInt(1_000_000);
+                    if (number) {
+                        generator.writeNumber(integer);
+                    } else {
+                        generator.writeString(Integer.toString(integer));
+                    }
+                    break;
+                case DECIMAL:
+                    double decimal = random.nextInt(100_000_000) / 100.0;
+                    if (number) {
+                        generator.writeNumber(decimal);
+                    } else {
+                        generator.writeString(Double.toString(decimal));
+                    }
+                    break;
+                case UTC_TIMESTAMP:
+                    generator.writeString(randomInstant(random).toString());
+                    break;
+                case DATE:
+                    generator.writeString(DATE_FORMAT.format(LocalDateTime.ofInstant(randomInstant(random).plusMillis(random.nextInt(1000)), ZoneOffset.UTC)));
+                    break;
+                default:
+                    generator.writeString(randomText(random));
+            }
+        }
+
+        private String randomText(SplittableRandom random) {
+            int length = minValueLength == maxValueLength ? minValueLength : random.nextInt(minValueLength, maxValueLength + 1);
+            char[] text = new char[length];
+            for (int i = 0; i < length; i++) {
+                text[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            return new String(text);
+        }
+    }
+
+    // The kind of value the mapping's types and expression expect
+    private ScalarTemplate scalar(Mapping mapping) {
+        String exprsn = mapping.getExprsn() == null ? "" : mapping.getExprsn();
+        String xmlType = lower(mapping.getXmlType());
+        String jsonType = lower(mapping.getJsonType());
+        boolean number = jsonType.equals("number") || jsonType.equals("integer") || jsonType.equals("long")
+                || jsonType.equals("double") || jsonType.equals("decimal");
+        ValueKind kind;
+        if (exprsn.contains("convertUTCToEST")) {
+            kind = ValueKind.UTC_TIMESTAMP;
+        } else if (jsonType.equals("boolean") || xmlType.equals("boolean")) {
+            kind = ValueKind.BOOLEAN;
+        } else if (xmlType.equals("integer") || xmlType.equals("long") || exprsn.contains("addFive")) {
+            kind = ValueKind.INTEGER;
+        } else if (xmlType.equals("double") || xmlType.equals("decimal")) {
+            kind = ValueKind.DECIMAL;
+        } else if (xmlType.equals("date")) {
+            kind = ValueKind.DATE;
+        } else {
+            kind = ValueKind.TEXT;
+        }
+        return new ScalarTemplate(kind, number);
+    }
+
+    private static Instant randomInstant(SplittableRandom random) {
+        return Instant.ofEpochSecond(EPOCH_2020 + random.nextInt(FIVE_YEARS_SECONDS)).truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    private static String lower(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public static final class Builder {
+        private final List<Mapping> mappings;
+        private final Map<String, int[]> listSizes = new HashMap<>();
+        private int minListSize = 1;
+        private int maxListSize = 5;
+        private long seed = 42;
+        private int minValueLength = 4;
+        private int maxValueLength = 16;
+        private double nullRatio;
+        private double missingRatio;
+
+        private Builder(List<Mapping> mappings) {
+            if (mappings == null) {
+                throw new IllegalArgumentException("Mappings cannot be null.");
+            }
+            this.mappings = mappings;
+        }
+
+        // Items in every generated array, chosen uniformly per array
+        public Builder listSize(int min, int max) {
+            checkRange("List size", min, max);
+            this.minListSize = min;
+            this.maxListSize = max;
+            return this;
+        }
+
+        // Items in the arrays of one list mapping, by its xPath, e.g. "Members/Member"
+        public Builder listSize(String xPath, int min, int max) {
+            checkRange("List size", min, max);
+            listSizes.put(xPath, new int[]{min, max});
+            return this;
+        }
+
+        // Length of generated text values
+        public Builder valueLength(int min, int max) {
+            checkRange("Value length", min, max);
+            this.minValueLength = min;
+            this.maxValueLength = max;
+            return this;
+        }
+
+        // Fraction of fields written as JSON null
+        public Builder nullRatio(double nullRatio) {
+            this.nullRatio = checkRatio("Null ratio", nullRatio);
+            return this;
+        }
+
+        // Fraction of fields left out
+        public Builder missingRatio(double missingRatio) {
+            this.missingRatio = checkRatio("Missing ratio", missingRatio);
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public MappingDocumentGenerator build() {
+            if (nullRatio + missingRatio > 1) {
+                throw new IllegalArgumentException("Null and missing ratios add up to more than 1: " + nullRatio + " + " + missingRatio);
+            }
+            return new MappingDocumentGenerator(this);
+        }
+
+        int[] listSize(String xPath) {
+            return listSizes.getOrDefault(xPath, new int[]{minListSize, maxListSize});
+        }
+
+        private static void checkRange(String name, int min, int max) {
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException(name + " range is invalid: " + min + ".." + max);
+            }
+        }
+
+        private static double checkRatio(String name, double ratio) {
+            if (ratio < 0 || ratio > 1) {
+                throw new IllegalArgumentException(name + " must be between 0 and 1: " + ratio);
+            }
+            return ratio;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.rutz.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlEngine.InputMode;
+import org.rutz.JsonToXmlEngine.OutputMode;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * End to end through {@link JsonToXmlEngine}, JSON bytes in and XML bytes out to a discarding stream.
+ * {@link #streamingFromFile} reads the document from disk and is the one to run for GB sizes.
+ * {@code outputMode} compares the direct UTF-8 writer with the JDK's {@code XMLStreamWriter}.
+ */
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({"DIRECT", "STAX"})
+    public OutputMode outputMode;
+
+    private JsonToXmlEngine streaming;
+    private JsonToXmlEngine tree;
+
+    @Setup(Level.Trial)
+    public void setUp(WorkloadState state) {
+        streaming = JsonToXmlEngine.builder(state.plan).inputMode(InputMode.STREAMING).outputMode(outputMode).build();
+        tree = JsonToXmlEngine.builder(state.plan).inputMode(InputMode.TREE).emptyElementMode(EmptyElementMode.DEFERRED)
+                .outputMode(outputMode).build();
+    }
+
+    @Benchmark
+    public void streaming(WorkloadState state) throws Exception {
+        streaming.transform(state.json(), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void tree(WorkloadState state) throws Exception {
+        tree.transform(state.json(), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void streamingFromFile(WorkloadState state) throws Exception {
+        try (InputStream jsonStream = Files.newInputStream(state.jsonFile)) {
+            streaming.transform(jsonStream, OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.rutz.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@code JsonToXmlSteam.transformJsonToXml}: the whole static entry point (parse, transform, write the file),
+ * and the transform alone over a tree parsed in setup, writing to a discarding stream.
+ */
+@State(Scope.Benchmark)
+public class TransformBenchmark {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    @Param({"SCAN", "DEFERRED"})
+    public EmptyElementMode mode;
+
+    private String jsonString;
+    private JsonNode rootNode;
+    private Path xmlFile;
+
+    @Setup(Level.Trial)
+    public void setUp(WorkloadState state) throws Exception {
+        jsonString = new String(state.json(), StandardCharsets.UTF_8);
+        rootNode = new ObjectMapper().readTree(state.json());
+        xmlFile = Files.createTempFile("transform-", ".xml");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(xmlFile);
+    }
+
+    @Benchmark
+    public void transformJsonToXml(WorkloadState state) throws Exception {
+        JsonToXmlSteam.transformJsonToXml(jsonString, state.plan, xmlFile.toString(), mode);
+    }
+
+    @Benchmark
+    public void transformJsonToXmlWithMappings(WorkloadState state) throws Exception {
+        // Compiles the plan on every call, as callers passing the Mapping list do
+        JsonToXmlSteam.transformJsonToXml(jsonString, state.mappings, xmlFile.toString());
+    }
+
+    @Benchmark
+    public void writeXmlElements(WorkloadState state) throws Exception {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(OutputStream.nullOutputStream(), "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        JsonToXmlSteam.writeXmlElements(writer, rootNode, state.plan, mode);
+        writer.writeEndDocument();
+        writer.close();
+    }
+}
@@ -0,0 +1,107 @@
+package org.rutz.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.Mapping;
+import org.rutz.MappingPlan;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Child resolution on wide objects: a list of {@code records} objects with {@code mappedFields} child
+ * mappings each, of which the objects carry every {@code presentEvery}-th field plus ten unmapped ones.
+ * Runs the tree transform in both {@link EmptyElementMode}s and the streaming engine, and the tree transform
+ * from bytes with a full parse and with the sparse parse {@link JsonToXmlSteam} does, which skips unmapped fields.
+ */
+@State(Scope.Benchmark)
+public class WideObjectBenchmark {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    @Param({"10000"})
+    public int records;
+
+    @Param({"30"})
+    public int mappedFields;
+
+    @Param({"1", "6"})
+    public int presentEvery;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private MappingPlan plan;
+    private byte[] json;
+    private JsonNode rootNode;
+    private JsonToXmlEngine streaming;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Mapping member = new Mapping("$.members[*]", "Members/Member", true, "String", "String", "", "Default", "Root", 0);
+        for (int i = 0; i < mappedFields; i++) {
+            member.addChildMapping(new Mapping("$.field" + i, "Field" + i, false, "String", "String", "", "Default", "Members/Member", i));
+        }
+        plan = MappingPlan.compile(List.of(member));
+
+        StringBuilder document = new StringBuilder("{\"members\":[");
+        for (int record = 0; record < records; record++) {
+            document.append(record == 0 ? "{" : ",{");
+            for (int i = 0; i < mappedFields + 10; i += presentEvery) {
+                document.append(i == 0 ? "" : ",").append("\"field").append(i).append("\":\"value").append(record).append('"');
+            }
+            document.append('}');
+        }
+        json = document.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        rootNode = OBJECT_MAPPER.readTree(json);
+        streaming = JsonToXmlEngine.builder(plan).inputMode(JsonToXmlEngine.InputMode.STREAMING).build();
+    }
+
+    @Benchmark
+    public void treeScan() throws Exception {
+        writeTree(EmptyElementMode.SCAN);
+    }
+
+    @Benchmark
+    public void treeDeferred() throws Exception {
+        writeTree(EmptyElementMode.DEFERRED);
+    }
+
+    @Benchmark
+    public void streaming() throws Exception {
+        streaming.transform(json, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void fullParseDeferred() throws Exception {
+        writeTree(OBJECT_MAPPER.readTree(json), EmptyElementMode.DEFERRED);
+    }
+
+    @Benchmark
+    public void sparseParseDeferred() throws Exception {
+        JsonToXmlSteam.transformJsonToXml(json, 0, json.length, plan, OutputStream.nullOutputStream(), EmptyElementMode.DEFERRED);
+    }
+
+    private void writeTree(EmptyElementMode mode) throws Exception {
+        writeTree(rootNode, mode);
+    }
+
+    private void writeTree(JsonNode root, EmptyElementMode mode) throws Exception {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(OutputStream.nullOutputStream(), "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        JsonToXmlSteam.writeXmlElements(writer, root, plan, mode);
+        writer.writeEndDocument();
+        writer.close();
+    }
+}
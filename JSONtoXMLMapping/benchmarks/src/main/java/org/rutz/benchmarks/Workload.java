@@ -0,0 +1,209 @@
+package org.rutz.benchmarks;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.rutz.Mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Synthetic document and matching mapping hierarchy for the benchmarks.
+ * <p>
+ * The document is {@code {"records": [...]}}. Every record has four scalar fields ({@code id}, {@code name},
+ * {@code amount}, {@code date}) and, down to {@code depth} levels, an {@code items} list of {@code fanOut}
+ * objects shaped the same way. Records are repeated until the document reaches the requested size.
+ * <p>
+ * {@code expressionShare} is the fraction of scalar mappings that carry an expression: {@code 'ID-' + val} for
+ * the strings, {@code fmfcn:addFive(val)} for the amount and {@code fmfcn:convertUTCToESTDateOnly(val)} for
+ * the date.
+ */
+public final class Workload {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String[] FIELDS = {"id", "name", "amount", "date"};
+    private static final String[] XML_TYPES = {"String", "String", "Integer", "String"};
+    private static final String[] EXPRESSIONS = {"'ID-' + val", "'ID-' + val", "fmfcn:addFive(val)", "fmfcn:convertUTCToESTDateOnly(val)"};
+
+    private final long documentBytes;
+    private final int depth;
+    private final int fanOut;
+    private final double expressionShare;
+    private final long recordCount;
+
+    /**
+     * @param documentSize    Approximate document size, e.g. {@code 64KB}, {@code 1MB} or {@code 1GB}.
+     * @param depth           Nested list levels below each record.
+     * @param fanOut          Items in every nested list.
+     * @param expressionShare Fraction of scalar mappings with an expression, 0 to 1.
+     */
+    public Workload(String documentSize, int depth, int fanOut, double expressionShare) throws IOException {
+        if (depth < 0 || fanOut < 1) {
+            throw new IllegalArgumentException("Depth must not be negative and fan-out must be positive: " + depth + ", " + fanOut);
+        }
+        if (expressionShare < 0 || expressionShare > 1) {
+            throw new IllegalArgumentException("Expression share must be between 0 and 1: " + expressionShare);
+        }
+        this.documentBytes = parseSize(documentSize);
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.expressionShare = expressionShare;
+
+        CountingOutputStream probe = new CountingOutputStream();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(probe, JsonEncoding.UTF8)) {
+            writeRecord(generator, 0, 0);
+        }
+        this.recordCount = Math.max(1, documentBytes / Math.max(1, probe.count));
+    }
+
+    // 1KB, 64MB, 1GB or a plain byte count
+    static long parseSize(String size) {
+        String text = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (text.endsWith("KB")) {
+            unit = 1024L;
+        } else if (text.endsWith("MB")) {
+            unit = 1024L * 1024;
+        } else if (text.endsWith("GB")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            text = text.substring(0, text.length() - 2).trim();
+        }
+        return Long.parseLong(text) * unit;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * The document in memory; only for sizes that fit in a byte array.
+     */
+    public byte[] toBytes() throws IOException {
+        if (documentBytes > Integer.MAX_VALUE - 1024 * 1024) {
+            throw new IllegalStateException("Document of " + documentBytes + " bytes does not fit in memory, write it to a file");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) documentBytes + 1024);
+        writeDocument(out);
+        return out.toByteArray();
+    }
+
+    public void writeDocument(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            writeDocument(out);
+        }
+    }
+
+    // Streams the document; any size can be written this way
+    public void writeDocument(OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("records");
+            for (long i = 0; i < recordCount; i++) {
+                writeRecord(generator, 0, i);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeRecord(JsonGenerator generator, int level, long index) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", "L" + level + "-" + index);
+        generator.writeStringField("name", "Item " + index + " at level " + level);
+        generator.writeNumberField("amount", (int) (index % 100_000));
+        generator.writeStringField("date", "2024-06-" + (10 + index % 20) + "T18:30:00Z");
+        if (level < depth) {
+            generator.writeArrayFieldStart("items");
+            for (int i = 0; i < fanOut; i++) {
+                writeRecord(generator, level + 1, index * fanOut + i);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * The mapping hierarchy, as {@link org.rutz.MappingGenerator#readMappingsFromCsv(String)} would build it.
+     */
+    public List<Mapping> mappings() {
+        List<String[]> rows = csvRows();
+        List<Mapping> roots = new ArrayList<>();
+        List<Mapping> all = new ArrayList<>();
+        for (String[] row : rows) {
+            Mapping mapping = new Mapping(row[0], row[1], "Yes".equals(row[2]), row[3], row[4], row[5], row[6], row[7], 0);
+            all.add(mapping);
+            if ("Root".equals(row[7])) {
+                roots.add(mapping);
+                continue;
+            }
+            for (Mapping parent : all) {
+                if (parent.getXPath().equals(row[7])) {
+                    parent.addChildMapping(mapping);
+                    break;
+                }
+            }
+        }
+        return roots;
+    }
+
+    // The mapping CSV in the format of src/main/resources/mappings.csv
+    public void writeMappingCsv(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("jPath,xPath,isList,jsonType,xmlType,expression,namespace,parentXPath\n");
+            for (String[] row : csvRows()) {
+                writer.write(String.join(",", row));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private List<String[]> csvRows() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(row("$", "Document", false, "String", "", "Root"));
+        String parent = "Document";
+        for (int level = 0; level <= depth; level++) {
+            String element = level == 0 ? "Record" : "Item" + level;
+            String list = level == 0 ? "$.records[*]" : "$.items[*]";
+            rows.add(row(list, element + "s/" + element, true, "String", "", parent));
+            parent = element + "s/" + element;
+            for (int f = 0; f < FIELDS.length; f++) {
+                // Spreads the expressions evenly, rotating per level so every kind of expression is used
+                int scalar = level * FIELDS.length + (f + level) % FIELDS.length;
+                boolean expression = Math.floor((scalar + 1) * expressionShare) > Math.floor(scalar * expressionShare);
+                String name = element + Character.toUpperCase(FIELDS[f].charAt(0)) + FIELDS[f].substring(1);
+                rows.add(row("$." + FIELDS[f], name, false, XML_TYPES[f], expression ? EXPRESSIONS[f] : "", parent));
+            }
+        }
+        return rows;
+    }
+
+    private static String[] row(String jPath, String xPath, boolean isList, String xmlType, String expression, String parentXPath) {
+        return new String[]{jPath, xPath, isList ? "Yes" : "No", "String", xmlType, expression, "Default", parentXPath};
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
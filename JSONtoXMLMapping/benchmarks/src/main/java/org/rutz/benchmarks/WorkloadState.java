@@ -0,0 +1,73 @@
+package org.rutz.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rutz.Mapping;
+import org.rutz.MappingPlan;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The synthetic document and its mappings, shared by the benchmarks of one parameter combination.
+ * Override the defaults with {@code -p}, e.g. {@code -p documentSize=1GB -p depth=6 -p fanOut=2}.
+ * <p>
+ * Documents up to {@link #MAX_IN_MEMORY_BYTES} are also kept in memory; larger ones only exist as a file
+ * and can only be run by the benchmarks that stream from it.
+ */
+@State(Scope.Benchmark)
+public class WorkloadState {
+
+    static final long MAX_IN_MEMORY_BYTES = 256L * 1024 * 1024;
+
+    @Param({"64KB", "1MB", "64MB"})
+    public String documentSize;
+
+    // Nested list levels below each record
+    @Param({"2"})
+    public int depth;
+
+    // Items in each nested list
+    @Param({"4"})
+    public int fanOut;
+
+    // Fraction of scalar mappings that carry an expression
+    @Param({"0.0", "0.5", "1.0"})
+    public double expressionShare;
+
+    public Workload workload;
+    public List<Mapping> mappings;
+    public MappingPlan plan;
+    public Path jsonFile;
+    private byte[] json; // null if the document is too large
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workload = new Workload(documentSize, depth, fanOut, expressionShare);
+        mappings = workload.mappings();
+        plan = MappingPlan.compile(mappings);
+        jsonFile = Files.createTempFile("workload-", ".json");
+        workload.writeDocument(jsonFile);
+        if (Files.size(jsonFile) <= MAX_IN_MEMORY_BYTES) {
+            json = Files.readAllBytes(jsonFile);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(jsonFile);
+    }
+
+    public byte[] json() {
+        if (json == null) {
+            throw new IllegalStateException("A " + documentSize + " document is not kept in memory, use a benchmark that streams from the file");
+        }
+        return json;
+    }
+}
@@ -0,0 +1,42 @@
+package org.rutz.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.StreamingXmlToJson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * {@code StreamingXmlToJson} on the XML the workload document transforms into, next to the streaming
+ * JSON to XML transform of the same document, both writing to a discarding stream.
+ */
+@State(Scope.Benchmark)
+public class XmlToJsonBenchmark {
+
+    private JsonToXmlEngine engine;
+    private byte[] xml;
+
+    @Setup(Level.Trial)
+    public void setUp(WorkloadState state) throws Exception {
+        engine = JsonToXmlEngine.builder(state.plan).build();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        engine.transform(state.json(), output);
+        xml = output.toByteArray();
+    }
+
+    @Benchmark
+    public void jsonToXml(WorkloadState state) throws Exception {
+        engine.transform(state.json(), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void xmlToJson(WorkloadState state) throws Exception {
+        StreamingXmlToJson.transformXmlToJson(new ByteArrayInputStream(xml), state.plan, OutputStream.nullOutputStream());
+    }
+}
@@ -4,8 +4,8 @@ import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.TimeZone;
 
-import org.apache.commons.jexl3.JexlContext;
-import org.apache.commons.jexl3.MapContext;
+import org.apache.commons.jexl3.JexlExpression;
+import org.rutz.metrics.TransformMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,30 +21,58 @@ public class AttributeLevelTransformation implements Serializable {
     private static final Logger LOGGER = LoggerFactory.getLogger(AttributeLevelTransformation.class);
 
     public static String transform(String sourceAttributeValue, Mapping mapping) throws Exception {
-        String result;
-        JexlContext context = new MapContext();
-        if (null != sourceAttributeValue && null != mapping.getExprsn() && !"".equals(mapping.getExprsn())) {
-            try {
-                if (sourceAttributeValue == null) {
-                    context.set("val", null);
-                } else {
-                    context.set("val", convertToDataTypeValue(sourceAttributeValue, mapping.getXmlType()));
-                }
-            } catch (DataTypeTransformationException e) {
-                context.set("val", null);
-                LOGGER.error("Error during setting jexl context for attrName"
-                        + mapping.getJPath() + " Value " + sourceAttributeValue, e);
-            }
+        String exprsn = mapping.getExprsn();
+        if (exprsn == null || exprsn.trim().isEmpty()) {
+            // Nothing to evaluate
+            return sourceAttributeValue;
         }
+        JexlExpression expression;
         try {
-            result = ExpressionEvaluator.attrEval(mapping.getExprsn(), context, String.class);
+            expression = ExpressionEvaluator.compile(exprsn);
         } catch (Exception e) {
-            throw new AttributeLevelTransformationException("Transformation failed: "
-                    + mapping.getJPath().split("\\.")[1] + " Val: " + sourceAttributeValue);
+            throw transformationFailed(mapping.getJPath(), sourceAttributeValue, e);
+        }
+        return transform(sourceAttributeValue, expression, mapping.getXmlType(), mapping.getJPath());
+    }
+
+    /**
+     * Evaluates an expression parsed once by the caller (see {@link CompiledMapping}). The value is converted
+     * to the xmlType and bound as {@code val} in a context reused per thread.
+     *
+     * @return The expression result, or the source value if the expression yields null.
+     */
+    public static String transform(String sourceAttributeValue, JexlExpression expression, String xmlType, String jPath) throws Exception {
+        String result;
+        EvaluationContext context = EvaluationContext.acquire();
+        try {
+            if (null != sourceAttributeValue) {
+                try {
+                    context.set(EvaluationContext.VAL, convertToDataTypeValue(sourceAttributeValue, xmlType));
+                } catch (DataTypeTransformationException e) {
+                    TransformMetrics.get().dataTypeConversionFailed();
+                    context.set(EvaluationContext.VAL, null);
+                    LOGGER.error("Error during setting jexl context for attrName"
+                            + jPath + " Value " + sourceAttributeValue, e);
+                }
+            }
+            try {
+                result = String.class.cast(expression.evaluate(context));
+            } catch (Exception e) {
+                throw transformationFailed(jPath, sourceAttributeValue, e);
+            }
+        } finally {
+            context.release();
         }
         return result == null ? sourceAttributeValue : result;
     }
 
+    static AttributeLevelTransformationException transformationFailed(String jPath, String sourceAttributeValue, Throwable cause) {
+        String[] jPathParts = jPath == null ? new String[0] : jPath.split("\\.");
+        String name = jPathParts.length > 1 ? jPathParts[1] : jPath;
+        TransformMetrics.get().attributeTransformationFailed();
+        return new AttributeLevelTransformationException("Transformation failed: " + name + " Val: " + sourceAttributeValue, cause);
+    }
+
     public static Object convertToDataTypeValue(String value, String dataType) throws DataTypeTransformationException {
         try {
             if (null == value || "null".equalsIgnoreCase(value)) {
@@ -0,0 +1,206 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import org.apache.commons.jexl3.JexlException;
+import org.apache.commons.jexl3.JexlExpression;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, pre-resolved form of a {@link Mapping}.
+ * The xPath is split into element names, the jPath is compiled into a {@link JsonPointer}
+ * and the expression is parsed into a {@link JexlExpression} once, so the writer does no string work
+ * and no expression lookup per JSON node.
+ * <p>
+ * A jPath in the original form, {@code $.a.b} with {@code [*]} after any name, selects one node through its
+ * pointer. Any other jPath, e.g. with a filter, index, slice or {@code ..}, is compiled into a {@link JsonPath}:
+ * a list mapping then gets each match as a list item, other mappings get the first match.
+ */
+public final class CompiledMapping {
+
+    private static final CompiledMapping[] NO_CHILDREN = new CompiledMapping[0];
+
+    private final String jPath;
+    private final String xPath;
+    private final JsonPointer pointer;     // for JSONPath queries, the leading names of the query
+    private final JsonPath query;          // null when the jPath selects one node by pointer
+    private final String head;             // first pointer segment, null when the pointer selects the node itself
+    private final boolean singleSegment;   // pointer has exactly one segment, and there is no query
+    private final boolean streamsItems;    // list query of a field name and an item selector, see JsonPath.selectsItems
+    private final String[] wrapperNames;   // xPath parts written around the element
+    private final String elementName;      // last xPath part
+    private final boolean list;
+    private final boolean attribute;
+    private final String jsonType;
+    private final ValueTransformer transformer;
+    private final CompiledMapping[] children;
+    private final CompiledMapping[] elementChildren; // children that are not attributes
+    private final FieldDispatch childDispatch;       // element children by the field they read
+
+    private CompiledMapping(Mapping mapping, CompiledMapping[] children) {
+        this.jPath = mapping.getJPath();
+        this.xPath = mapping.getXPath();
+        if (isPointerPath(jPath)) {
+            this.query = null;
+            this.pointer = JsonPointer.compile(JsonToXmlSteam.convertJsonPathToJsonPointer(jPath));
+        } else {
+            JsonPath compiled = JsonPath.compile(jPath);
+            this.query = compiled.leadingNames() == compiled.length() ? null : compiled;
+            this.pointer = namePointer(compiled);
+        }
+        this.head = pointer.matches() ? null : pointer.getMatchingProperty();
+        this.singleSegment = query == null && head != null && pointer.tail().matches();
+        this.streamsItems = query != null && mapping.isList() && query.leadingNames() == 1 && query.selectsItems(1);
+
+        String[] xpathParts = xPath.split("/");
+        this.wrapperNames = Arrays.copyOf(xpathParts, xpathParts.length - 1);
+        this.elementName = xpathParts[xpathParts.length - 1];
+
+        this.list = mapping.isList();
+        this.attribute = xPath.contains("@");
+        this.jsonType = mapping.getJsonType();
+        this.transformer = bindTransformer(mapping);
+        this.children = children;
+        this.elementChildren = Arrays.stream(children)
+                .filter(child -> !child.attribute)
+                .toArray(CompiledMapping[]::new);
+        this.childDispatch = FieldDispatch.of(elementChildren);
+    }
+
+    // Compiles a mapping and its whole child hierarchy
+    static CompiledMapping compile(Mapping mapping) {
+        List<Mapping> childMappings = mapping.getChildMappings();
+        CompiledMapping[] children = NO_CHILDREN;
+        if (childMappings != null && !childMappings.isEmpty()) {
+            children = new CompiledMapping[childMappings.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = compile(childMappings.get(i));
+            }
+        }
+        return new CompiledMapping(mapping, children);
+    }
+
+    // The original jPath syntax, converted by JsonToXmlSteam.convertJsonPathToJsonPointer
+    private static boolean isPointerPath(String jPath) {
+        if (jPath.equals("$")) {
+            return true;
+        }
+        if (!jPath.startsWith("$.")) {
+            return false;
+        }
+        String names = jPath.substring(2).replace("[*]", "");
+        return !names.isEmpty() && !names.startsWith(".") && !names.endsWith(".") && !names.contains("..")
+                && names.chars().noneMatch(c -> c == '[' || c == ']' || c == '*' || c == '?');
+    }
+
+    // Pointer of the leading name steps of a JSONPath
+    private static JsonPointer namePointer(JsonPath path) {
+        StringBuilder pointer = new StringBuilder();
+        for (int i = 0; i < path.leadingNames(); i++) {
+            pointer.append('/').append(path.name(i).replace("~", "~0").replace("/", "~1"));
+        }
+        return JsonPointer.compile(pointer.toString());
+    }
+
+    // Mappings without an expression write the JSON text as-is; others are parsed here, once per plan
+    private static ValueTransformer bindTransformer(Mapping mapping) {
+        String exprsn = mapping.getExprsn();
+        if (exprsn == null || exprsn.trim().isEmpty()) {
+            return ValueTransformer.IDENTITY;
+        }
+        String jPath = mapping.getJPath();
+        String xmlType = mapping.getXmlType();
+        JexlExpression expression;
+        try {
+            expression = ExpressionEvaluator.compile(exprsn);
+        } catch (JexlException e) {
+            // As before plans existed, an invalid expression only fails once a value reaches it
+            return value -> {
+                throw AttributeLevelTransformation.transformationFailed(jPath, value, e);
+            };
+        }
+        // Simple expressions such as fmfcn calls run as direct method calls
+        ValueTransformer compiled = ExpressionCompiler.compile(exprsn, xmlType, jPath);
+        if (compiled != null) {
+            return compiled;
+        }
+        return value -> AttributeLevelTransformation.transform(value, expression, xmlType, jPath);
+    }
+
+    public String getJPath() { return jPath; }
+
+    public String getXPath() { return xPath; }
+
+    public JsonPointer getPointer() { return pointer; }
+
+    // The compiled jPath if it is more than a pointer, otherwise null
+    public JsonPath getQuery() { return query; }
+
+    /**
+     * The node the jPath selects from a node: the pointer's target, or for a query the first match, or all
+     * matches as an array for list mappings. {@link MissingNode} if nothing matches.
+     */
+    public JsonNode select(JsonNode node) {
+        return query == null ? node.at(pointer) : matches(node, 0);
+    }
+
+    public String getElementName() { return elementName; }
+
+    public boolean isList() { return list; }
+
+    public boolean isAttribute() { return attribute; }
+
+    public String getJsonType() { return jsonType; }
+
+    public ValueTransformer getTransformer() { return transformer; }
+
+    public List<CompiledMapping> getChildren() {
+        return Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    // Hot-path accessors; callers must not modify the returned arrays
+    String[] wrapperNames() { return wrapperNames; }
+
+    String head() { return head; }
+
+    boolean isSingleSegment() { return singleSegment; }
+
+    boolean streamsItems() { return streamsItems; }
+
+    // Like select, given the value of the head field
+    JsonNode selectFromHead(JsonNode headValue) {
+        if (query != null) {
+            return matches(headValue, 1);
+        }
+        return singleSegment ? headValue : headValue.at(pointer.tail());
+    }
+
+    private JsonNode matches(JsonNode node, int fromStep) {
+        if (!list) {
+            return query.first(node, fromStep);
+        }
+        List<JsonNode> matches = query.select(node, fromStep, Integer.MAX_VALUE);
+        if (matches.isEmpty()) {
+            return MissingNode.getInstance();
+        }
+        ArrayNode items = JsonNodeFactory.instance.arrayNode(matches.size());
+        items.addAll(matches);
+        return items;
+    }
+
+    CompiledMapping[] elementChildren() { return elementChildren; }
+
+    FieldDispatch childDispatch() { return childDispatch; }
+
+    boolean hasExpression() { return transformer != ValueTransformer.IDENTITY; }
+
+    String transform(String value) throws Exception {
+        return transformer.transform(value);
+    }
+}
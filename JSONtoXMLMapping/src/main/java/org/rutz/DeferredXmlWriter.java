@@ -0,0 +1,293 @@
+package org.rutz;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Wraps an {@link XMLStreamWriter} with a deferred-open element stack.
+ * <p>
+ * A suppressible element is only written once content is committed somewhere below it. Until then its
+ * start tag and everything written inside it (wrappers, null values) are held back, and they are dropped
+ * if the element is closed without content. This gives the same output as scanning a subtree for
+ * content before opening it, but every node is visited once. Text that still needs its mapping's
+ * expression is held back untransformed, so the expression only runs if the text is written, as in the scan.
+ * <p>
+ * When built with the stream the XML writer encodes to, or on a {@link Utf8XmlWriter}, already encoded
+ * fragments can be spliced in with {@link #writeRaw(byte[], int, int)}; this is how {@link ParallelListRenderer}
+ * joins its chunks.
+ */
+public final class DeferredXmlWriter {
+
+    private static final byte START = 0;
+    private static final byte CHARACTERS = 1;
+    private static final byte END = 2;
+    private static final byte RAW = 3;
+    private static final byte TRANSFORMED = 4;
+
+    private final XMLStreamWriter writer;
+    private final OutputStream rawTarget;
+    private final TransformCounts counts;
+
+    // Open element stack
+    private boolean[] suppressible = new boolean[16];
+    private boolean[] isolated = new boolean[16];
+    private boolean[] pending = new boolean[16];
+    private int[] marks = new int[16];
+    private int depth;
+    private int pendingCount;
+    private boolean rootContent;
+
+    // Events held back while at least one element is pending
+    private byte[] eventTypes = new byte[64];
+    private Object[] eventValues = new Object[64];
+    private int eventCount;
+
+    public DeferredXmlWriter(XMLStreamWriter writer) {
+        this(writer, null);
+    }
+
+    /**
+     * @param writer    The XML writer.
+     * @param rawTarget The stream the writer encodes to, or null if raw fragments are not used or the writer
+     *                  is a {@link Utf8XmlWriter}.
+     */
+    public DeferredXmlWriter(XMLStreamWriter writer, OutputStream rawTarget) {
+        this(writer, rawTarget, new TransformCounts());
+    }
+
+    // Counts the written and skipped elements, and is shared with the renderers of the same transform
+    DeferredXmlWriter(XMLStreamWriter writer, OutputStream rawTarget, TransformCounts counts) {
+        this.writer = writer;
+        this.rawTarget = rawTarget;
+        this.counts = counts;
+    }
+
+    public XMLStreamWriter getWriter() {
+        return writer;
+    }
+
+    TransformCounts counts() {
+        return counts;
+    }
+
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        writer.writeStartDocument(encoding, version);
+    }
+
+    public void writeEndDocument() throws XMLStreamException {
+        if (depth != 0) {
+            throw new IllegalStateException("Cannot end document with " + depth + " open element(s)");
+        }
+        writer.writeEndDocument();
+    }
+
+    // Opens an element that is always written once its enclosing elements are (e.g. xPath wrappers)
+    public void writeStartElement(String name) throws XMLStreamException {
+        push(false, false);
+        if (pendingCount > 0) {
+            buffer(START, name);
+        } else {
+            writer.writeStartElement(name);
+            counts.xmlElements++;
+        }
+    }
+
+    /**
+     * Opens an element that is dropped unless {@link #commit()} is called before it is closed.
+     *
+     * @param name     The element name.
+     * @param isolated If true, content committed below this element does not make its ancestors visible.
+     */
+    public void writeSuppressibleStartElement(String name, boolean isolated) throws XMLStreamException {
+        push(true, isolated);
+        pending[depth - 1] = true;
+        marks[depth - 1] = eventCount;
+        pendingCount++;
+        buffer(START, name);
+    }
+
+    public void writeCharacters(String text) throws XMLStreamException {
+        if (pendingCount > 0) {
+            buffer(CHARACTERS, text);
+        } else {
+            writer.writeCharacters(text);
+        }
+    }
+
+    // Writes the mapping's transform of the value; while an element is pending, only once the element is written
+    void writeTransformedCharacters(CompiledMapping mapping, String value) throws Exception {
+        if (pendingCount > 0) {
+            buffer(TRANSFORMED, new PendingValue(mapping, value));
+        } else {
+            writer.writeCharacters(counts.transform(mapping, value));
+        }
+    }
+
+    /**
+     * Splices encoded XML into the output at the current position. The bytes must be a sequence of
+     * complete elements in the writer's encoding. Like other events they are dropped if a pending element
+     * around them is closed without content; on their own they do not count as content.
+     */
+    public void writeRaw(byte[] bytes, int offset, int length) throws XMLStreamException, IOException {
+        if (rawTarget == null && !(writer instanceof Utf8XmlWriter)) {
+            throw new IllegalStateException("Raw output needs the target stream of the XML writer");
+        }
+        if (pendingCount > 0) {
+            buffer(RAW, Arrays.copyOfRange(bytes, offset, offset + length));
+        } else {
+            writeRawNow(bytes, offset, length);
+        }
+    }
+
+    public void writeEndElement() throws XMLStreamException {
+        endElement();
+    }
+
+    // As writeEndElement; true if the element was still pending and so dropped
+    boolean endElement() throws XMLStreamException {
+        if (depth == 0) {
+            throw new IllegalStateException("No open element to end");
+        }
+        depth--;
+        if (pending[depth]) {
+            // Closed without content: drop the element and everything written inside it
+            pending[depth] = false;
+            pendingCount--;
+            counts.emptyElements++;
+            Arrays.fill(eventValues, marks[depth], eventCount, null);
+            eventCount = marks[depth];
+            return true;
+        }
+        if (pendingCount > 0) {
+            buffer(END, null);
+        } else {
+            writer.writeEndElement();
+        }
+        return false;
+    }
+
+    /**
+     * Marks the current position as having content, so the pending elements above it are written.
+     * Propagation stops at the first isolated or already committed element.
+     */
+    public void commit() throws XMLStreamException, IOException {
+        try {
+            commitContent();
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Only text of writeTransformedCharacters throws anything else, and its callers use commitContent
+            throw new XMLStreamException(e);
+        }
+    }
+
+    // As commit, passing on the failure of an expression that runs when its text is written
+    void commitContent() throws Exception {
+        boolean reachedRoot = true;
+        for (int i = depth - 1; i >= 0; i--) {
+            if (!suppressible[i]) continue;
+            if (!pending[i] || isolated[i]) {
+                reachedRoot = false;
+            }
+            if (!pending[i]) break;
+            pending[i] = false;
+            pendingCount--;
+            if (isolated[i]) break;
+        }
+        rootContent |= reachedRoot;
+        if (pendingCount == 0 && eventCount > 0) {
+            replay();
+        }
+    }
+
+    /**
+     * True once a commit has propagated past every open element, i.e. content was written that would make
+     * elements enclosing this writer's output visible.
+     */
+    public boolean hasRootContent() {
+        return rootContent;
+    }
+
+    public void flush() throws XMLStreamException {
+        writer.flush();
+    }
+
+    public void close() throws XMLStreamException {
+        writer.close();
+    }
+
+    private void push(boolean isSuppressible, boolean isIsolated) {
+        if (depth == suppressible.length) {
+            int size = depth * 2;
+            suppressible = Arrays.copyOf(suppressible, size);
+            isolated = Arrays.copyOf(isolated, size);
+            pending = Arrays.copyOf(pending, size);
+            marks = Arrays.copyOf(marks, size);
+        }
+        suppressible[depth] = isSuppressible;
+        isolated[depth] = isIsolated;
+        pending[depth] = false;
+        depth++;
+    }
+
+    private void buffer(byte type, Object value) {
+        if (eventCount == eventTypes.length) {
+            eventTypes = Arrays.copyOf(eventTypes, eventCount * 2);
+            eventValues = Arrays.copyOf(eventValues, eventCount * 2);
+        }
+        eventTypes[eventCount] = type;
+        eventValues[eventCount] = value;
+        eventCount++;
+    }
+
+    private void replay() throws Exception {
+        for (int i = 0; i < eventCount; i++) {
+            switch (eventTypes[i]) {
+                case START:
+                    writer.writeStartElement((String) eventValues[i]);
+                    counts.xmlElements++;
+                    break;
+                case CHARACTERS:
+                    writer.writeCharacters((String) eventValues[i]);
+                    break;
+                case RAW:
+                    byte[] bytes = (byte[]) eventValues[i];
+                    writeRawNow(bytes, 0, bytes.length);
+                    break;
+                case TRANSFORMED:
+                    PendingValue pendingValue = (PendingValue) eventValues[i];
+                    writer.writeCharacters(counts.transform(pendingValue.mapping, pendingValue.value));
+                    break;
+                default:
+                    writer.writeEndElement();
+                    break;
+            }
+            eventValues[i] = null;
+        }
+        eventCount = 0;
+    }
+
+    private static final class PendingValue {
+        final CompiledMapping mapping;
+        final String value;
+
+        PendingValue(CompiledMapping mapping, String value) {
+            this.mapping = mapping;
+            this.value = value;
+        }
+    }
+
+    private void writeRawNow(byte[] bytes, int offset, int length) throws XMLStreamException, IOException {
+        if (writer instanceof Utf8XmlWriter) {
+            ((Utf8XmlWriter) writer).writeRaw(bytes, offset, length);
+            return;
+        }
+        // Writing no text closes a start tag the writer still holds open, then everything before goes to the stream
+        writer.writeCharacters("");
+        writer.flush();
+        rawTarget.write(bytes, offset, length);
+    }
+}
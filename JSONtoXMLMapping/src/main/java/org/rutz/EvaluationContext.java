@@ -0,0 +1,74 @@
+package org.rutz;
+
+import org.apache.commons.jexl3.JexlContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JEXL context holding the value being transformed as {@code val}.
+ * One instance is kept per thread and reused for every evaluation on it, so transforming a value does not
+ * allocate a context. Other variables an expression assigns only live until the context is released.
+ */
+final class EvaluationContext implements JexlContext {
+
+    static final String VAL = "val";
+
+    // Qualified: JexlContext declares its own ThreadLocal interface
+    private static final java.lang.ThreadLocal<EvaluationContext> CURRENT = java.lang.ThreadLocal.withInitial(EvaluationContext::new);
+
+    private boolean hasVal;
+    private Object val;
+    private Map<String, Object> variables; // created on the first assignment to another name
+    private boolean inUse;
+
+    private EvaluationContext() {}
+
+    // The thread's context, or a fresh one if an evaluation on this thread is already using it
+    static EvaluationContext acquire() {
+        EvaluationContext context = CURRENT.get();
+        if (context.inUse) {
+            context = new EvaluationContext();
+        }
+        context.inUse = true;
+        return context;
+    }
+
+    void release() {
+        hasVal = false;
+        val = null;
+        if (variables != null) {
+            variables.clear();
+        }
+        inUse = false;
+    }
+
+    @Override
+    public Object get(String name) {
+        if (VAL.equals(name)) {
+            return val;
+        }
+        return variables == null ? null : variables.get(name);
+    }
+
+    @Override
+    public void set(String name, Object value) {
+        if (VAL.equals(name)) {
+            hasVal = true;
+            val = value;
+        } else {
+            if (variables == null) {
+                variables = new HashMap<>();
+            }
+            variables.put(name, value);
+        }
+    }
+
+    @Override
+    public boolean has(String name) {
+        if (VAL.equals(name)) {
+            return hasVal;
+        }
+        return variables != null && variables.containsKey(name);
+    }
+}
@@ -0,0 +1,362 @@
+package org.rutz;
+
+import org.apache.commons.jexl3.JexlArithmetic;
+import org.apache.commons.jexl3.JexlException;
+import org.apache.commons.jexl3.JexlExpression;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles simple mapping expressions to direct Java calls, bypassing the JEXL interpreter.
+ * <p>
+ * Supported are {@code val}, integer and string literals, calls into the {@code fmfcn} namespace,
+ * {@code + - * / %}, unary minus and parentheses. Function calls are bound to {@link MethodHandle}s when the
+ * expression is compiled. Operators are applied with the JEXL engine's own {@link JexlArithmetic}, so
+ * numeric promotion, string concatenation and null handling are the interpreter's. Anything else is left
+ * to JEXL.
+ * <p>
+ * If the argument types of a call would not select the bound method, that value is evaluated by JEXL
+ * instead. Results and failures are therefore always those of
+ * {@link AttributeLevelTransformation#transform(String, JexlExpression, String, String)}.
+ */
+public final class ExpressionCompiler {
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private ExpressionCompiler() {}
+
+    /**
+     * @param exprsn  The mapping expression.
+     * @param xmlType The type the value is converted to before it is bound as {@code val}.
+     * @param jPath   The mapping's jPath, for error messages.
+     * @return A transformer calling the compiled expression, or null if the expression is not supported.
+     */
+    public static ValueTransformer compile(String exprsn, String xmlType, String jPath) {
+        if (exprsn == null || exprsn.trim().isEmpty()) {
+            return null;
+        }
+        Node root;
+        try {
+            root = new Parser(exprsn).parse();
+        } catch (Unsupported e) {
+            return null;
+        }
+        JexlExpression expression;
+        try {
+            expression = ExpressionEvaluator.compile(exprsn);
+        } catch (JexlException e) {
+            // Not valid JEXL even if the subset parser accepted it
+            return null;
+        }
+        return new CompiledTransformer(root, expression, xmlType, jPath);
+    }
+
+    @FunctionalInterface
+    private interface Node {
+        Object eval(Object val) throws Throwable;
+    }
+
+    private static final class CompiledTransformer implements ValueTransformer {
+        private final Node root;
+        private final JexlExpression expression; // for values the compiled form does not cover
+        private final String xmlType;
+        private final String jPath;
+
+        CompiledTransformer(Node root, JexlExpression expression, String xmlType, String jPath) {
+            this.root = root;
+            this.expression = expression;
+            this.xmlType = xmlType;
+            this.jPath = jPath;
+        }
+
+        @Override
+        public String transform(String value) throws Exception {
+            if (value == null) {
+                return interpret(value);
+            }
+            Object val;
+            try {
+                val = AttributeLevelTransformation.convertToDataTypeValue(value, xmlType);
+            } catch (DataTypeTransformationException e) {
+                // The interpreted path logs the conversion failure and evaluates with a null val
+                return interpret(value);
+            }
+
+            Object result;
+            try {
+                result = root.eval(val);
+            } catch (Fallback e) {
+                return interpret(value);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw AttributeLevelTransformation.transformationFailed(jPath, value, t);
+            }
+            if (result == null) {
+                return value;
+            }
+            if (!(result instanceof String)) {
+                throw AttributeLevelTransformation.transformationFailed(jPath, value,
+                        new ClassCastException("Cannot cast " + result.getClass().getName() + " to java.lang.String"));
+            }
+            return (String) result;
+        }
+
+        private String interpret(String value) throws Exception {
+            return AttributeLevelTransformation.transform(value, expression, xmlType, jPath);
+        }
+    }
+
+    // Recursive descent over the supported subset; throws Unsupported for anything else
+    private static final class Parser {
+        private final String text;
+        private final JexlArithmetic arithmetic = ExpressionEvaluator.arithmetic();
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parse() {
+            Node node = additive();
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw new Unsupported();
+            }
+            return node;
+        }
+
+        private Node additive() {
+            Node node = multiplicative();
+            while (true) {
+                skipWhitespace();
+                char op = peek();
+                if (op != '+' && op != '-') {
+                    return node;
+                }
+                pos++;
+                Node left = node;
+                Node right = multiplicative();
+                node = op == '+'
+                        ? val -> arithmetic.add(left.eval(val), right.eval(val))
+                        : val -> arithmetic.subtract(left.eval(val), right.eval(val));
+            }
+        }
+
+        private Node multiplicative() {
+            Node node = unary();
+            while (true) {
+                skipWhitespace();
+                char op = peek();
+                if (op != '*' && op != '/' && op != '%') {
+                    return node;
+                }
+                pos++;
+                Node left = node;
+                Node right = unary();
+                if (op == '*') {
+                    node = val -> arithmetic.multiply(left.eval(val), right.eval(val));
+                } else if (op == '/') {
+                    node = val -> arithmetic.divide(left.eval(val), right.eval(val));
+                } else {
+                    node = val -> arithmetic.mod(left.eval(val), right.eval(val));
+                }
+            }
+        }
+
+        private Node unary() {
+            skipWhitespace();
+            if (peek() == '-') {
+                pos++;
+                Node operand = unary();
+                return val -> arithmetic.negate(operand.eval(val));
+            }
+            return primary();
+        }
+
+        private Node primary() {
+            skipWhitespace();
+            char c = peek();
+            if (c == '(') {
+                pos++;
+                Node node = additive();
+                expect(')');
+                return node;
+            }
+            if (c == '\'' || c == '"') {
+                return stringLiteral(c);
+            }
+            if (c >= '0' && c <= '9') {
+                return integerLiteral();
+            }
+            String identifier = identifier();
+            if (peek() == ':') {
+                pos++;
+                return call(identifier, identifier());
+            }
+            if (!EvaluationContext.VAL.equals(identifier)) {
+                throw new Unsupported();
+            }
+            return val -> val;
+        }
+
+        private Node stringLiteral(char quote) {
+            int end = text.indexOf(quote, pos + 1);
+            if (end < 0) {
+                throw new Unsupported();
+            }
+            String literal = text.substring(pos + 1, end);
+            if (literal.indexOf('\\') >= 0) {
+                // Escapes are left to the JEXL parser
+                throw new Unsupported();
+            }
+            pos = end + 1;
+            return val -> literal;
+        }
+
+        private Node integerLiteral() {
+            int start = pos;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            // Suffixes, decimals, hex and octal (leading zero) literals are left to JEXL
+            if (Character.isLetterOrDigit(peek()) || peek() == '.' || (text.charAt(start) == '0' && pos - start > 1)) {
+                throw new Unsupported();
+            }
+            Integer literal;
+            try {
+                literal = Integer.valueOf(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw new Unsupported();
+            }
+            return val -> literal;
+        }
+
+        private Node call(String namespace, String name) {
+            if (!ExpressionEvaluator.FUNCTIONS_NAMESPACE.equals(namespace)) {
+                throw new Unsupported();
+            }
+            expect('(');
+            List<Node> args = new ArrayList<>();
+            skipWhitespace();
+            if (peek() == ')') {
+                pos++;
+            } else {
+                while (true) {
+                    args.add(additive());
+                    skipWhitespace();
+                    char c = peek();
+                    pos++;
+                    if (c == ')') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new Unsupported();
+                    }
+                }
+            }
+            return bind(name, args.toArray(new Node[0]));
+        }
+
+        // Binds the only public method with this name and arity; overloads are left to JEXL's resolution
+        private Node bind(String name, Node[] args) {
+            Method target = null;
+            for (Method method : TransformerExpressionFunctions.class.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length && !method.isVarArgs()) {
+                    if (target != null) {
+                        throw new Unsupported();
+                    }
+                    target = method;
+                }
+            }
+            if (target == null) {
+                throw new Unsupported();
+            }
+
+            MethodHandle handle;
+            try {
+                handle = MethodHandles.publicLookup().unreflect(target);
+            } catch (IllegalAccessException e) {
+                throw new Unsupported();
+            }
+            if (!Modifier.isStatic(target.getModifiers())) {
+                handle = handle.bindTo(ExpressionEvaluator.FUNCTIONS);
+            }
+            MethodHandle invoker = handle.asSpreader(Object[].class, args.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            Class<?>[] parameterTypes = target.getParameterTypes();
+
+            return val -> {
+                Object[] values = new Object[args.length];
+                for (int i = 0; i < args.length; i++) {
+                    values[i] = args[i].eval(val);
+                    if (!accepts(parameterTypes[i], values[i])) {
+                        throw FALLBACK;
+                    }
+                }
+                return (Object) invoker.invokeExact(values);
+            };
+        }
+
+        private String identifier() {
+            skipWhitespace();
+            int start = pos;
+            if (pos < text.length() && Character.isJavaIdentifierStart(text.charAt(pos))) {
+                pos++;
+                while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            if (pos == start) {
+                throw new Unsupported();
+            }
+            return text.substring(start, pos);
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            if (peek() != c) {
+                throw new Unsupported();
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+
+    // Argument types JEXL would certainly pass to this parameter unchanged
+    private static boolean accepts(Class<?> parameterType, Object value) {
+        if (!parameterType.isPrimitive()) {
+            return value == null || parameterType.isInstance(value);
+        }
+        return value != null && MethodType.methodType(parameterType).wrap().returnType() == value.getClass();
+    }
+
+    // The expression uses something the compiler does not cover
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // A value the compiled form cannot evaluate exactly like JEXL
+    private static final class Fallback extends RuntimeException {
+        Fallback() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -10,13 +10,17 @@ import java.util.Map;
  * This class provides methods to evaluate expressions and build JEXL contexts.
  */
 public class ExpressionEvaluator {
+    // Namespace of the custom functions and the object registered for it
+    static final String FUNCTIONS_NAMESPACE = "fmfcn";
+    static final TransformerExpressionFunctions FUNCTIONS = new TransformerExpressionFunctions();
+
     // Singleton instance of JexlEngine to reuse across evaluations
     private static JexlEngine JEXL_ENGINE;
 
     static {
         // Initialize the JexlEngine with optional custom functions
         Map<String, Object> functions = new HashMap<>();
-        functions.put("fmfcn", new TransformerExpressionFunctions());
+        functions.put(FUNCTIONS_NAMESPACE, FUNCTIONS);
 
         JEXL_ENGINE = new JexlBuilder()
                 .cache(512)                    // Caching expressions for performance
@@ -49,6 +53,26 @@ public class ExpressionEvaluator {
         return jexlExpression.evaluate(context);
     }
 
+    /**
+     * Parses a JEXL expression once so it can be evaluated many times without going through the engine cache.
+     * The returned expression is immutable and safe for concurrent use.
+     *
+     * @param expression The JEXL expression.
+     * @return The parsed expression.
+     * @throws IllegalArgumentException If the expression is null or empty.
+     */
+    public static JexlExpression compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Expression cannot be null or empty.");
+        }
+        return JEXL_ENGINE.createExpression(expression);
+    }
+
+    // The engine's arithmetic, for code that applies JEXL operators without the interpreter
+    static JexlArithmetic arithmetic() {
+        return JEXL_ENGINE.getArithmetic();
+    }
+
     public static <T> T attrEval(String expression, JexlContext context, Class<T> returnType) {
         JexlExpression e  = JEXL_ENGINE.createExpression(expression);
         T result = returnType.cast(e.evaluate(context));
@@ -0,0 +1,195 @@
+package org.rutz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Index of the sibling child mappings of one parent by the JSON field they read, so an object's children
+ * are resolved from one pass over its fields instead of one pointer lookup per child mapping.
+ * <p>
+ * Field names are kept in an open-addressing table sized to at most half full. Jackson interns field
+ * names, so a lookup is usually one hash probe and an identity comparison. A child whose jPath selects the
+ * parent object itself is listed under every field its own children read. A child whose {@link JsonPath}
+ * does not start with a field name may read any field, and is listed under all of them.
+ */
+final class FieldDispatch {
+
+    static final FieldDispatch EMPTY = new FieldDispatch(new CompiledMapping[0], new LinkedHashMap<>(), new ArrayList<>());
+
+    private static final JsonNode[] NO_VALUES = new JsonNode[0];
+
+    private final CompiledMapping[] children;
+    private final String[] fields;      // table slots, null when empty
+    private final int[][] consumers;    // child indexes reading the field of the same slot, ascending
+    private final int[] anyField;       // child indexes reading every field
+    private final int mask;
+    private final int fieldCount;
+    private final JsonProjection projection;
+
+    private FieldDispatch(CompiledMapping[] children, Map<String, List<Integer>> consumersByField, List<Integer> anyField) {
+        this.children = children;
+        this.anyField = anyField.stream().mapToInt(Integer::intValue).toArray();
+        int capacity = Integer.highestOneBit(Math.max(1, consumersByField.size()) * 2) * 2;
+        this.fields = new String[capacity];
+        this.consumers = new int[capacity][];
+        this.mask = capacity - 1;
+        this.fieldCount = consumersByField.size();
+        this.projection = JsonProjection.of(children);
+        for (Map.Entry<String, List<Integer>> entry : consumersByField.entrySet()) {
+            int slot = entry.getKey().hashCode() & mask;
+            while (fields[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            fields[slot] = entry.getKey();
+            consumers[slot] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            if (this.anyField.length > 0) {
+                consumers[slot] = IntStream.concat(Arrays.stream(consumers[slot]), Arrays.stream(this.anyField))
+                        .sorted().distinct().toArray();
+            }
+        }
+    }
+
+    // Built once per parent when the plan is compiled; the children's own dispatch must already exist
+    static FieldDispatch of(CompiledMapping[] children) {
+        if (children.length == 0) {
+            return EMPTY;
+        }
+        Map<String, List<Integer>> consumersByField = new LinkedHashMap<>();
+        List<Integer> anyField = new ArrayList<>();
+        for (int i = 0; i < children.length; i++) {
+            CompiledMapping child = children[i];
+            if (child.head() != null) {
+                addConsumer(consumersByField, child.head(), i);
+            } else if (child.getQuery() != null || child.childDispatch().readsAnyField()) {
+                anyField.add(i);
+            } else {
+                for (String field : child.childDispatch().fieldNames()) {
+                    addConsumer(consumersByField, field, i);
+                }
+            }
+        }
+        return new FieldDispatch(children, consumersByField, anyField);
+    }
+
+    private static void addConsumer(Map<String, List<Integer>> consumersByField, String field, int index) {
+        List<Integer> indexes = consumersByField.computeIfAbsent(field, key -> new ArrayList<>());
+        if (indexes.isEmpty() || indexes.get(indexes.size() - 1) != index) {
+            indexes.add(index);
+        }
+    }
+
+    CompiledMapping[] children() {
+        return children;
+    }
+
+    // The fields the children read below the parent object, for reading it as a sparse tree
+    JsonProjection projection() {
+        return projection;
+    }
+
+    // Indexes of the children reading the field, directly or through a child that selects the same object
+    int[] consumers(String field) {
+        int slot = field.hashCode() & mask;
+        String candidate;
+        while ((candidate = fields[slot]) != null) {
+            if (candidate == field || candidate.equals(field)) {
+                return consumers[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return anyField;
+    }
+
+    // Approximate heap of the table, its consumer arrays and its projection; the children are not included
+    long estimatedSize() {
+        if (this == EMPTY) {
+            return 0;
+        }
+        long size = 32 + arrayBytes(children.length) + 2 * arrayBytes(fields.length) + arrayBytes(anyField.length);
+        for (int[] slot : consumers) {
+            if (slot != null) {
+                size += arrayBytes(slot.length);
+            }
+        }
+        return size + projection.estimatedSize();
+    }
+
+    // Header and 4-byte elements, references being compressed
+    static long arrayBytes(int length) {
+        return 16 + 4L * length;
+    }
+
+    // True if some child may read fields that are not known in advance
+    boolean readsAnyField() {
+        return anyField.length > 0;
+    }
+
+    private List<String> fieldNames() {
+        List<String> names = new ArrayList<>(fieldCount);
+        for (String field : fields) {
+            if (field != null) {
+                names.add(field);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Resolves every child against a JSON node, with the result {@link CompiledMapping#select(JsonNode)} would
+     * give: the node itself for children selecting it, {@link MissingNode} for absent fields. An object with
+     * fewer fields than the children read is resolved by iterating its fields, a larger one by looking up
+     * each field read.
+     */
+    JsonNode[] resolve(JsonNode node) {
+        if (children.length == 0) {
+            return NO_VALUES;
+        }
+        JsonNode[] values = new JsonNode[children.length];
+        if (!node.isObject()) {
+            for (int i = 0; i < children.length; i++) {
+                values[i] = children[i].select(node);
+            }
+            return values;
+        }
+
+        if (node.size() < fieldCount) {
+            Iterator<Map.Entry<String, JsonNode>> fieldsOfNode = node.fields();
+            while (fieldsOfNode.hasNext()) {
+                Map.Entry<String, JsonNode> field = fieldsOfNode.next();
+                for (int index : consumers(field.getKey())) {
+                    if (children[index].head() != null) {
+                        values[index] = field.getValue();
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < children.length; i++) {
+                String head = children[i].head();
+                if (head != null) {
+                    values[i] = node.get(head);
+                }
+            }
+        }
+
+        for (int i = 0; i < children.length; i++) {
+            CompiledMapping child = children[i];
+            JsonNode value = values[i];
+            if (child.head() == null) {
+                values[i] = child.getQuery() != null ? child.select(node) : node;
+            } else if (value == null) {
+                values[i] = MissingNode.getInstance();
+            } else if (!child.isSingleSegment()) {
+                values[i] = child.selectFromHead(value);
+            }
+        }
+        return values;
+    }
+}
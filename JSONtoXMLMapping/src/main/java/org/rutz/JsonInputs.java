@@ -0,0 +1,29 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.rutz.util.MappedFileInputStream;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Opens JSON files for Jackson's byte-based parser, without decoding the document into a String first.
+ */
+final class JsonInputs {
+
+    // Smaller files are read into one array; mapping them costs more than it saves
+    static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private JsonInputs() {
+    }
+
+    // The parser owns the input and releases it when closed
+    static JsonParser createParser(JsonFactory factory, Path jsonFile) throws IOException {
+        if (Files.size(jsonFile) < MAP_THRESHOLD) {
+            return factory.createParser(Files.readAllBytes(jsonFile));
+        }
+        return factory.createParser(new MappedFileInputStream(jsonFile));
+    }
+}
@@ -0,0 +1,597 @@
+package org.rutz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A JSONPath expression compiled into a matcher over its steps.
+ * <p>
+ * Supported are names ({@code .name}, {@code ['name']}), wildcards ({@code .*}, {@code [*]}), indexes
+ * ({@code [0]}, {@code [-1]}), slices ({@code [1:5]}, {@code [::2]}), recursive descent ({@code ..name},
+ * {@code ..*}, {@code ..[0]}) and filters such as {@code [?(@.region == 'EU' && @.size > 2)]}, which compare
+ * relative paths with string, number, boolean and null literals, test them for existence and combine
+ * tests with {@code &&}, {@code ||}, {@code !} and parentheses. Filters apply to array items and object members.
+ * <p>
+ * The steps are the states of a nondeterministic automaton. Matching walks the document once, in document
+ * order, keeping the states active at each node in a bit set; a subtree is entered only if a state can
+ * continue into it, and a single name or index step reads its child directly. Matches are therefore
+ * returned in document order and each node at most once. Immutable and thread-safe.
+ */
+public final class JsonPath {
+
+    private static final int MAX_STEPS = 63;
+
+    private final String expression;
+    private final Step[] steps;
+    private final long accept;
+
+    private JsonPath(String expression, List<Step> steps) {
+        if (steps.size() > MAX_STEPS) {
+            throw new IllegalArgumentException("JSONPath has more than " + MAX_STEPS + " steps: " + expression);
+        }
+        this.expression = expression;
+        this.steps = steps.toArray(new Step[0]);
+        this.accept = 1L << this.steps.length;
+    }
+
+    /**
+     * Compiles an expression starting at {@code $}, the node the path is applied to.
+     *
+     * @throws IllegalArgumentException If the expression is not valid or not supported.
+     */
+    public static JsonPath compile(String expression) {
+        if (expression == null) {
+            throw new IllegalArgumentException("JSONPath cannot be null.");
+        }
+        Parser parser = new Parser(expression);
+        JsonPath path = parser.path();
+        if (!parser.atEnd()) {
+            throw parser.error("unexpected '" + expression.charAt(parser.pos) + "'");
+        }
+        return path;
+    }
+
+    // Every node the path selects from the node, in document order
+    public List<JsonNode> select(JsonNode node) {
+        return select(node, 0, Integer.MAX_VALUE);
+    }
+
+    // The first node the path selects, or MissingNode; stops walking at the first match
+    public JsonNode first(JsonNode node) {
+        return first(node, 0);
+    }
+
+    JsonNode first(JsonNode node, int fromStep) {
+        List<JsonNode> matches = select(node, fromStep, 1);
+        return matches.isEmpty() ? MissingNode.getInstance() : matches.get(0);
+    }
+
+    // Matches of the steps from fromStep on, applied to a node the earlier steps selected
+    List<JsonNode> select(JsonNode node, int fromStep, int limit) {
+        List<JsonNode> matches = new ArrayList<>(limit == 1 ? 1 : 4);
+        walk(node, 1L << fromStep, matches, limit);
+        return matches;
+    }
+
+    public int length() {
+        return steps.length;
+    }
+
+    // Number of leading steps that are plain names
+    int leadingNames() {
+        int count = 0;
+        while (count < steps.length && steps[count].isPlainName()) {
+            count++;
+        }
+        return count;
+    }
+
+    // The name a plain name step reads
+    String name(int step) {
+        return steps[step].name;
+    }
+
+    // True if the step picks items of an array by position or filter without knowing the array's length
+    boolean selectsItems(int step) {
+        Step s = steps[step];
+        if (s.descendant) {
+            return false;
+        }
+        switch (s.kind) {
+            case WILDCARD:
+            case FILTER:
+                return true;
+            case INDEX:
+                return s.index >= 0;
+            case SLICE:
+                return s.sliceStep > 0 && (s.start == null || s.start >= 0) && (s.end == null || s.end >= 0);
+            default:
+                return false;
+        }
+    }
+
+    // Whether a selectsItems step needs the item itself, not only its position
+    boolean needsItem(int step) {
+        return steps[step].kind == Kind.FILTER;
+    }
+
+    // Tests an array item against a selectsItems step; the item may be null if needsItem is false
+    boolean matchesItem(int step, int index, JsonNode item) {
+        return steps[step].matches(null, index, Integer.MAX_VALUE, item);
+    }
+
+    // Returns true once the limit is reached
+    private boolean walk(JsonNode node, long states, List<JsonNode> matches, int limit) {
+        if ((states & accept) != 0) {
+            matches.add(node);
+            if (matches.size() >= limit) {
+                return true;
+            }
+        }
+        long active = states & ~accept;
+        if (active == 0 || !node.isContainerNode()) {
+            return false;
+        }
+
+        if (Long.bitCount(active) == 1) {
+            // One plain name or index step reads its child without visiting the others
+            Step step = steps[Long.numberOfTrailingZeros(active)];
+            if (!step.descendant && (step.kind == Kind.NAME || step.kind == Kind.INDEX)) {
+                JsonNode child = step.kind == Kind.NAME
+                        ? (node.isObject() ? node.get(step.name) : null)
+                        : (node.isArray() ? node.get(step.index < 0 ? node.size() + step.index : step.index) : null);
+                return child != null && walk(child, active << 1, matches, limit);
+            }
+        }
+
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                long next = advance(active, field.getKey(), -1, 0, field.getValue());
+                if (next != 0 && walk(field.getValue(), next, matches, limit)) {
+                    return true;
+                }
+            }
+        } else {
+            int size = node.size();
+            for (int i = 0; i < size; i++) {
+                JsonNode item = node.get(i);
+                long next = advance(active, null, i, size, item);
+                if (next != 0 && walk(item, next, matches, limit)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // States active at a child: steps matching it move on, recursive descent steps also stay
+    private long advance(long active, String name, int index, int size, JsonNode child) {
+        long next = 0;
+        for (long states = active; states != 0; states &= states - 1) {
+            int i = Long.numberOfTrailingZeros(states);
+            Step step = steps[i];
+            if (step.descendant) {
+                next |= 1L << i;
+            }
+            if (step.matches(name, index, size, child)) {
+                next |= 1L << (i + 1);
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private enum Kind { NAME, WILDCARD, INDEX, SLICE, FILTER }
+
+    private static final class Step {
+        final Kind kind;
+        final boolean descendant; // preceded by '..'
+        String name;
+        int index;
+        Integer start;
+        Integer end;
+        int sliceStep = 1;
+        Predicate<JsonNode> filter;
+
+        Step(Kind kind, boolean descendant) {
+            this.kind = kind;
+            this.descendant = descendant;
+        }
+
+        boolean isPlainName() {
+            return kind == Kind.NAME && !descendant;
+        }
+
+        // name is null for array items, index is -1 for object members
+        boolean matches(String fieldName, int itemIndex, int size, JsonNode child) {
+            switch (kind) {
+                case NAME:
+                    return name.equals(fieldName);
+                case WILDCARD:
+                    return true;
+                case INDEX:
+                    return fieldName == null && itemIndex == (index < 0 ? size + index : index);
+                case SLICE:
+                    return fieldName == null && inSlice(itemIndex, size);
+                default:
+                    return filter.test(child);
+            }
+        }
+
+        // RFC 9535 slice bounds; items are still matched in document order
+        private boolean inSlice(int itemIndex, int size) {
+            if (sliceStep > 0) {
+                int lower = clamp(start == null ? 0 : normalize(start, size), 0, size);
+                int upper = clamp(end == null ? size : normalize(end, size), 0, size);
+                return itemIndex >= lower && itemIndex < upper && (itemIndex - lower) % sliceStep == 0;
+            }
+            if (sliceStep < 0) {
+                int upper = clamp(start == null ? size - 1 : normalize(start, size), -1, size - 1);
+                int lower = clamp(end == null ? -1 : normalize(end, size), -1, size - 1);
+                return itemIndex > lower && itemIndex <= upper && (upper - itemIndex) % -sliceStep == 0;
+            }
+            return false;
+        }
+
+        private static int normalize(int bound, int size) {
+            return bound < 0 ? size + bound : bound;
+        }
+
+        private static int clamp(int value, int min, int max) {
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+
+    // Recursive descent over the expression text
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        boolean atEnd() {
+            return pos == text.length();
+        }
+
+        JsonPath path() {
+            expect('$');
+            return new JsonPath(text, steps(false));
+        }
+
+        // Steps up to the end of the text, or in a filter up to the first character that cannot continue a path
+        private List<Step> steps(boolean inFilter) {
+            List<Step> steps = new ArrayList<>();
+            while (!atEnd()) {
+                char c = text.charAt(pos);
+                if (c == '.') {
+                    pos++;
+                    boolean descendant = peek('.');
+                    if (descendant) {
+                        pos++;
+                    }
+                    if (peek('[')) {
+                        if (!descendant) {
+                            throw error("'[' after '.'");
+                        }
+                        steps.add(bracket(true));
+                    } else if (peek('*')) {
+                        pos++;
+                        steps.add(new Step(Kind.WILDCARD, descendant));
+                    } else {
+                        Step step = new Step(Kind.NAME, descendant);
+                        step.name = name(inFilter);
+                        steps.add(step);
+                    }
+                } else if (c == '[') {
+                    steps.add(bracket(false));
+                } else if (inFilter) {
+                    break;
+                } else {
+                    throw error("unexpected '" + c + "'");
+                }
+            }
+            return steps;
+        }
+
+        private String name(boolean inFilter) {
+            int from = pos;
+            while (!atEnd()) {
+                char c = text.charAt(pos);
+                if (c == '.' || c == '[' || c == ']' || (inFilter && !Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '$')) {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == from) {
+                throw error("missing name");
+            }
+            return text.substring(from, pos);
+        }
+
+        private Step bracket(boolean descendant) {
+            expect('[');
+            skipSpaces();
+            Step step;
+            char c = current();
+            if (c == '*') {
+                pos++;
+                step = new Step(Kind.WILDCARD, descendant);
+            } else if (c == '\'' || c == '"') {
+                step = new Step(Kind.NAME, descendant);
+                step.name = quoted();
+            } else if (c == '?') {
+                pos++;
+                step = new Step(Kind.FILTER, descendant);
+                skipSpaces();
+                step.filter = or();
+            } else {
+                step = indexOrSlice(descendant);
+            }
+            skipSpaces();
+            if (peek(',')) {
+                throw error("unions are not supported");
+            }
+            expect(']');
+            return step;
+        }
+
+        private Step indexOrSlice(boolean descendant) {
+            Integer first = optionalInt();
+            skipSpaces();
+            if (!peek(':')) {
+                if (first == null) {
+                    throw error("expected a name, index, slice, '*' or filter");
+                }
+                Step step = new Step(Kind.INDEX, descendant);
+                step.index = first;
+                return step;
+            }
+            Step step = new Step(Kind.SLICE, descendant);
+            step.start = first;
+            pos++;
+            skipSpaces();
+            step.end = optionalInt();
+            skipSpaces();
+            if (peek(':')) {
+                pos++;
+                skipSpaces();
+                Integer sliceStep = optionalInt();
+                step.sliceStep = sliceStep != null ? sliceStep : 1;
+            }
+            return step;
+        }
+
+        private Integer optionalInt() {
+            int from = pos;
+            if (peek('-')) {
+                pos++;
+            }
+            while (!atEnd() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == from) {
+                return null;
+            }
+            try {
+                return Integer.parseInt(text.substring(from, pos));
+            } catch (NumberFormatException e) {
+                throw error("invalid index");
+            }
+        }
+
+        private String quoted() {
+            char quote = text.charAt(pos++);
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (atEnd()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == quote) {
+                    return value.toString();
+                }
+                if (c == '\\') {
+                    if (atEnd()) {
+                        throw error("unterminated string");
+                    }
+                    c = text.charAt(pos++);
+                }
+                value.append(c);
+            }
+        }
+
+        private Predicate<JsonNode> or() {
+            Predicate<JsonNode> left = and();
+            while (consume("||")) {
+                left = left.or(and());
+            }
+            return left;
+        }
+
+        private Predicate<JsonNode> and() {
+            Predicate<JsonNode> left = unary();
+            while (consume("&&")) {
+                left = left.and(unary());
+            }
+            return left;
+        }
+
+        private Predicate<JsonNode> unary() {
+            skipSpaces();
+            if (peek('!') && !text.startsWith("!=", pos)) {
+                pos++;
+                return unary().negate();
+            }
+            if (peek('(')) {
+                pos++;
+                Predicate<JsonNode> inner = or();
+                skipSpaces();
+                expect(')');
+                return inner;
+            }
+            Operand left = operand();
+            skipSpaces();
+            String operator = operator();
+            if (operator == null) {
+                // A relative path on its own tests for existence
+                if (left.path == null) {
+                    throw error("expected a comparison");
+                }
+                return node -> !left.value(node).isMissingNode();
+            }
+            skipSpaces();
+            Operand right = operand();
+            return node -> compare(left.value(node), operator, right.value(node));
+        }
+
+        private String operator() {
+            for (String operator : new String[]{"==", "!=", "<=", ">=", "<", ">"}) {
+                if (text.startsWith(operator, pos)) {
+                    pos += operator.length();
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        private Operand operand() {
+            char c = current();
+            if (c == '@') {
+                pos++;
+                return new Operand(new JsonPath(text, steps(true)), null);
+            }
+            if (c == '$') {
+                throw error("root references in filters are not supported");
+            }
+            if (c == '\'' || c == '"') {
+                return new Operand(null, TextNode.valueOf(quoted()));
+            }
+            for (String keyword : new String[]{"true", "false", "null"}) {
+                if (text.startsWith(keyword, pos)) {
+                    pos += keyword.length();
+                    return new Operand(null, keyword.equals("null") ? NullNode.getInstance() : BooleanNode.valueOf(keyword.equals("true")));
+                }
+            }
+            int from = pos;
+            while (!atEnd() && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return new Operand(null, DecimalNode.valueOf(new BigDecimal(text.substring(from, pos))));
+            } catch (NumberFormatException e) {
+                pos = from;
+                throw error("expected '@', a string, a number, true, false or null");
+            }
+        }
+
+        private boolean consume(String token) {
+            skipSpaces();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (!atEnd() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private boolean peek(char c) {
+            return !atEnd() && text.charAt(pos) == c;
+        }
+
+        private char current() {
+            if (atEnd()) {
+                throw error("unexpected end");
+            }
+            return text.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (!peek(c)) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        IllegalArgumentException error(String reason) {
+            return new IllegalArgumentException("Invalid JSONPath expression: " + text + " (" + reason + " at " + pos + ")");
+        }
+    }
+
+    // A relative path or a literal in a filter
+    private static final class Operand {
+        final JsonPath path;
+        final JsonNode literal;
+
+        Operand(JsonPath path, JsonNode literal) {
+            this.path = path;
+            this.literal = literal;
+        }
+
+        JsonNode value(JsonNode node) {
+            return path != null ? path.first(node) : literal;
+        }
+    }
+
+    // Numbers compare by value and strings by code point; other types are only equal or not
+    static boolean compare(JsonNode left, String operator, JsonNode right) {
+        switch (operator) {
+            case "==":
+                return equal(left, right);
+            case "!=":
+                return !equal(left, right);
+            default:
+                int order;
+                if (left.isNumber() && right.isNumber()) {
+                    order = left.decimalValue().compareTo(right.decimalValue());
+                } else if (left.isTextual() && right.isTextual()) {
+                    order = left.textValue().compareTo(right.textValue());
+                } else {
+                    return false;
+                }
+                switch (operator) {
+                    case "<":
+                        return order < 0;
+                    case "<=":
+                        return order <= 0;
+                    case ">":
+                        return order > 0;
+                    default:
+                        return order >= 0;
+                }
+        }
+    }
+
+    private static boolean equal(JsonNode left, JsonNode right) {
+        if (left.isMissingNode() || right.isMissingNode()) {
+            return left.isMissingNode() && right.isMissingNode();
+        }
+        if (left.isNumber() && right.isNumber()) {
+            return left.decimalValue().compareTo(right.decimalValue()) == 0;
+        }
+        return left.equals(right);
+    }
+}
@@ -0,0 +1,174 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The fields of a JSON document that a set of mappings can reach, derived from their jPaths when the plan
+ * is compiled. {@link #readTree} builds a sparse tree of only those fields and skips every other value in
+ * the parser, so unmapped subtrees cost no {@link JsonNode}s.
+ * <p>
+ * The sparse tree gives the same XML as the full one. Containers on a reachable path are always kept, even
+ * when none of their fields are, and array items are never dropped. A {@link JsonPath} query may read
+ * anything below its leading names, so that whole subtree is kept.
+ */
+final class JsonProjection {
+
+    // Reads the whole subtree
+    static final JsonProjection ALL = new JsonProjection(null, false);
+
+    private final Map<String, JsonProjection> fields; // null when every field is read
+    private final boolean indexed;                    // a field name is a number, which pointers also apply to array items
+
+    private JsonProjection(Map<String, JsonProjection> fields, boolean indexed) {
+        this.fields = fields;
+        this.indexed = indexed;
+    }
+
+    // The fields read below the node the given mappings are selected from
+    static JsonProjection of(CompiledMapping[] mappings) {
+        Builder builder = new Builder();
+        builder.add(mappings);
+        return builder.build();
+    }
+
+    // The fields read below a field of this object, null if it is not read
+    JsonProjection field(String name) {
+        return fields == null ? ALL : fields.get(name);
+    }
+
+    // Approximate heap of this projection and the ones below it; ALL is shared and counts nothing
+    long estimatedSize() {
+        if (fields == null) {
+            return 0;
+        }
+        // The object, its HashMap with one node per field, and the table, sized as the Builder sizes it
+        long size = 24 + 48 + 32L * fields.size();
+        if (!fields.isEmpty()) {
+            size += FieldDispatch.arrayBytes(Integer.highestOneBit(fields.size() * 2 - 1) << 1);
+        }
+        for (JsonProjection field : fields.values()) {
+            size += field.estimatedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Reads the next value of the parser, or the value it is positioned on, into a sparse tree.
+     *
+     * @return The value, or null at the end of the input like {@link ObjectMapper#readTree(JsonParser)}.
+     */
+    JsonNode readTree(ObjectMapper objectMapper, JsonParser parser) throws IOException {
+        JsonToken token = parser.hasCurrentToken() ? parser.currentToken() : parser.nextToken();
+        if (token == null) {
+            return null;
+        }
+        return read(objectMapper, parser, token);
+    }
+
+    private JsonNode read(ObjectMapper objectMapper, JsonParser parser, JsonToken token) throws IOException {
+        if (!token.isStructStart()) {
+            return scalarNode(objectMapper, parser, token);
+        }
+        if (fields == null) {
+            return objectMapper.readTree(parser);
+        }
+        JsonNodeFactory nodeFactory = objectMapper.getNodeFactory();
+        if (token == JsonToken.START_OBJECT) {
+            ObjectNode object = nodeFactory.objectNode();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                JsonProjection projection = fields.get(name);
+                if (projection == null) {
+                    parser.skipChildren();
+                } else {
+                    object.set(name, projection.read(objectMapper, parser, valueToken));
+                }
+            }
+            return object;
+        }
+        // Items are read like the array itself; an index in a pointer may select any of them
+        JsonProjection items = indexed ? ALL : this;
+        ArrayNode array = nodeFactory.arrayNode();
+        JsonToken itemToken;
+        while ((itemToken = parser.nextToken()) != JsonToken.END_ARRAY) {
+            array.add(items.read(objectMapper, parser, itemToken));
+        }
+        return array;
+    }
+
+    // Builds the same value node ObjectMapper.readTree would, so asText() matches a fully read tree
+    static JsonNode scalarNode(ObjectMapper objectMapper, JsonParser parser, JsonToken token) throws IOException {
+        JsonNodeFactory nodeFactory = objectMapper.getNodeFactory();
+        switch (token) {
+            case VALUE_STRING:
+                return nodeFactory.textNode(parser.getText());
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return nodeFactory.numberNode(parser.getIntValue());
+                    case LONG:
+                        return nodeFactory.numberNode(parser.getLongValue());
+                    default:
+                        return nodeFactory.numberNode(parser.getBigIntegerValue());
+                }
+            case VALUE_NUMBER_FLOAT:
+                return nodeFactory.numberNode(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return nodeFactory.booleanNode(true);
+            case VALUE_FALSE:
+                return nodeFactory.booleanNode(false);
+            case VALUE_NULL:
+                return nodeFactory.nullNode();
+            default:
+                return objectMapper.readTree(parser);
+        }
+    }
+
+    // Mutable form used while walking the mappings
+    private static final class Builder {
+
+        private final Map<String, Builder> fields = new LinkedHashMap<>();
+        private boolean all;
+        private boolean indexed;
+
+        void add(CompiledMapping[] mappings) {
+            for (CompiledMapping mapping : mappings) {
+                Builder target = this;
+                for (JsonPointer pointer = mapping.getPointer(); !pointer.matches() && !target.all; pointer = pointer.tail()) {
+                    target.indexed |= pointer.getMatchingIndex() >= 0;
+                    target = target.fields.computeIfAbsent(pointer.getMatchingProperty(), name -> new Builder());
+                }
+                if (mapping.getQuery() != null) {
+                    target.all = true;
+                } else if (!target.all) {
+                    // A mapping without children writes values only; the fields of an object below it are never read
+                    target.add(mapping.elementChildren());
+                }
+            }
+        }
+
+        JsonProjection build() {
+            if (all) {
+                return ALL;
+            }
+            Map<String, JsonProjection> built = new HashMap<>(fields.size() * 2);
+            for (Map.Entry<String, Builder> field : fields.entrySet()) {
+                built.put(field.getKey(), field.getValue().build());
+            }
+            return new JsonProjection(built, indexed);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.metrics.TransformMetrics;
+import org.rutz.util.AsyncFileOutputStream;
+import org.rutz.util.BufferPool;
+import org.rutz.util.PooledOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Reusable JSON to XML transformer for one mapping set.
+ * <p>
+ * The engine is built once and owns the compiled {@link MappingPlan}, a shared {@link ObjectMapper},
+ * a configured {@link XMLOutputFactory} and a pool of output buffers. All of these are safe for
+ * concurrent use, so one instance can serve any number of request threads.
+ * <p>
+ * XML is written by a {@link Utf8XmlWriter} by default; {@link OutputMode#STAX} uses the JDK's
+ * {@link XMLStreamWriter} instead, which produces the same bytes.
+ * <p>
+ * Large lists can optionally be rendered in parallel, see {@link Builder#parallelLists(Executor, int)}.
+ * <p>
+ * Every transform is recorded in {@link TransformMetrics}.
+ */
+public final class JsonToXmlEngine {
+
+    // How the JSON input is read
+    public enum InputMode {
+        STREAMING, // drive the mappings from the parser token stream (StreamingJsonToXml)
+        TREE       // read the whole document into a JsonNode first (JsonToXmlSteam)
+    }
+
+    // How the XML output is encoded
+    public enum OutputMode {
+        DIRECT, // Utf8XmlWriter: pre-encoded tags and an ASCII fast path, straight into a pooled buffer
+        STAX    // the JDK XMLStreamWriter over a pooled buffered stream, the reference implementation
+    }
+
+    private static final String ENCODING = "UTF-8";
+
+    private final MappingPlan plan;
+    private final InputMode inputMode;
+    private final EmptyElementMode emptyElementMode;
+    private final OutputMode outputMode;
+    private final ObjectMapper objectMapper;
+    private final XMLOutputFactory outputFactory;
+    private final BufferPool bufferPool;
+    private final ParallelListRenderer parallelLists; // null unless parallel lists are enabled
+    private final int asyncBufferSize;                // 0 unless file output is asynchronous
+    private final int asyncBufferCount;
+    private final boolean fsync;
+
+    private JsonToXmlEngine(Builder builder) {
+        this.plan = builder.plan;
+        this.inputMode = builder.inputMode;
+        this.emptyElementMode = builder.emptyElementMode;
+        this.outputMode = builder.outputMode;
+        this.asyncBufferSize = builder.asyncBufferSize;
+        this.asyncBufferCount = builder.asyncBufferCount;
+        this.fsync = builder.fsync;
+        this.objectMapper = new ObjectMapper();
+        this.outputFactory = XMLOutputFactory.newInstance();
+        this.bufferPool = new BufferPool(builder.outputBufferSize, builder.maxPooledBuffers);
+        this.parallelLists = builder.listExecutor == null ? null : new ParallelListRenderer(builder.listExecutor,
+                builder.parallelThreshold, builder.parallelChunkSize, builder.maxChunksInFlight, outputFactory,
+                outputMode == OutputMode.DIRECT ? plan.getXmlNames() : null);
+    }
+
+    public static Builder builder(MappingPlan plan) {
+        return new Builder(plan);
+    }
+
+    public static Builder builder(List<Mapping> mappings) {
+        return new Builder(MappingPlan.compile(mappings));
+    }
+
+    public MappingPlan getPlan() {
+        return plan;
+    }
+
+    public InputMode getInputMode() {
+        return inputMode;
+    }
+
+    public OutputMode getOutputMode() {
+        return outputMode;
+    }
+
+    /**
+     * Transforms one JSON document into an XML document.
+     * Neither stream is closed; the output is flushed before returning.
+     *
+     * @param jsonStream The JSON input.
+     * @param xmlStream  The XML output.
+     * @throws Exception If reading, transforming or writing fails.
+     */
+    public void transform(InputStream jsonStream, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(jsonStream)) {
+            transform(parser, xmlStream);
+        }
+    }
+
+    public void transform(byte[] json, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            transform(parser, xmlStream);
+        }
+    }
+
+    // A document inside a larger array, e.g. a slice of a network buffer, parsed in place
+    public void transform(byte[] json, int offset, int length, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json, offset, length)) {
+            transform(parser, xmlStream);
+        }
+    }
+
+    public void transform(String json, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            transform(parser, xmlStream);
+        }
+    }
+
+    // Files of 1 MB and more are memory-mapped and parsed as bytes
+    public void transform(Path jsonFile, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = JsonInputs.createParser(objectMapper.getFactory(), jsonFile)) {
+            transform(parser, xmlStream);
+        }
+    }
+
+    public byte[] transform(byte[] json) throws Exception {
+        ByteArrayOutputStream xmlStream = new ByteArrayOutputStream(Math.max(256, json.length));
+        transform(json, xmlStream);
+        return xmlStream.toByteArray();
+    }
+
+    public void transform(Path jsonFile, Path xmlFile) throws Exception {
+        if (asyncBufferSize > 0) {
+            transformToAsyncFile(jsonFile, xmlFile);
+            return;
+        }
+        if (outputMode == OutputMode.STAX) {
+            try (OutputStream xmlStream = Files.newOutputStream(xmlFile)) {
+                transform(jsonFile, xmlStream);
+            }
+            return;
+        }
+        // The direct writer hands its buffer to the channel without a stream in between
+        try (JsonParser parser = JsonInputs.createParser(objectMapper.getFactory(), jsonFile);
+             FileChannel xmlChannel = FileChannel.open(xmlFile, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            transform(parser, new Utf8XmlWriter(xmlChannel, plan.getXmlNames(), bufferPool), true);
+        }
+    }
+
+    // The transform overlaps with writing the file; the time it waited on the I/O thread goes to the metrics
+    private void transformToAsyncFile(Path jsonFile, Path xmlFile) throws Exception {
+        AsyncFileOutputStream xmlStream = AsyncFileOutputStream.builder(xmlFile)
+                .bufferSize(asyncBufferSize).bufferCount(asyncBufferCount).fsync(fsync).build();
+        try (xmlStream) {
+            transform(jsonFile, xmlStream);
+        } finally {
+            TransformMetrics.get().recordOutputWait(xmlStream.getIoWaitNanos());
+        }
+    }
+
+    /**
+     * Transforms the next JSON document from the parser. The parser is not closed.
+     *
+     * @param parser    A parser created from this engine's factory or any parser with an {@link ObjectMapper} codec.
+     * @param xmlStream The XML output.
+     * @throws Exception If reading, transforming or writing fails.
+     */
+    public void transform(JsonParser parser, OutputStream xmlStream) throws Exception {
+        transform(parser, xmlStream, true);
+    }
+
+    /**
+     * Transforms one JSON document into its mapped elements only, without the XML declaration,
+     * e.g. to embed several documents in one enclosing element. Neither stream is closed.
+     *
+     * @param json      The JSON input.
+     * @param xmlStream The XML output, in UTF-8.
+     * @throws Exception If reading, transforming or writing fails.
+     */
+    public void transformFragment(byte[] json, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            transform(parser, xmlStream, false);
+        }
+    }
+
+    public void transformFragment(String json, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            transform(parser, xmlStream, false);
+        }
+    }
+
+    private void transform(JsonParser parser, OutputStream xmlStream, boolean document) throws Exception {
+        if (outputMode == OutputMode.DIRECT) {
+            transform(parser, new Utf8XmlWriter(xmlStream, plan.getXmlNames(), bufferPool), document);
+            return;
+        }
+        long start = System.nanoTime();
+        TransformCounts counts = new TransformCounts();
+        PooledOutputStream bufferedStream = new PooledOutputStream(xmlStream, bufferPool);
+        boolean failed = true;
+        try (bufferedStream) {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(bufferedStream, ENCODING);
+            write(parser, writer, bufferedStream, counts, document);
+            writer.close();
+            failed = false;
+        } finally {
+            TransformMetrics metrics = TransformMetrics.get();
+            counts.recordTo(metrics);
+            metrics.recordDocument(System.nanoTime() - start, bufferedStream.getBytesWritten(), failed);
+        }
+    }
+
+    // The writer is closed, which returns its buffer to the pool, even if the transform fails
+    private void transform(JsonParser parser, Utf8XmlWriter writer, boolean document) throws Exception {
+        long start = System.nanoTime();
+        TransformCounts counts = new TransformCounts();
+        boolean failed = true;
+        try (writer) {
+            write(parser, writer, null, counts, document);
+            failed = false;
+        } finally {
+            TransformMetrics metrics = TransformMetrics.get();
+            counts.recordTo(metrics);
+            metrics.recordDocument(System.nanoTime() - start, writer.getBytesWritten(), failed);
+        }
+    }
+
+    private void write(JsonParser parser, XMLStreamWriter writer, OutputStream writerTarget, TransformCounts counts,
+                       boolean document) throws Exception {
+        if (document) {
+            writer.writeStartDocument(ENCODING, "1.0");
+        }
+
+        if (inputMode == InputMode.STREAMING) {
+            StreamingJsonToXml.transform(parser, plan, new DeferredXmlWriter(writer, writerTarget, counts), parallelLists);
+        } else {
+            // Fields no mapping reaches are skipped while parsing
+            JsonNode rootNode = plan.projection().readTree(objectMapper, parser);
+            if (rootNode != null) {
+                writeTree(rootNode, writer, writerTarget, counts);
+            }
+        }
+
+        if (document) {
+            writer.writeEndDocument();
+        }
+    }
+
+    private void writeTree(JsonNode rootNode, XMLStreamWriter writer, OutputStream writerTarget, TransformCounts counts) throws Exception {
+        if (emptyElementMode == EmptyElementMode.DEFERRED) {
+            LazyTreeRenderer renderer = new LazyTreeRenderer(new DeferredXmlWriter(writer, writerTarget, counts), parallelLists);
+            JsonToXmlSteam.writeXmlElements(renderer, rootNode, plan);
+        } else {
+            JsonToXmlSteam.writeXmlElements(writer, rootNode, plan, emptyElementMode, counts);
+        }
+    }
+
+    public static final class Builder {
+        private final MappingPlan plan;
+        private InputMode inputMode = InputMode.STREAMING;
+        private EmptyElementMode emptyElementMode = EmptyElementMode.DEFERRED;
+        private OutputMode outputMode = OutputMode.DIRECT;
+        private int outputBufferSize = 64 * 1024;
+        private int maxPooledBuffers = 64;
+        private Executor listExecutor;
+        private int parallelThreshold;
+        private int parallelChunkSize = 1024;
+        private int maxChunksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+        private int asyncBufferSize;
+        private int asyncBufferCount;
+        private boolean fsync;
+
+        private Builder(MappingPlan plan) {
+            if (plan == null) {
+                throw new IllegalArgumentException("Mapping plan cannot be null.");
+            }
+            this.plan = plan;
+        }
+
+        public Builder inputMode(InputMode inputMode) {
+            this.inputMode = inputMode;
+            return this;
+        }
+
+        // Only used by InputMode.TREE; the streaming mode always defers start tags
+        public Builder emptyElementMode(EmptyElementMode emptyElementMode) {
+            this.emptyElementMode = emptyElementMode;
+            return this;
+        }
+
+        public Builder outputMode(OutputMode outputMode) {
+            this.outputMode = outputMode;
+            return this;
+        }
+
+        public Builder outputBufferSize(int outputBufferSize) {
+            this.outputBufferSize = outputBufferSize;
+            return this;
+        }
+
+        public Builder maxPooledBuffers(int maxPooledBuffers) {
+            this.maxPooledBuffers = maxPooledBuffers;
+            return this;
+        }
+
+        /**
+         * Renders list mappings with at least {@code threshold} items in chunks on the executor; smaller lists
+         * stay on the calling thread. The output is identical to sequential rendering. Applies to the streaming
+         * mode (from the threshold-th item on) and to the tree mode with {@link EmptyElementMode#DEFERRED}.
+         * A bounded executor must not be the one running the transformations, since they wait on the chunks.
+         *
+         * @param executor  Runs the chunks, e.g. a {@link java.util.concurrent.ForkJoinPool}.
+         * @param threshold Minimum item count for a list to be split.
+         */
+        public Builder parallelLists(Executor executor, int threshold) {
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor cannot be null.");
+            }
+            if (threshold < 1) {
+                throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+            }
+            this.listExecutor = executor;
+            this.parallelThreshold = threshold;
+            return this;
+        }
+
+        // Items per chunk when a list is rendered in parallel
+        public Builder parallelChunkSize(int parallelChunkSize) {
+            if (parallelChunkSize < 1) {
+                throw new IllegalArgumentException("Chunk size must be positive: " + parallelChunkSize);
+            }
+            this.parallelChunkSize = parallelChunkSize;
+            return this;
+        }
+
+        // Chunks of one list that may be rendering or waiting to be written at the same time
+        public Builder maxChunksInFlight(int maxChunksInFlight) {
+            if (maxChunksInFlight < 1) {
+                throw new IllegalArgumentException("Chunks in flight must be positive: " + maxChunksInFlight);
+            }
+            this.maxChunksInFlight = maxChunksInFlight;
+            return this;
+        }
+
+        /**
+         * Makes {@link #transform(Path, Path)} write the XML file through an {@link AsyncFileOutputStream}, so
+         * the transform fills one buffer while an I/O thread writes the previous ones.
+         *
+         * @param bufferSize  Bytes per buffer, e.g. 1 MB.
+         * @param bufferCount Buffers in rotation, at least 2.
+         * @param fsync       Force the file to disk before the transform returns.
+         */
+        public Builder asyncFileOutput(int bufferSize, int bufferCount, boolean fsync) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+            }
+            if (bufferCount < 2) {
+                throw new IllegalArgumentException("Buffer count must be at least 2: " + bufferCount);
+            }
+            this.asyncBufferSize = bufferSize;
+            this.asyncBufferCount = bufferCount;
+            this.fsync = fsync;
+            return this;
+        }
+
+        public JsonToXmlEngine build() {
+            return new JsonToXmlEngine(this);
+        }
+    }
+}
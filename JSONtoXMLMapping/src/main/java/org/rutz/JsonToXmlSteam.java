@@ -2,90 +2,213 @@ package org.rutz;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.File;
-import java.util.Comparator; // Import Comparator
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.logging.Logger;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import org.rutz.metrics.TransformMetrics;
+import org.rutz.trace.TraceRecorder;
+import org.rutz.trace.TraceRecorder.Event;
+import org.rutz.util.BufferPool;
+import org.rutz.util.PooledOutputStream;
 
 public class JsonToXmlSteam    {
 
-    private static final Logger logger = Logger.getLogger(JsonToXmlSteam.class.getName()); // Logger instance
+    // Shared factories; both are safe for concurrent use once configured
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    // Buffers between the XML writer and the caller's stream, which also count the bytes for the metrics
+    private static final BufferPool BUFFER_POOL = new BufferPool(8 * 1024, 16);
+
+    // How object elements without content are kept out of the output
+    public enum EmptyElementMode {
+        SCAN,     // scan the mapped subtree for content before opening the element
+        DEFERRED  // open start tags lazily through DeferredXmlWriter, visiting each node once
+    }
 
     // Main method to transform JSON to XML and write directly to a file
     public static void transformJsonToXml(String jsonString, List<Mapping> mappings, String outputFilePath) throws Exception {
-        // Parse JSON
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode rootNode = objectMapper.readTree(jsonString);
+        transformJsonToXml(jsonString, MappingPlan.compile(mappings), outputFilePath);
+    }
+
+    // Transform JSON to XML using a plan compiled once by the caller
+    public static void transformJsonToXml(String jsonString, MappingPlan plan, String outputFilePath) throws Exception {
+        transformJsonToXml(jsonString, plan, outputFilePath, EmptyElementMode.SCAN);
+    }
+
+    public static void transformJsonToXml(String jsonString, MappingPlan plan, String outputFilePath, EmptyElementMode mode) throws Exception {
+        // Initialize XML writer with a buffered file output stream
+        try (OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(new File(outputFilePath)), 64 * 1024)) {
+            transformJsonToXml(jsonString, plan, fileOutputStream, mode);
+        }
+    }
+
+    /**
+     * Transform JSON to XML into a stream the caller provides, e.g. an {@link org.rutz.util.AsyncFileOutputStream}
+     * so writing the file overlaps with the transformation. The stream is not closed.
+     */
+    public static void transformJsonToXml(String jsonString, MappingPlan plan, OutputStream xmlStream, EmptyElementMode mode) throws Exception {
+        writeDocument(OBJECT_MAPPER.getFactory().createParser(jsonString), plan, xmlStream, mode);
+    }
+
+    // Transform UTF-8 JSON bytes without decoding them into a String first; the stream is not closed
+    public static void transformJsonToXml(byte[] json, int offset, int length, MappingPlan plan, OutputStream xmlStream, EmptyElementMode mode) throws Exception {
+        writeDocument(OBJECT_MAPPER.getFactory().createParser(json, offset, length), plan, xmlStream, mode);
+    }
+
+    // Transform JSON read from a stream; neither stream is closed
+    public static void transformJsonToXml(InputStream jsonStream, MappingPlan plan, OutputStream xmlStream, EmptyElementMode mode) throws Exception {
+        writeDocument(OBJECT_MAPPER.getFactory().createParser(jsonStream), plan, xmlStream, mode);
+    }
 
-        // Initialize XML writer with a file output stream
-        FileOutputStream fileOutputStream = new FileOutputStream(new File(outputFilePath));
-        XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(fileOutputStream, "UTF-8");
+    // Transform a JSON file; files of 1 MB and more are memory-mapped
+    public static void transformJsonToXml(Path jsonFile, MappingPlan plan, String outputFilePath, EmptyElementMode mode) throws Exception {
+        try (OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(new File(outputFilePath)), 64 * 1024)) {
+            transformJsonToXml(jsonFile, plan, fileOutputStream, mode);
+        }
+    }
+
+    public static void transformJsonToXml(Path jsonFile, MappingPlan plan, OutputStream xmlStream, EmptyElementMode mode) throws Exception {
+        writeDocument(JsonInputs.createParser(OBJECT_MAPPER.getFactory(), jsonFile), plan, xmlStream, mode);
+    }
+
+    // Only the fields the plan reaches become nodes; the parser is closed afterwards, as by ObjectMapper.readTree
+    private static JsonNode readTree(JsonParser parser, MappingPlan plan) throws IOException {
+        try (parser) {
+            return plan.projection().readTree(OBJECT_MAPPER, parser);
+        }
+    }
+
+    // Reading and writing one document count towards TransformMetrics, as a transform of JsonToXmlEngine does
+    private static void writeDocument(JsonParser parser, MappingPlan plan, OutputStream xmlStream, EmptyElementMode mode) throws Exception {
+        long start = System.nanoTime();
+        TransformCounts counts = new TransformCounts();
+        PooledOutputStream bufferedStream = new PooledOutputStream(xmlStream, BUFFER_POOL);
+        boolean failed = true;
+        try (bufferedStream) {
+            JsonNode rootNode = readTree(parser, plan);
+            // An empty input maps to nothing, like an empty String
+            if (rootNode == null) {
+                rootNode = MissingNode.getInstance();
+            }
+
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(bufferedStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writeXmlElements(writer, rootNode, plan, mode, counts);
+            writer.writeEndDocument();
+            writer.close();
+            failed = false;
+        } finally {
+            TransformMetrics metrics = TransformMetrics.get();
+            counts.recordTo(metrics);
+            metrics.recordDocument(System.nanoTime() - start, bufferedStream.getBytesWritten(), failed);
+        }
+    }
 
-        writer.writeStartDocument("UTF-8", "1.0");
+    // Write the elements of every root mapping (the plan keeps the order from MappingGenerator)
+    public static void writeXmlElements(XMLStreamWriter writer, JsonNode rootNode, MappingPlan plan, EmptyElementMode mode) throws Exception {
+        writeXmlElements(writer, rootNode, plan, mode, new TransformCounts());
+    }
 
-        // Sort the root-level mappings based on their order field
-//        mappings.sort(Comparator.comparingInt(Mapping::getOrder));
+    // As above, counting the visited nodes, written and skipped elements and expressions
+    static void writeXmlElements(XMLStreamWriter writer, JsonNode rootNode, MappingPlan plan, EmptyElementMode mode,
+                                 TransformCounts counts) throws Exception {
+        if (mode == EmptyElementMode.DEFERRED) {
+            writeXmlElements(new LazyTreeRenderer(new DeferredXmlWriter(writer, null, counts), null), rootNode, plan);
+            return;
+        }
 
-        // Process each mapping (now in the desired order)
-        for (Mapping mapping : mappings) {
-            String jsonPointer = convertJsonPathToJsonPointer(mapping.getJPath());
-            JsonNode jsonValue = rootNode.at(jsonPointer);
+        for (CompiledMapping mapping : plan.roots()) {
+            JsonNode jsonValue = mapping.select(rootNode);
 
             if (!jsonValue.isMissingNode()) {
-                writeXmlElement(writer, jsonValue, mapping);
+                writeXmlElement(writer, jsonValue, mapping, counts);
             } else {
-                logger.info("Skipping missing node for: " + mapping.getJPath());
+                TraceRecorder.record(Event.MISSING_NODE, mapping.getElementName(), mapping.getJPath(), 0);
             }
         }
+    }
 
-        writer.writeEndDocument();
-        writer.close();
-        fileOutputStream.close();
+    static void writeXmlElements(LazyTreeRenderer renderer, JsonNode rootNode, MappingPlan plan) throws Exception {
+        for (CompiledMapping mapping : plan.roots()) {
+            JsonNode jsonValue = mapping.select(rootNode);
+            if (!jsonValue.isMissingNode()) {
+                renderer.writeXmlElement(jsonValue, mapping);
+            }
+        }
     }
 
     // Process each XML element
     public static void writeXmlElement(XMLStreamWriter writer, JsonNode jsonNode, Mapping mapping) throws Exception {
-        String[] xpathParts = mapping.getXPath().split("/");
+        writeXmlElement(writer, jsonNode, CompiledMapping.compile(mapping));
+    }
 
-        if (xpathParts.length == 1) {
-            String elementName = xpathParts[0];
-            processElement(writer, jsonNode, mapping, elementName);
-        } else {
-            // Handle nested elements
-            for (int i = 0; i < xpathParts.length - 1; i++) {
-                writer.writeStartElement(xpathParts[i]);
-            }
+    public static void writeXmlElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping) throws Exception {
+        writeXmlElement(writer, jsonNode, mapping, new TransformCounts());
+    }
 
-            String elementName = xpathParts[xpathParts.length - 1];
-            processElement(writer, jsonNode, mapping, elementName);
+    private static void writeXmlElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, TransformCounts counts) throws Exception {
+        String[] wrapperNames = mapping.wrapperNames();
 
-            for (int i = 0; i < xpathParts.length - 1; i++) {
-                writer.writeEndElement();
-            }
+        // Handle nested elements
+        for (String wrapperName : wrapperNames) {
+            writer.writeStartElement(wrapperName);
+            counts.xmlElements++;
+        }
+
+        processElement(writer, jsonNode, mapping, mapping.getElementName(), counts);
+
+        for (int i = 0; i < wrapperNames.length; i++) {
+            writer.writeEndElement();
         }
     }
 
     // Process each element, including handling objects, lists, and value nodes
     public static void processElement(XMLStreamWriter writer, JsonNode jsonNode, Mapping mapping, String elementName) throws Exception {
+        processElement(writer, jsonNode, CompiledMapping.compile(mapping), elementName);
+    }
+
+    public static void processElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName) throws Exception {
+        processElement(writer, jsonNode, mapping, elementName, new TransformCounts());
+    }
+
+    private static void processElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName,
+                                       TransformCounts counts) throws Exception {
+        counts.jsonNodes++;
         if (mapping.isList() && jsonNode.isArray()) {
-            processArrayElement(writer, jsonNode, mapping, elementName);
+            processArrayElement(writer, jsonNode, mapping, elementName, counts);
         } else if (jsonNode.isObject()) {
-            processObjectElement(writer, jsonNode, mapping, elementName);
+            processObjectElement(writer, jsonNode, mapping, elementName, counts);
         } else if (jsonNode.isValueNode()) {
-            processValueNode(writer, jsonNode, mapping, elementName);
+            processValueNode(writer, jsonNode, mapping, elementName, counts);
         }
     }
 
     // Process JSON arrays as XML list elements
     public static void processArrayElement(XMLStreamWriter writer, JsonNode jsonNode, Mapping mapping, String elementName) throws Exception {
-        logger.info("Processing array for element: " + elementName + ", JSON node size: " + jsonNode.size());
+        processArrayElement(writer, jsonNode, CompiledMapping.compile(mapping), elementName);
+    }
+
+    public static void processArrayElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName) throws Exception {
+        processArrayElement(writer, jsonNode, mapping, elementName, new TransformCounts());
+    }
+
+    private static void processArrayElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName,
+                                            TransformCounts counts) throws Exception {
+        TraceRecorder.record(Event.ARRAY, elementName, mapping.getJPath(), jsonNode.size());
 
         for (JsonNode listItem : jsonNode) {
+            counts.jsonNodes++;
             boolean itemHasContent = false;
+            JsonNode[] childNodes = null;
 
             // Determine if the current list item will produce output
             if (listItem.isValueNode()) {
@@ -94,77 +217,93 @@ public class JsonToXmlSteam    {
             } else if (listItem.isObject() || listItem.isArray()) {
                 // Check if the complex list item has producible children based on the list mapping's children
                 // We use 'mapping' here because its childMappings define the structure *inside* the list item.
-                itemHasContent = checkProducibleChildContent(listItem, mapping);
+                childNodes = mapping.childDispatch().resolve(listItem);
+                itemHasContent = checkProducibleChildContent(listItem, childNodes, mapping);
             }
 
             // If the item has content, write its element wrapper and content
             if (itemHasContent) {
                 writer.writeStartElement(elementName); // Start the <elementName> tag for the item
+                counts.xmlElements++;
                 // TODO: Handle writing attributes for the list item element if needed.
                 // writeAttributes(writer, listItem, mapping);
 
                 // Process the content of the list item
                 if (listItem.isValueNode()) {
-                    writer.writeCharacters(AttributeLevelTransformation.transform(listItem.asText(), mapping));
+                    writer.writeCharacters(counts.transform(mapping, listItem.asText()));
                 } else {
                     // listItem is complex (Object/Array), process its children using the list mapping rules
-                    processChildMappings(writer, listItem, mapping);
+                    processChildMappings(writer, childNodes, mapping, counts);
                 }
                 writer.writeEndElement(); // End the <elementName> tag for the item
             } else {
-                // Log skipping the empty list item
-                logger.info("Skipping empty list item within element: " + elementName);
+                // A null item never opens an element, in either mode, so it is not an empty one
+                if (!listItem.isNull()) {
+                    counts.emptyElements++;
+                }
+                TraceRecorder.record(Event.EMPTY_LIST_ITEM, elementName, mapping.getJPath(), 0);
             }
         }
     }
 
     // Process JSON objects as XML elements
     public static void processObjectElement(XMLStreamWriter writer, JsonNode jsonNode, Mapping mapping, String elementName) throws Exception {
+        processObjectElement(writer, jsonNode, CompiledMapping.compile(mapping), elementName);
+    }
+
+    public static void processObjectElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName) throws Exception {
+        processObjectElement(writer, jsonNode, mapping, elementName, new TransformCounts());
+    }
+
+    private static void processObjectElement(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName,
+                                             TransformCounts counts) throws Exception {
         // Check if this object will have any child elements written before creating it
-        boolean hasContent = checkProducibleChildContent(jsonNode, mapping);
+        JsonNode[] childNodes = mapping.childDispatch().resolve(jsonNode);
+        boolean hasContent = checkProducibleChildContent(jsonNode, childNodes, mapping);
 
         if (hasContent) {
             writer.writeStartElement(elementName);
+            counts.xmlElements++;
             // TODO: Handle writing attributes here if they exist and should be written even if no child elements exist.
             // writeAttributes(writer, jsonNode, mapping);
-            processChildMappings(writer, jsonNode, mapping); // Write the children
+            processChildMappings(writer, childNodes, mapping, counts); // Write the children
             writer.writeEndElement();
         } else {
-            // Log skipping the empty element
-            logger.info("Skipping empty object element: " + elementName + " for jPath: " + mapping.getJPath());
+            counts.emptyElements++;
+            TraceRecorder.record(Event.EMPTY_OBJECT, elementName, mapping.getJPath(), 0);
         }
     }
 
     // Process JSON value nodes as XML elements
-    private static void processValueNode(XMLStreamWriter writer, JsonNode jsonNode, Mapping mapping, String elementName) throws Exception {
+    private static void processValueNode(XMLStreamWriter writer, JsonNode jsonNode, CompiledMapping mapping, String elementName,
+                                         TransformCounts counts) throws Exception {
         writer.writeStartElement(elementName);
+        counts.xmlElements++;
 //        writeAttributes(writer, jsonNode, mapping);
-        writer.writeCharacters(AttributeLevelTransformation.transform(jsonNode.asText(), mapping));
+        writer.writeCharacters(counts.transform(mapping, jsonNode.asText()));
         writer.writeEndElement();
     }
 
 
-    // Process child mappings recursively
-    private static void processChildMappings(XMLStreamWriter writer, JsonNode jsonNode, Mapping mapping) throws Exception {
-        if (mapping.getChildMappings() != null) {
-            for (Mapping childMapping : mapping.getChildMappings()) {
-                if (!childMapping.getXPath().contains("@")) {
-                    logger.info("========Inside processChildMappings ==== " + childMapping.getXPath());// Skip attributes
-                    String childPointer = convertJsonPathToJsonPointer(childMapping.getJPath());
-                    JsonNode childNode = jsonNode.at(childPointer);
+    // Process child mappings recursively (attribute mappings are filtered out at compile time);
+    // childNodes holds the node of each element child, resolved by the mapping's FieldDispatch
+    private static void processChildMappings(XMLStreamWriter writer, JsonNode[] childNodes, CompiledMapping mapping,
+                                             TransformCounts counts) throws Exception {
+        CompiledMapping[] childMappings = mapping.elementChildren();
+        for (int i = 0; i < childMappings.length; i++) {
+            CompiledMapping childMapping = childMappings[i];
+            JsonNode childNode = childNodes[i];
 
-                    if (!childNode.isMissingNode()) {
-                        writeXmlElement(writer, childNode, childMapping);
-                    } else {
-                        logger.info("========Child node missing for: " + childMapping.getXPath());
-                    }
-                }
+            if (!childNode.isMissingNode()) {
+                writeXmlElement(writer, childNode, childMapping, counts);
+            } else {
+                TraceRecorder.record(Event.MISSING_NODE, childMapping.getElementName(), childMapping.getJPath(), 0);
             }
         }
     }
 
-    // Convert JSONPath to JSON Pointer
-    private static String convertJsonPathToJsonPointer(String jsonPath) {
+    // Convert JSONPath to JSON Pointer (used by MappingPlan when compiling mappings)
+    static String convertJsonPathToJsonPointer(String jsonPath) {
         if (jsonPath.startsWith("$.") ) {
             return "/" + jsonPath.substring(2).replace(".", "/").replace("[*]", "");
         } else if (jsonPath.equals("$")) {
@@ -184,20 +323,26 @@ public class JsonToXmlSteam    {
      * @return true if at least one child mapping corresponds to existing/non-null data
      *         that will result in XML output, false otherwise.
      */
-    private static boolean checkProducibleChildContent(JsonNode parentJsonNode, Mapping parentMapping) {
+    private static boolean checkProducibleChildContent(JsonNode parentJsonNode, CompiledMapping parentMapping) {
+        if (parentJsonNode == null || parentJsonNode.isMissingNode() || parentJsonNode.isNull()) return false;
+        if (parentMapping.elementChildren().length == 0 ||
+                (parentJsonNode.isContainerNode() && parentJsonNode.isEmpty())) return false;
+        return checkProducibleChildContent(parentJsonNode, parentMapping.childDispatch().resolve(parentJsonNode), parentMapping);
+    }
+
+    // As above, with the child nodes already resolved, so the caller can write them without a second lookup
+    private static boolean checkProducibleChildContent(JsonNode parentJsonNode, JsonNode[] childNodes, CompiledMapping parentMapping) {
         if (parentJsonNode == null || parentJsonNode.isMissingNode() || parentJsonNode.isNull()) return false;
 
         // If no child mappings exist or the parent is an empty container, return false
-        if (parentMapping.getChildMappings().isEmpty() ||
+        CompiledMapping[] childMappings = parentMapping.elementChildren();
+        if (childMappings.length == 0 ||
                 (parentJsonNode.isContainerNode() && parentJsonNode.isEmpty())) return false;
 
-        // Iterate over child mappings and check for content
-        for (Mapping childMapping : parentMapping.getChildMappings()) {
-            // Skip attribute checks
-            if (childMapping.getXPath().contains("@")) continue;
-
-            String childPointer = convertJsonPathToJsonPointer(childMapping.getJPath());
-            JsonNode childNode = parentJsonNode.at(childPointer);
+        // Iterate over child mappings and check for content (attribute mappings are already excluded)
+        for (int i = 0; i < childMappings.length; i++) {
+            CompiledMapping childMapping = childMappings[i];
+            JsonNode childNode = childNodes[i];
 
             // Check if the child node exists and is not null
             if (childNode.isMissingNode() || childNode.isNull()) continue;
@@ -0,0 +1,113 @@
+package org.rutz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.rutz.trace.TraceRecorder;
+import org.rutz.trace.TraceRecorder.Event;
+
+/**
+ * Renders a {@link JsonNode} through a {@link DeferredXmlWriter}.
+ * Object and list item elements are opened lazily instead of scanning their subtree first, so each
+ * node is visited once. The output matches the scan used by {@link JsonToXmlSteam}.
+ * Backs {@link JsonToXmlSteam.EmptyElementMode#DEFERRED} and the buffered parts of {@link StreamingJsonToXml}.
+ */
+final class LazyTreeRenderer {
+
+    private final DeferredXmlWriter writer;
+    private final TransformCounts counts;
+    private final ParallelListRenderer parallelLists; // null renders every list on the calling thread
+
+    LazyTreeRenderer(DeferredXmlWriter writer, ParallelListRenderer parallelLists) {
+        this.writer = writer;
+        this.counts = writer.counts();
+        this.parallelLists = parallelLists;
+    }
+
+    // Process each XML element
+    void writeXmlElement(JsonNode jsonNode, CompiledMapping mapping) throws Exception {
+        String[] wrapperNames = mapping.wrapperNames();
+        for (String wrapperName : wrapperNames) {
+            writer.writeStartElement(wrapperName);
+        }
+
+        processElement(jsonNode, mapping);
+
+        for (int i = 0; i < wrapperNames.length; i++) {
+            writer.writeEndElement();
+        }
+    }
+
+    void processElement(JsonNode jsonNode, CompiledMapping mapping) throws Exception {
+        counts.jsonNodes++;
+        if (mapping.isList() && jsonNode.isArray()) {
+            processArrayElement(jsonNode, mapping);
+        } else if (jsonNode.isObject()) {
+            // Written only if one of the children produces content
+            writer.writeSuppressibleStartElement(mapping.getElementName(), false);
+            processChildMappings(jsonNode, mapping);
+            if (writer.endElement()) {
+                TraceRecorder.record(Event.EMPTY_OBJECT, mapping.getElementName(), mapping.getJPath(), 0);
+            }
+        } else if (jsonNode.isValueNode()) {
+            writeValue(jsonNode, mapping);
+        }
+    }
+
+    void processArrayElement(JsonNode jsonNode, CompiledMapping mapping) throws Exception {
+        TraceRecorder.record(Event.ARRAY, mapping.getElementName(), mapping.getJPath(), jsonNode.size());
+        if (parallelLists != null && jsonNode.size() >= parallelLists.getThreshold()) {
+            parallelLists.render(writer, jsonNode, mapping);
+            return;
+        }
+        for (JsonNode listItem : jsonNode) {
+            processListItem(listItem, mapping);
+        }
+    }
+
+    void processListItem(JsonNode listItem, CompiledMapping mapping) throws Exception {
+        counts.jsonNodes++;
+        if (listItem.isValueNode()) {
+            // Null list items are skipped entirely
+            if (!listItem.isNull()) {
+                writeValue(listItem, mapping);
+            } else {
+                TraceRecorder.record(Event.EMPTY_LIST_ITEM, mapping.getElementName(), mapping.getJPath(), 0);
+            }
+        } else {
+            // Items that are arrays do not count as content for the enclosing elements
+            writer.writeSuppressibleStartElement(mapping.getElementName(), listItem.isArray());
+            processChildMappings(listItem, mapping);
+            if (writer.endElement()) {
+                TraceRecorder.record(Event.EMPTY_LIST_ITEM, mapping.getElementName(), mapping.getJPath(), 0);
+            }
+        }
+    }
+
+    // Process child mappings (attribute mappings are filtered out at compile time)
+    void processChildMappings(JsonNode jsonNode, CompiledMapping mapping) throws Exception {
+        CompiledMapping[] childMappings = mapping.elementChildren();
+        JsonNode[] childNodes = mapping.childDispatch().resolve(jsonNode);
+        for (int i = 0; i < childMappings.length; i++) {
+            CompiledMapping childMapping = childMappings[i];
+            JsonNode childNode = childNodes[i];
+            if (!childNode.isMissingNode()) {
+                writeXmlElement(childNode, childMapping);
+            } else {
+                TraceRecorder.record(Event.MISSING_NODE, childMapping.getElementName(), childMapping.getJPath(), 0);
+            }
+        }
+    }
+
+    // A null value is written as text but does not count as content on its own
+    void writeValue(JsonNode valueNode, CompiledMapping mapping) throws Exception {
+        writer.writeStartElement(mapping.getElementName());
+        if (valueNode.isNull()) {
+            // The scan never reaches a null in an object without content, so neither does its expression
+            writer.writeTransformedCharacters(mapping, valueNode.asText());
+            writer.writeEndElement();
+            return;
+        }
+        writer.writeCharacters(counts.transform(mapping, valueNode.asText()));
+        writer.writeEndElement();
+        writer.commitContent();
+    }
+}
@@ -1,51 +1,57 @@
 package org.rutz;
 
 import java.util.*;
-import java.util.Comparator; // Import Comparator
 
 import java.io.FileReader;
 import java.io.IOException;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class MappingGenerator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingGenerator.class);
+
+    // Reads the mapping CSV in one pass; rows that cannot be linked into the tree are logged and left out
     public static List<Mapping> readMappingsFromCsv(String filePath) throws IOException, CsvValidationException {
-        Map<String, Mapping> mappingRegistry = new HashMap<>();
-        // Create a virtual root mapping (order doesn't matter for the virtual root itself)
-        Mapping virtualRoot = new Mapping( "$",  "Root",  false,  "",  "", "", "", "", 0 );
-        mappingRegistry.put("Root", virtualRoot);
-        // List<Mapping> rootMappings = new ArrayList<>(); // This list seems unused
-        // rootMappings.add(virtualRoot);
+        MappingTreeBuilder.Result result = readMappingTreeFromCsv(filePath);
+        for (Mapping orphan : result.getOrphans()) {
+            LOGGER.warn("Parent XPath '{}' of '{}' is not defined, mapping skipped", orphan.getParentXPath(), orphan.getXPath());
+        }
+        for (List<String> cycle : result.getCycles()) {
+            LOGGER.warn("Cyclic parent XPaths, mappings skipped: {}", cycle);
+        }
+        if (!result.getUnresolved().isEmpty()) {
+            LOGGER.warn("{} of {} mappings in {} could not be linked to the top level", result.getUnresolved().size(), result.getRowCount(), filePath);
+        }
+        for (Mapping duplicate : result.getDuplicates()) {
+            LOGGER.debug("Duplicate XPath '{}' skipped", duplicate.getXPath());
+        }
 
-        try (CSVReader csvReader = new CSVReader(new FileReader(filePath))) {
-            List<String[]> rows = new ArrayList<>();
-            String[] row;
+        // Debug: Log the final mapping hierarchy (after sorting)
+        if (LOGGER.isDebugEnabled()) {
+            StringBuilder hierarchy = new StringBuilder("Sorted mapping hierarchy:\nMapping: Root");
+            for (Mapping root : result.getRoots()) {
+                printMappingHierarchy(root, 1, hierarchy);
+            }
+            LOGGER.debug(hierarchy.toString());
+        }
+        return result.getRoots();
+    }
 
-            // Read all rows from the CSV file
-            boolean isHeader = true;
+    // Reads the mapping CSV into a tree, with the rows that could not be linked reported rather than logged
+    public static MappingTreeBuilder.Result readMappingTreeFromCsv(String filePath) throws IOException, CsvValidationException {
+        MappingTreeBuilder builder = new MappingTreeBuilder();
+        try (CSVReader csvReader = new CSVReader(new FileReader(filePath))) {
+            String[] row = csvReader.readNext(); // Skip the header row
             while ((row = csvReader.readNext()) != null) {
-                if (isHeader) {
-                    isHeader = false; // Skip the header row
-                    continue;
-                }
-                rows.add(row);
+                builder.addRow(row);
             }
-            // Process mappings iteratively
-            processMappingsIteratively(rows, mappingRegistry, virtualRoot);
-
-            // Sort mappings recursively based on the 'order' field
-            sortMappingsRecursively(virtualRoot);
-
-            // Debug: Print the final mapping hierarchy (after sorting)
-            System.out.println("\n--- Sorted Mapping Hierarchy ---");
-            printMappingHierarchy(virtualRoot,  0);
-            System.out.println("------------------------------\n");
-
-            // Return child mappings of the virtual root (now sorted)
-            return virtualRoot.getChildMappings();
         }
+        return builder.build();
     }
 
+    // Links rows by repeated passes until nothing changes; readMappingsFromCsv uses MappingTreeBuilder instead
     public static void processMappingsIteratively(List<String[]> rows, Map<String, Mapping> mappingRegistry, Mapping virtualRoot) {
         boolean changesMade;
         do {
@@ -64,8 +70,7 @@ public class MappingGenerator {
                     try {
                         order = Integer.parseInt(row[8].trim());
                     } catch (NumberFormatException e) {
-                        System.err.println("Warning: Invalid order value '" + row[8] + "' for xPath '" + xPath + "'. Using default order 0.");
-                        // Optionally log this error more formally
+                        LOGGER.warn("Invalid order value '{}' for xPath '{}'. Using default order 0.", row[8], xPath);
                     }
                 }
 
@@ -79,13 +84,13 @@ public class MappingGenerator {
                     Mapping mapping = new Mapping(jPath, xPath, isList, jsonType, xmlType, exprsn, namespace, parentXPath, order); // Pass order here
                     if (parentXPath.isEmpty() ) {
                         // Link top level mappings to the virtual root
-                        System.out.println("Linking top level mapping to virtual root : " + xPath);
+                        LOGGER.debug("Linking top level mapping to virtual root: {}", xPath);
                         virtualRoot.addChildMapping(mapping);
                     } else {
                         // Handle the case where the parent XPath is not yet resolved
                         // You might want to log a warning or store this mapping for later processing
                         Mapping parentMapping = mappingRegistry.get(parentXPath);
-                        System.out.println("Adding child mapping to parent: " + xPath + " -> " + parentXPath);
+                        LOGGER.debug("Adding child mapping to parent: {} -> {}", xPath, parentXPath);
                         parentMapping.addChildMapping(mapping);
                     }
 
@@ -94,33 +99,17 @@ public class MappingGenerator {
                 } else {
                     // Handle the case where the parent XPath is not yet resolved
                     // You might want to log a warning or store this mapping for later processing
-                    System.out.println("Parent XPath not resolved yet: " + parentXPath + " for " + xPath);
+                    LOGGER.debug("Parent XPath not resolved yet: {} for {}", parentXPath, xPath);
                 }
             }
         } while (changesMade);
     }
 
     // Print the mapping hierarchy
-    private static void printMappingHierarchy(Mapping mapping, int level) {
-        String indent = " ".repeat(level * 2);
-        System.out.println(indent + "Mapping: " + mapping.getXPath());
-        for (Mapping child : mapping.getChildMappings()) {
-            printMappingHierarchy(child,  level + 1);
-        }
-    }
-
-    // Recursively sorts child mappings based on the 'order' field
-    private static void sortMappingsRecursively(Mapping mapping) {
-        if (mapping == null || mapping.getChildMappings() == null || mapping.getChildMappings().isEmpty()) {
-            return; // Base case: no children to sort
-        }
-
-        // Sort the direct children of the current mapping
-        mapping.getChildMappings().sort(Comparator.comparingInt(Mapping::getOrder));
-
-        // Recursively sort the children of each child
+    private static void printMappingHierarchy(Mapping mapping, int level, StringBuilder out) {
+        out.append('\n').append(" ".repeat(level * 2)).append("Mapping: ").append(mapping.getXPath());
         for (Mapping child : mapping.getChildMappings()) {
-            sortMappingsRecursively(child);
+            printMappingHierarchy(child, level + 1, out);
         }
     }
 }
@@ -0,0 +1,120 @@
+package org.rutz;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled, immutable execution plan for a mapping set.
+ * Build it once from the result of {@link MappingGenerator#readMappingsFromCsv(String)} and share it
+ * between threads and transformations.
+ */
+public final class MappingPlan {
+
+    // Measured heap cost of a compiled mapping, excluding its strings and field tables, and of a compiled
+    // expression per character; a mapping's node in the reverse plan is counted whether or not it is built
+    private static final int MAPPING_BYTES = 300;
+    private static final int EXPRESSION_BYTES = 150;
+    private static final int EXPRESSION_CHAR_BYTES = 5;
+    private static final int REVERSE_NODE_BYTES = 220;
+
+    private final CompiledMapping[] roots;
+    private final XmlNames xmlNames;
+    private final FieldDispatch rootDispatch;
+    private final long estimatedSize;
+    private volatile ReversePlan reversePlan; // built on first use by StreamingXmlToJson
+
+    private MappingPlan(CompiledMapping[] roots, long estimatedSize) {
+        this.roots = roots;
+        this.xmlNames = XmlNames.of(roots);
+        this.rootDispatch = FieldDispatch.of(roots);
+        this.estimatedSize = estimatedSize + rootDispatch.estimatedSize() + dispatchSize(roots);
+    }
+
+    /**
+     * Compiles the mapping hierarchy into a plan. The mappings are expected to be sorted already,
+     * as returned by {@link MappingGenerator}.
+     *
+     * @param mappings The root-level mappings.
+     * @return The compiled plan.
+     */
+    public static MappingPlan compile(List<Mapping> mappings) {
+        if (mappings == null) {
+            throw new IllegalArgumentException("Mappings cannot be null.");
+        }
+        CompiledMapping[] roots = new CompiledMapping[mappings.size()];
+        long estimatedSize = 0;
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = CompiledMapping.compile(mappings.get(i));
+            estimatedSize += estimateSize(mappings.get(i));
+        }
+        return new MappingPlan(roots, estimatedSize);
+    }
+
+    // Mapping objects, pointers, encoded names and expressions; the paths are counted twice, as strings and split up
+    private static long estimateSize(Mapping mapping) {
+        long size = MAPPING_BYTES + REVERSE_NODE_BYTES + 2L * (length(mapping.getJPath()) + length(mapping.getXPath()));
+        String exprsn = mapping.getExprsn();
+        if (exprsn != null && !exprsn.trim().isEmpty()) {
+            size += EXPRESSION_BYTES + (long) EXPRESSION_CHAR_BYTES * exprsn.length();
+        }
+        if (mapping.getChildMappings() != null) {
+            for (Mapping child : mapping.getChildMappings()) {
+                size += estimateSize(child);
+            }
+        }
+        return size;
+    }
+
+    // The field tables and projections built for each parent when compiling
+    private static long dispatchSize(CompiledMapping[] mappings) {
+        long size = 0;
+        for (CompiledMapping mapping : mappings) {
+            size += mapping.childDispatch().estimatedSize() + dispatchSize(mapping.elementChildren());
+        }
+        return size;
+    }
+
+    private static int length(String string) {
+        return string != null ? string.length() : 0;
+    }
+
+    public List<CompiledMapping> getRoots() {
+        return Collections.unmodifiableList(Arrays.asList(roots));
+    }
+
+    // Approximate heap retained by the plan in bytes, including its compiled expressions, field tables and reverse plan
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    // Element names encoded for Utf8XmlWriter
+    public XmlNames getXmlNames() {
+        return xmlNames;
+    }
+
+    // Hot-path accessor; callers must not modify the returned array
+    CompiledMapping[] roots() {
+        return roots;
+    }
+
+    // Root mappings by the field of the root object they read
+    FieldDispatch rootDispatch() {
+        return rootDispatch;
+    }
+
+    // The mappings read from XML element to JSON field; two threads racing on the first use may both build it
+    ReversePlan reversePlan() {
+        ReversePlan plan = reversePlan;
+        if (plan == null) {
+            plan = ReversePlan.of(roots);
+            reversePlan = plan;
+        }
+        return plan;
+    }
+
+    // The fields of a document the root mappings reach; everything else is skipped while parsing
+    JsonProjection projection() {
+        return rootDispatch.projection();
+    }
+}
@@ -0,0 +1,268 @@
+package org.rutz;
+
+import com.opencsv.exceptions.CsvValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a resolved and sorted mapping hierarchy, so a process can skip parsing the mapping CSV
+ * and building the tree at startup.
+ * <p>
+ * A snapshot records its format version and the CRC32 of the CSV it was built from, and is only used while
+ * both match. It holds a table of the distinct strings followed by the mappings in depth-first order, with
+ * strings referenced by index and all numbers written as variable-length integers, and is read through a
+ * memory mapping. Expressions are still compiled by {@link MappingPlan#compile(List)}.
+ * <p>
+ * Create one at build time with {@code MappingSnapshot <mappings.csv> <snapshot file>}, or let
+ * {@link #loadOrCompile(Path, Path)} write it on the first run.
+ */
+public final class MappingSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingSnapshot.class);
+
+    private static final int MAGIC = 0x4D41504E; // "MAPN"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;    // magic, version, CSV checksum, body checksum, body length
+    private static final int NULL_STRING = 0; // string references are table index + 1
+
+    private MappingSnapshot() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: MappingSnapshot <mappings.csv> <snapshot file>");
+            System.exit(2);
+        }
+        Path csvFile = Paths.get(args[0]);
+        List<Mapping> mappings = MappingGenerator.readMappingsFromCsv(csvFile.toString());
+        write(mappings, checksum(csvFile), Paths.get(args[1]));
+    }
+
+    /**
+     * Returns the plan for a mapping CSV, from the snapshot if it was built from the same CSV. Otherwise the
+     * CSV is read and a new snapshot is written for the next start; a snapshot that cannot be written is only logged.
+     */
+    public static MappingPlan loadOrCompile(Path csvFile, Path snapshotFile) throws IOException, CsvValidationException {
+        long csvChecksum = checksum(csvFile);
+        try {
+            List<Mapping> mappings = read(snapshotFile, csvChecksum);
+            if (mappings != null) {
+                return MappingPlan.compile(mappings);
+            }
+            LOGGER.info("Mapping snapshot {} is out of date, reading {}", snapshotFile, csvFile);
+        } catch (NoSuchFileException e) {
+            LOGGER.info("No mapping snapshot {}, reading {}", snapshotFile, csvFile);
+        } catch (IOException e) {
+            LOGGER.warn("Mapping snapshot {} cannot be read, reading {}", snapshotFile, csvFile, e);
+        }
+
+        List<Mapping> mappings = MappingGenerator.readMappingsFromCsv(csvFile.toString());
+        try {
+            write(mappings, csvChecksum, snapshotFile);
+        } catch (IOException e) {
+            LOGGER.warn("Mapping snapshot {} could not be written", snapshotFile, e);
+        }
+        return MappingPlan.compile(mappings);
+    }
+
+    // CRC32 of the file's bytes, read through a memory mapping
+    public static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the mappings, as returned by {@link MappingGenerator}, to a snapshot. The file is replaced
+     * atomically where the file system allows, so concurrent readers see the old or the new snapshot.
+     */
+    public static void write(List<Mapping> mappings, long csvChecksum, Path snapshotFile) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        writeVarInt(out, mappings.size());
+        for (Mapping mapping : mappings) {
+            writeMapping(out, mapping, strings, table);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(records.size() + table.size() * 16);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        writeVarInt(bodyOut, table.size());
+        for (String string : table) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bodyOut, bytes.length);
+            bodyOut.write(bytes);
+        }
+        records.writeTo(bodyOut);
+        byte[] bodyBytes = body.toByteArray();
+
+        CRC32 bodyCrc = new CRC32();
+        bodyCrc.update(bodyBytes);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC).putInt(VERSION).putLong(csvChecksum).putLong(bodyCrc.getValue()).putInt(bodyBytes.length);
+
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                header.flip();
+                ByteBuffer[] buffers = {header, ByteBuffer.wrap(bodyBytes)};
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+            try {
+                Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the mappings of a snapshot.
+     *
+     * @param snapshotFile The snapshot.
+     * @param csvChecksum  The {@link #checksum(Path)} of the CSV the mappings should come from.
+     * @return The root-level mappings, or null if the snapshot has another format version or another CSV checksum.
+     * @throws IOException If the file cannot be read, is not a snapshot or is damaged.
+     */
+    public static List<Mapping> read(Path snapshotFile, long csvChecksum) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a mapping snapshot: " + snapshotFile);
+            }
+            if (buffer.getInt() != VERSION || buffer.getLong() != csvChecksum) {
+                return null;
+            }
+            long expectedBodyCrc = buffer.getLong();
+            int bodyLength = buffer.getInt();
+            if (buffer.remaining() != bodyLength) {
+                throw new IOException("Mapping snapshot is truncated: " + snapshotFile);
+            }
+            CRC32 bodyCrc = new CRC32();
+            bodyCrc.update(buffer.duplicate());
+            if (bodyCrc.getValue() != expectedBodyCrc) {
+                throw new IOException("Mapping snapshot is damaged: " + snapshotFile);
+            }
+
+            String[] table = new String[readVarInt(buffer)];
+            for (int i = 0; i < table.length; i++) {
+                byte[] bytes = new byte[readVarInt(buffer)];
+                buffer.get(bytes);
+                table[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int rootCount = readVarInt(buffer);
+            List<Mapping> roots = new ArrayList<>(rootCount);
+            for (int i = 0; i < rootCount; i++) {
+                roots.add(readMapping(buffer, table));
+            }
+            return roots;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Mapping snapshot is damaged: " + snapshotFile, e);
+        }
+    }
+
+    private static void writeMapping(DataOutputStream out, Mapping mapping, Map<String, Integer> strings, List<String> table) throws IOException {
+        writeVarInt(out, reference(mapping.getJPath(), strings, table));
+        writeVarInt(out, reference(mapping.getXPath(), strings, table));
+        out.writeBoolean(mapping.isList());
+        writeVarInt(out, reference(mapping.getJsonType(), strings, table));
+        writeVarInt(out, reference(mapping.getXmlType(), strings, table));
+        writeVarInt(out, reference(mapping.getExprsn(), strings, table));
+        writeVarInt(out, reference(mapping.getNamespace(), strings, table));
+        writeVarInt(out, reference(mapping.getParentXPath(), strings, table));
+        writeVarInt(out, (mapping.getOrder() << 1) ^ (mapping.getOrder() >> 31)); // zigzag, small negatives stay short
+        List<Mapping> children = mapping.getChildMappings();
+        writeVarInt(out, children.size());
+        for (Mapping child : children) {
+            writeMapping(out, child, strings, table);
+        }
+    }
+
+    private static Mapping readMapping(ByteBuffer buffer, String[] table) {
+        String jPath = string(buffer, table);
+        String xPath = string(buffer, table);
+        boolean isList = buffer.get() != 0;
+        String jsonType = string(buffer, table);
+        String xmlType = string(buffer, table);
+        String exprsn = string(buffer, table);
+        String namespace = string(buffer, table);
+        String parentXPath = string(buffer, table);
+        int zigzag = readVarInt(buffer);
+        Mapping mapping = new Mapping(jPath, xPath, isList, jsonType, xmlType, exprsn, namespace, parentXPath,
+                (zigzag >>> 1) ^ -(zigzag & 1));
+        for (int i = readVarInt(buffer); i > 0; i--) {
+            mapping.addChildMapping(readMapping(buffer, table));
+        }
+        return mapping;
+    }
+
+    private static int reference(String string, Map<String, Integer> strings, List<String> table) {
+        if (string == null) {
+            return NULL_STRING;
+        }
+        return strings.computeIfAbsent(string, key -> {
+            table.add(key);
+            return table.size();
+        });
+    }
+
+    private static String string(ByteBuffer buffer, String[] table) {
+        int reference = readVarInt(buffer);
+        return reference == NULL_STRING ? null : table[reference - 1];
+    }
+
+    // Seven bits per byte, low bits first, high bit set on all but the last byte
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Variable-length integer is too long");
+    }
+}
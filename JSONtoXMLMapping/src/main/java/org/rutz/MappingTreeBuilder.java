@@ -0,0 +1,207 @@
+package org.rutz;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Builds the mapping hierarchy from mapping CSV rows in one pass over the rows, however they are ordered.
+ * <p>
+ * Rows are added as they are read and indexed by their parent xPath. {@link #build()} then links each row
+ * once its parent is linked, starting from the top level mappings. The result is the same tree the
+ * repeated passes of {@link MappingGenerator#processMappingsIteratively} produce, including the order of
+ * children with equal {@code order} and which row wins when an xPath is repeated: rows are linked in the
+ * order those passes would reach them, pass by pass and in file order within a pass.
+ * <p>
+ * Rows that cannot be linked are reported in the {@link Result}: orphans, whose parent xPath no row
+ * defines, cycles of rows that are each other's ancestors, and everything below them. Not thread-safe.
+ */
+public final class MappingTreeBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingTreeBuilder.class);
+    private static final String ROOT = "Root";
+
+    private final List<Mapping> rows = new ArrayList<>();
+    private final Map<String, List<Integer>> rowsByParent = new HashMap<>(); // parent xPath -> rows in file order
+    private final Map<String, Integer> firstRowByXPath = new HashMap<>();
+
+    /**
+     * Adds one data row: jPath, xPath, isList, jsonType, xmlType, exprsn, namespace, parentXPath and an optional order.
+     */
+    public MappingTreeBuilder addRow(String[] row) {
+        // A short row is usually a file cut off while it is written
+        if (row.length < 8) {
+            throw new IllegalArgumentException("Mapping row needs at least 8 columns, has " + row.length + ": " + String.join(",", row));
+        }
+        String xPath = row[1];
+        String parentXPath = row[7] != null ? row[7].trim() : "";
+        int order = 0; // Default order
+        if (row.length > 8 && row[8] != null && !row[8].trim().isEmpty()) {
+            try {
+                order = Integer.parseInt(row[8].trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid order value '{}' for xPath '{}'. Using default order 0.", row[8], xPath);
+            }
+        }
+
+        int index = rows.size();
+        rows.add(new Mapping(row[0], xPath, "Yes".equalsIgnoreCase(row[2]), row[3], row[4], row[5], row[6], parentXPath, order));
+        rowsByParent.computeIfAbsent(parentXPath, key -> new ArrayList<>()).add(index);
+        firstRowByXPath.putIfAbsent(xPath, index);
+        return this;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    // Links the rows under a virtual root and sorts every child list by order
+    public Result build() {
+        Mapping virtualRoot = new Mapping("$", ROOT, false, "", "", "", "", "", 0);
+        Map<String, Mapping> registry = new HashMap<>();
+        registry.put(ROOT, virtualRoot);
+        boolean[] linked = new boolean[rows.size()];
+        List<Mapping> duplicates = new ArrayList<>();
+
+        // A row is reached in the first pass, in file order, after its parent was linked. The queue holds
+        // (pass << 32 | row) and is polled in that order, so children are linked in the order of the passes.
+        PriorityQueue<Long> reached = new PriorityQueue<>();
+        schedule(reached, rowsByParent.get(""), 1, -1);
+        schedule(reached, rowsByParent.get(ROOT), 1, -1);
+        while (!reached.isEmpty()) {
+            long next = reached.poll();
+            int pass = (int) (next >>> 32);
+            int index = (int) next;
+            Mapping mapping = rows.get(index);
+            linked[index] = true;
+            if (registry.containsKey(mapping.getXPath())) {
+                duplicates.add(mapping);
+                continue;
+            }
+            registry.put(mapping.getXPath(), mapping);
+            Mapping parent = mapping.getParentXPath().isEmpty() ? virtualRoot : registry.get(mapping.getParentXPath());
+            parent.addChildMapping(mapping);
+            schedule(reached, rowsByParent.get(mapping.getXPath()), pass, index);
+        }
+
+        sortByOrder(virtualRoot);
+        return unlinked(virtualRoot.getChildMappings(), linked, duplicates);
+    }
+
+    // A row after its parent in the file is reached in the same pass, a row before it in the next one
+    private static void schedule(PriorityQueue<Long> reached, List<Integer> children, int parentPass, int parentIndex) {
+        if (children == null) {
+            return;
+        }
+        for (int child : children) {
+            long pass = child > parentIndex ? parentPass : parentPass + 1;
+            reached.add(pass << 32 | child);
+        }
+    }
+
+    // Stable, so children with equal order keep the order they were linked in
+    private static void sortByOrder(Mapping virtualRoot) {
+        ArrayDeque<Mapping> pending = new ArrayDeque<>();
+        pending.push(virtualRoot);
+        while (!pending.isEmpty()) {
+            Mapping mapping = pending.pop();
+            mapping.getChildMappings().sort(Comparator.comparingInt(Mapping::getOrder));
+            for (Mapping child : mapping.getChildMappings()) {
+                pending.push(child);
+            }
+        }
+    }
+
+    // Sorts the rows that were never reached into orphans, cycles and their descendants
+    private Result unlinked(List<Mapping> roots, boolean[] linked, List<Mapping> duplicates) {
+        List<Mapping> orphans = new ArrayList<>();
+        List<Mapping> unresolved = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (!linked[i]) {
+                Mapping mapping = rows.get(i);
+                unresolved.add(mapping);
+                if (!firstRowByXPath.containsKey(mapping.getParentXPath())) {
+                    orphans.add(mapping);
+                }
+            }
+        }
+
+        // Follow the parent of each unresolved xPath (its first row) until a known end or a repeat
+        List<List<String>> cycles = new ArrayList<>();
+        Map<String, Integer> walk = new HashMap<>(); // xPath -> walk that visited it
+        for (int start = 0; start < unresolved.size(); start++) {
+            String xPath = unresolved.get(start).getXPath();
+            List<String> path = new ArrayList<>();
+            while (xPath != null && !walk.containsKey(xPath)) {
+                walk.put(xPath, start);
+                path.add(xPath);
+                Integer row = firstRowByXPath.get(xPath);
+                xPath = row != null && !linked[row] ? rows.get(row).getParentXPath() : null;
+            }
+            if (xPath != null && walk.get(xPath) == start) {
+                cycles.add(new ArrayList<>(path.subList(path.indexOf(xPath), path.size())));
+            }
+        }
+        return new Result(roots, rows.size(), orphans, cycles, unresolved, duplicates);
+    }
+
+    /**
+     * The top level mappings and the rows left out of them.
+     */
+    public static final class Result {
+        private final List<Mapping> roots;
+        private final int rowCount;
+        private final List<Mapping> orphans;
+        private final List<List<String>> cycles;
+        private final List<Mapping> unresolved;
+        private final List<Mapping> duplicates;
+
+        Result(List<Mapping> roots, int rowCount, List<Mapping> orphans, List<List<String>> cycles,
+               List<Mapping> unresolved, List<Mapping> duplicates) {
+            this.roots = roots;
+            this.rowCount = rowCount;
+            this.orphans = Collections.unmodifiableList(orphans);
+            this.cycles = Collections.unmodifiableList(cycles);
+            this.unresolved = Collections.unmodifiableList(unresolved);
+            this.duplicates = Collections.unmodifiableList(duplicates);
+        }
+
+        // Top level mappings, sorted by order, with their children linked
+        public List<Mapping> getRoots() {
+            return roots;
+        }
+
+        // Data rows added, linked or not
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        // Rows whose parent xPath is not the xPath of any row
+        public List<Mapping> getOrphans() {
+            return orphans;
+        }
+
+        // The xPaths of each parent cycle, each one the child of the next and the last the child of the first
+        public List<List<String>> getCycles() {
+            return cycles;
+        }
+
+        // Every row left out of the tree: orphans, cycles and the rows below them
+        public List<Mapping> getUnresolved() {
+            return unresolved;
+        }
+
+        // Rows whose xPath was already linked by an earlier row, and that were skipped
+        public List<Mapping> getDuplicates() {
+            return duplicates;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.rutz;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders the items of large list mappings on an {@link Executor}.
+ * <p>
+ * Items are split into chunks of consecutive items. Each chunk is rendered on its own
+ * {@link DeferredXmlWriter} into a private byte buffer, and the buffers are spliced into the enclosing
+ * writer in the original item order, so the output is the same as rendering the items one by one.
+ * At most {@code maxChunksInFlight} chunks are queued or buffered at a time. Lists nested inside a
+ * chunk are rendered sequentially by the worker.
+ */
+final class ParallelListRenderer {
+
+    private static final String ENCODING = "UTF-8";
+    private static final int CHUNK_WRITER_BUFFER = 8 * 1024;
+
+    private final Executor executor;
+    private final int threshold;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final XMLOutputFactory outputFactory;
+    private final XmlNames names; // null renders chunks with the factory's writers
+
+    /**
+     * @param executor          Runs the chunks. It should not be the pool running the transformation itself
+     *                          if that pool is bounded, since the caller blocks on the chunks.
+     * @param threshold         Minimum item count for a list to be split.
+     * @param chunkSize         Items per chunk.
+     * @param maxChunksInFlight Chunks submitted but not yet written.
+     * @param outputFactory     Creates the writers for the chunk buffers.
+     * @param names             If not null, chunks are written by {@link Utf8XmlWriter}s with these names instead.
+     */
+    ParallelListRenderer(Executor executor, int threshold, int chunkSize, int maxChunksInFlight,
+                         XMLOutputFactory outputFactory, XmlNames names) {
+        this.executor = executor;
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.outputFactory = outputFactory;
+        this.names = names;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    // Render every item of an array that is already in memory
+    void render(DeferredXmlWriter writer, JsonNode listNode, CompiledMapping mapping) throws Exception {
+        Stitcher stitcher = open(writer, mapping);
+        try {
+            for (JsonNode listItem : listNode) {
+                stitcher.add(listItem);
+            }
+            stitcher.finish();
+        } catch (Exception e) {
+            stitcher.cancel();
+            throw e;
+        }
+    }
+
+    // Start collecting items of one list; they are written to the writer in the order they are added
+    Stitcher open(DeferredXmlWriter writer, CompiledMapping mapping) {
+        return new Stitcher(writer, mapping);
+    }
+
+    private Fragment renderChunk(List<JsonNode> items, CompiledMapping mapping) throws Exception {
+        Fragment fragment = new Fragment();
+        XMLStreamWriter chunkWriter = names != null ? new Utf8XmlWriter(fragment, names, CHUNK_WRITER_BUFFER)
+                : outputFactory.createXMLStreamWriter(fragment, ENCODING);
+        DeferredXmlWriter deferredWriter = new DeferredXmlWriter(chunkWriter);
+        LazyTreeRenderer renderer = new LazyTreeRenderer(deferredWriter, null);
+        for (JsonNode listItem : items) {
+            renderer.processListItem(listItem, mapping);
+        }
+        chunkWriter.close();
+        fragment.rootContent = deferredWriter.hasRootContent();
+        fragment.counts = deferredWriter.counts();
+        return fragment;
+    }
+
+    final class Stitcher {
+
+        private final DeferredXmlWriter writer;
+        private final CompiledMapping mapping;
+        private final ArrayDeque<CompletableFuture<Fragment>> inFlight = new ArrayDeque<>();
+        private List<JsonNode> chunk;
+
+        private Stitcher(DeferredXmlWriter writer, CompiledMapping mapping) {
+            this.writer = writer;
+            this.mapping = mapping;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        void add(JsonNode listItem) throws Exception {
+            chunk.add(listItem);
+            if (chunk.size() == chunkSize) {
+                submit();
+            }
+        }
+
+        // Write everything that is still outstanding
+        void finish() throws Exception {
+            if (!chunk.isEmpty()) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                writeNext();
+            }
+        }
+
+        // Drop the chunks that were not written, after a failure
+        void cancel() {
+            for (CompletableFuture<Fragment> future : inFlight) {
+                future.cancel(false);
+            }
+            inFlight.clear();
+        }
+
+        private void submit() throws Exception {
+            if (inFlight.size() >= maxChunksInFlight) {
+                writeNext();
+            }
+            List<JsonNode> items = chunk;
+            chunk = new ArrayList<>(chunkSize);
+            inFlight.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return renderChunk(items, mapping);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        private void writeNext() throws Exception {
+            Fragment fragment;
+            try {
+                fragment = inFlight.poll().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+            writer.counts().add(fragment.counts);
+            if (fragment.size() > 0) {
+                writer.writeRaw(fragment.bytes(), 0, fragment.size());
+            }
+            if (fragment.rootContent) {
+                writer.commitContent();
+            }
+        }
+    }
+
+    // Encoded output of one chunk. The JDK writer emits one byte per call, so this stays unsynchronized
+    private static final class Fragment extends OutputStream {
+        private byte[] buf = new byte[8 * 1024];
+        private int count;
+        boolean rootContent;
+        TransformCounts counts;
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, count * 2);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(count * 2, count + len));
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        int size() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The mappings of a {@link MappingPlan} read backwards, for {@link StreamingXmlToJson}: a tree of XML element
+ * names, each bound to the JSON field path its mapping's jPath names and to what the element becomes there.
+ * <p>
+ * Wrapper names of an xPath become elements of their own that write nothing. Mappings whose jPath is a
+ * {@link JsonPath} query, attribute mappings and a second mapping of the same element are left out.
+ */
+final class ReversePlan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReversePlan.class);
+
+    // What an element becomes in the JSON output
+    enum Kind {
+        WRAPPER,     // an xPath wrapper name, the XML root above the root mappings, or a $ mapping without children
+        SELF,        // a jPath of $ with children: its children write into the enclosing object
+        OBJECT,      // a field holding an object
+        VALUE,       // a field holding the element's text
+        OBJECT_ITEM, // an object item of a list field
+        VALUE_ITEM   // a text item of a list field
+    }
+
+    // How element text is written, from the mapping's jsonType
+    enum ValueType {
+        STRING, INTEGER, LONG, DOUBLE, DECIMAL, BOOLEAN;
+
+        static ValueType of(String jsonType) {
+            if (jsonType == null) {
+                return STRING;
+            }
+            switch (jsonType.trim().toLowerCase()) {
+                case "integer":
+                case "int":
+                    return INTEGER;
+                case "long":
+                    return LONG;
+                case "double":
+                case "float":
+                    return DOUBLE;
+                case "decimal":
+                case "number":
+                    return DECIMAL;
+                case "boolean":
+                    return BOOLEAN;
+                default:
+                    return STRING;
+            }
+        }
+    }
+
+    static final class Node {
+        final Kind kind;
+        final SerializedString[] path; // JSON field names below the enclosing object, empty for WRAPPER and SELF
+        final ValueType valueType;
+        final String jPath;
+        private final Map<String, Node> children = new HashMap<>();
+
+        Node(Kind kind, SerializedString[] path, ValueType valueType, String jPath) {
+            this.kind = kind;
+            this.path = path;
+            this.valueType = valueType;
+            this.jPath = jPath;
+        }
+
+        // The node of a child element, null if no mapping writes it
+        Node child(String localName) {
+            return children.get(localName);
+        }
+    }
+
+    private static final SerializedString[] NO_PATH = new SerializedString[0];
+
+    private final Node root;
+
+    private ReversePlan(Node root) {
+        this.root = root;
+    }
+
+    static ReversePlan of(CompiledMapping[] roots) {
+        Node root = new Node(Kind.WRAPPER, NO_PATH, ValueType.STRING, "$");
+        add(root, roots, new HashMap<>());
+        return new ReversePlan(root);
+    }
+
+    // The node above the XML root element
+    Node root() {
+        return root;
+    }
+
+    private static void add(Node parent, CompiledMapping[] mappings, Map<String, SerializedString> names) {
+        for (CompiledMapping mapping : mappings) {
+            if (mapping.getQuery() != null) {
+                LOGGER.debug("JSONPath query {} is not converted back from XML", mapping.getJPath());
+                continue;
+            }
+            Node node = bind(parent, mapping, names);
+            if (node == null) {
+                LOGGER.warn("Mapping {} -> {} is not converted back from XML: its element is mapped twice",
+                        mapping.getJPath(), mapping.getXPath());
+            } else if (node.kind == Kind.SELF || node.kind == Kind.OBJECT || node.kind == Kind.OBJECT_ITEM) {
+                add(node, mapping.elementChildren(), names);
+            }
+        }
+    }
+
+    // Adds the wrappers and the element of a mapping below its parent; null if the element is taken
+    private static Node bind(Node parent, CompiledMapping mapping, Map<String, SerializedString> names) {
+        Node wrapper = parent;
+        for (String wrapperName : mapping.wrapperNames()) {
+            Node existing = wrapper.children.get(wrapperName);
+            if (existing == null) {
+                existing = new Node(Kind.WRAPPER, NO_PATH, ValueType.STRING, mapping.getJPath());
+                wrapper.children.put(wrapperName, existing);
+            } else if (existing.kind != Kind.WRAPPER) {
+                return null;
+            }
+            wrapper = existing;
+        }
+        if (wrapper.children.containsKey(mapping.getElementName())) {
+            return null;
+        }
+
+        SerializedString[] path = path(mapping.getPointer(), names);
+        boolean hasChildren = mapping.elementChildren().length > 0;
+        Kind kind;
+        if (path.length == 0) {
+            // Without children, a jPath of $ writes nothing in either direction
+            kind = hasChildren ? Kind.SELF : Kind.WRAPPER;
+        } else if (mapping.isList()) {
+            kind = hasChildren ? Kind.OBJECT_ITEM : Kind.VALUE_ITEM;
+        } else {
+            kind = hasChildren ? Kind.OBJECT : Kind.VALUE;
+        }
+        Node node = new Node(kind, path, ValueType.of(mapping.getJsonType()), mapping.getJPath());
+        wrapper.children.put(mapping.getElementName(), node);
+        return node;
+    }
+
+    // Field names are shared, so paths are compared by identity
+    private static SerializedString[] path(JsonPointer pointer, Map<String, SerializedString> names) {
+        List<SerializedString> path = new ArrayList<>();
+        for (JsonPointer segment = pointer; !segment.matches(); segment = segment.tail()) {
+            path.add(names.computeIfAbsent(segment.getMatchingProperty(), SerializedString::new));
+        }
+        return path.toArray(NO_PATH);
+    }
+}
@@ -0,0 +1,480 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.rutz.metrics.TransformMetrics;
+import org.rutz.trace.TraceRecorder;
+import org.rutz.trace.TraceRecorder.Event;
+import org.rutz.util.BufferPool;
+import org.rutz.util.PooledOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Streaming JSON to XML transformation driven by the Jackson {@link JsonParser} token stream.
+ * <p>
+ * The document is never built as a whole tree. Each JSON object is matched against the child mappings of
+ * its mapping while its fields are read: a field that feeds the next child in mapping order is written
+ * straight to the XML writer, fields no mapping needs are skipped, and only fields that arrive ahead of
+ * their turn in mapping order are kept as small trees until they can be written. Memory therefore depends
+ * on nesting depth and on the largest out-of-order field, not on document size. The XML is the same as
+ * the tree-based {@link JsonToXmlSteam}.
+ */
+public class StreamingJsonToXml {
+
+    private static final ObjectNode EMPTY_OBJECT = JsonNodeFactory.instance.objectNode();
+
+    // Shared factories; both are safe for concurrent use once configured
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final BufferPool BUFFER_POOL = new BufferPool(8 * 1024, 16);
+
+    private final ObjectMapper objectMapper;
+    private final JsonParser parser;
+    private final DeferredXmlWriter writer;
+    private final TransformCounts counts;
+    private final LazyTreeRenderer renderer;
+    private final ParallelListRenderer parallelLists;
+
+    private StreamingJsonToXml(ObjectMapper objectMapper, JsonParser parser, DeferredXmlWriter writer, ParallelListRenderer parallelLists) {
+        this.objectMapper = objectMapper;
+        this.parser = parser;
+        this.writer = writer;
+        this.counts = writer.counts();
+        this.renderer = new LazyTreeRenderer(writer, parallelLists);
+        this.parallelLists = parallelLists;
+    }
+
+    // Main method to stream JSON to XML and write directly to a file
+    public static void transformJsonToXml(InputStream jsonStream, List<Mapping> mappings, String outputFilePath) throws Exception {
+        transformJsonToXml(jsonStream, MappingPlan.compile(mappings), outputFilePath);
+    }
+
+    public static void transformJsonToXml(InputStream jsonStream, MappingPlan plan, String outputFilePath) throws Exception {
+        try (OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(new File(outputFilePath)), 64 * 1024)) {
+            transformJsonToXml(jsonStream, plan, fileOutputStream);
+        }
+    }
+
+    // Stream JSON to XML into a stream the caller provides; the XML stream is not closed
+    public static void transformJsonToXml(InputStream jsonStream, MappingPlan plan, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(jsonStream)) {
+            writeDocument(parser, plan, xmlStream);
+        }
+    }
+
+    // Stream a JSON file; files of 1 MB and more are memory-mapped and parsed as bytes
+    public static void transformJsonToXml(Path jsonFile, MappingPlan plan, OutputStream xmlStream) throws Exception {
+        try (JsonParser parser = JsonInputs.createParser(OBJECT_MAPPER.getFactory(), jsonFile)) {
+            writeDocument(parser, plan, xmlStream);
+        }
+    }
+
+    // Streaming one document counts towards TransformMetrics, as a transform of JsonToXmlEngine does
+    private static void writeDocument(JsonParser parser, MappingPlan plan, OutputStream xmlStream) throws Exception {
+        long start = System.nanoTime();
+        TransformCounts counts = new TransformCounts();
+        PooledOutputStream bufferedStream = new PooledOutputStream(xmlStream, BUFFER_POOL);
+        boolean failed = true;
+        try (bufferedStream) {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(bufferedStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            transform(parser, plan, new DeferredXmlWriter(writer, null, counts), null);
+            writer.writeEndDocument();
+            writer.close();
+            failed = false;
+        } finally {
+            TransformMetrics metrics = TransformMetrics.get();
+            counts.recordTo(metrics);
+            metrics.recordDocument(System.nanoTime() - start, bufferedStream.getBytesWritten(), failed);
+        }
+    }
+
+    /**
+     * Streams the next JSON document from the parser into the writer. Only the mapped elements are
+     * written; starting and ending the XML document is left to the caller. The document is recorded in
+     * {@link TransformMetrics} without output bytes, as the writer's target is not known here.
+     *
+     * @param parser The JSON parser, positioned before the document.
+     * @param plan   The compiled mappings.
+     * @param writer The XML writer.
+     * @throws Exception If reading, transforming or writing fails.
+     */
+    public static void transform(JsonParser parser, MappingPlan plan, XMLStreamWriter writer) throws Exception {
+        long start = System.nanoTime();
+        TransformCounts counts = new TransformCounts();
+        boolean failed = true;
+        try {
+            transform(parser, plan, new DeferredXmlWriter(writer, null, counts), null);
+            failed = false;
+        } finally {
+            TransformMetrics metrics = TransformMetrics.get();
+            counts.recordTo(metrics);
+            metrics.recordDocument(System.nanoTime() - start, 0, failed);
+        }
+    }
+
+    // Lists reaching the threshold of parallelLists continue on its executor once that many items were streamed
+    static void transform(JsonParser parser, MappingPlan plan, DeferredXmlWriter writer, ParallelListRenderer parallelLists) throws Exception {
+        ObjectMapper objectMapper = parser.getCodec() instanceof ObjectMapper
+                ? (ObjectMapper) parser.getCodec() : OBJECT_MAPPER;
+        new StreamingJsonToXml(objectMapper, parser, writer, parallelLists).processDocument(plan);
+    }
+
+    private void processDocument(MappingPlan plan) throws Exception {
+        CompiledMapping[] roots = plan.roots();
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return;
+        }
+        if (token == JsonToken.START_OBJECT) {
+            // Root mappings are resolved against the root object like the children of a mapping
+            processObject(plan.rootDispatch());
+        } else if (roots.length == 1 && roots[0].head() == null && roots[0].getQuery() == null) {
+            writeXmlElement(roots[0], token);
+        } else {
+            JsonNode rootNode = readValue(plan.projection());
+            for (CompiledMapping mapping : roots) {
+                JsonNode jsonValue = mapping.select(rootNode);
+                if (!jsonValue.isMissingNode()) {
+                    renderer.writeXmlElement(jsonValue, mapping);
+                } else {
+                    TraceRecorder.record(Event.MISSING_NODE, mapping.getElementName(), mapping.getJPath(), 0);
+                }
+            }
+        }
+    }
+
+    // Write one mapped element from the value the parser is positioned on
+    private void writeXmlElement(CompiledMapping mapping, JsonToken token) throws Exception {
+        counts.jsonNodes++;
+        String[] wrapperNames = mapping.wrapperNames();
+        for (String wrapperName : wrapperNames) {
+            writer.writeStartElement(wrapperName);
+        }
+
+        if (token == JsonToken.START_ARRAY) {
+            if (mapping.isList()) {
+                processArrayElement(mapping);
+            } else {
+                // Arrays are only written through list mappings
+                parser.skipChildren();
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            writer.writeSuppressibleStartElement(mapping.getElementName(), false);
+            processObject(mapping.childDispatch());
+            if (writer.endElement()) {
+                TraceRecorder.record(Event.EMPTY_OBJECT, mapping.getElementName(), mapping.getJPath(), 0);
+            }
+        } else {
+            renderer.writeValue(scalarNode(token), mapping);
+        }
+
+        for (int i = 0; i < wrapperNames.length; i++) {
+            writer.writeEndElement();
+        }
+    }
+
+    private void processArrayElement(CompiledMapping mapping) throws Exception {
+        int itemCount = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (parallelLists != null && itemCount + 1 == parallelLists.getThreshold()) {
+                // The list is large: read the remaining items as trees and render them in chunks
+                processArrayElementInParallel(mapping, token, itemCount);
+                return;
+            }
+            itemCount++;
+            processListItem(mapping, token);
+        }
+        // The size is only known once the array was streamed
+        TraceRecorder.record(Event.ARRAY, mapping.getElementName(), mapping.getJPath(), itemCount);
+    }
+
+    private void processListItem(CompiledMapping mapping, JsonToken token) throws Exception {
+        counts.jsonNodes++;
+        boolean dropped = false;
+        if (token == JsonToken.START_OBJECT) {
+            writer.writeSuppressibleStartElement(mapping.getElementName(), false);
+            processObject(mapping.childDispatch());
+            dropped = writer.endElement();
+        } else if (token == JsonToken.START_ARRAY) {
+            // Nested arrays are rare; resolve them on a tree
+            JsonNode listItem = readValue(mapping.childDispatch().projection());
+            writer.writeSuppressibleStartElement(mapping.getElementName(), true);
+            renderer.processChildMappings(listItem, mapping);
+            dropped = writer.endElement();
+        } else if (token != JsonToken.VALUE_NULL) {
+            renderer.writeValue(scalarNode(token), mapping);
+        } else {
+            dropped = true;
+        }
+        if (dropped) {
+            TraceRecorder.record(Event.EMPTY_LIST_ITEM, mapping.getElementName(), mapping.getJPath(), 0);
+        }
+    }
+
+    /**
+     * Streams the array of a list mapping whose JSONPath selects items of one field, e.g.
+     * {@code $.branches[?(@.region == 'EU')]}. Items are read as trees only if a filter or further steps
+     * need them, and one at a time. Like the tree writers, which skip a query without matches, the
+     * wrappers are only opened at the first match.
+     */
+    private void processQueryItems(CompiledMapping mapping) throws Exception {
+        JsonPath query = mapping.getQuery();
+        boolean needsTree = query.needsItem(1) || query.length() > 2;
+        boolean opened = false;
+        int index = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (!needsTree) {
+                if (query.matchesItem(1, index++, null)) {
+                    opened = openWrappers(mapping, opened);
+                    processListItem(mapping, token);
+                } else {
+                    counts.jsonNodes++;
+                    parser.skipChildren();
+                }
+                continue;
+            }
+            JsonNode item = readValue(JsonProjection.ALL);
+            if (query.matchesItem(1, index++, item)) {
+                for (JsonNode match : query.select(item, 2, Integer.MAX_VALUE)) {
+                    opened = openWrappers(mapping, opened);
+                    renderer.processListItem(match, mapping);
+                }
+            }
+        }
+        TraceRecorder.record(Event.ARRAY, mapping.getElementName(), mapping.getJPath(), index);
+        if (opened) {
+            for (int i = 0; i < mapping.wrapperNames().length; i++) {
+                writer.writeEndElement();
+            }
+        }
+    }
+
+    private boolean openWrappers(CompiledMapping mapping, boolean opened) throws Exception {
+        if (!opened) {
+            for (String wrapperName : mapping.wrapperNames()) {
+                writer.writeStartElement(wrapperName);
+            }
+        }
+        return true;
+    }
+
+    private void processArrayElementInParallel(CompiledMapping mapping, JsonToken token, int itemCount) throws Exception {
+        ParallelListRenderer.Stitcher stitcher = parallelLists.open(writer, mapping);
+        try {
+            for (; token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                stitcher.add(readValue(mapping.childDispatch().projection()));
+                itemCount++;
+            }
+            TraceRecorder.record(Event.ARRAY, mapping.getElementName(), mapping.getJPath(), itemCount);
+            stitcher.finish();
+        } catch (Exception e) {
+            stitcher.cancel();
+            throw e;
+        }
+    }
+
+    // Resolve the given child mappings against the object the parser is positioned on
+    private void processObject(FieldDispatch children) throws Exception {
+        ObjectScope scope = new ObjectScope(children);
+        scope.drain();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            scope.accept(field, token);
+        }
+        scope.finish();
+    }
+
+    // Reads the value the parser is positioned on, skipping the fields outside the projection
+    private JsonNode readValue(JsonProjection projection) throws Exception {
+        return projection.readTree(objectMapper, parser);
+    }
+
+    private JsonNode scalarNode(JsonToken token) throws Exception {
+        return JsonProjection.scalarNode(objectMapper, parser, token);
+    }
+
+    /**
+     * Matching state for one JSON object. Child mappings whose jPath selects the object itself are
+     * entered as nested frames over the same fields. Each field is matched to the children reading it
+     * through the frames' {@link FieldDispatch}, without comparing it to every child. A child whose JSONPath
+     * does not start with a field name holds back all later fields until the end of the object.
+     */
+    private final class ObjectScope {
+
+        private final JsonProjection projection; // fields of the object any frame reads
+        private Frame top;
+        private ObjectNode captured; // fields that arrived before their mapping's turn
+
+        ObjectScope(FieldDispatch children) {
+            this.projection = children.projection();
+            this.top = new Frame(null, null, children);
+        }
+
+        void accept(String field, JsonToken token) throws Exception {
+            int consumers = 0;
+            Frame consumerFrame = null;
+            int consumerIndex = -1;
+            for (Frame frame = top; frame != null; frame = frame.parent) {
+                // In outer frames the child at 'next' is the one currently entered
+                int from = frame == top ? frame.next : frame.next + 1;
+                for (int i : frame.dispatch.consumers(field)) {
+                    if (i >= from) {
+                        consumers++;
+                        consumerFrame = frame;
+                        consumerIndex = i;
+                    }
+                }
+            }
+
+            if (consumers == 0) {
+                counts.jsonNodes++;
+                parser.skipChildren();
+                return;
+            }
+
+            if (consumers == 1 && consumerFrame == top && consumerIndex == top.next) {
+                CompiledMapping child = top.children[consumerIndex];
+                if (child.isSingleSegment()) {
+                    // Every earlier sibling is already written, so this one can go straight to the writer
+                    writeXmlElement(child, token);
+                    top.next++;
+                    drain();
+                    return;
+                }
+                if (child.streamsItems() && token == JsonToken.START_ARRAY) {
+                    processQueryItems(child);
+                    top.next++;
+                    drain();
+                    return;
+                }
+            }
+
+            if (captured == null) {
+                captured = objectMapper.createObjectNode();
+            }
+            captured.set(field, readValue(projection.field(field)));
+            for (Frame frame = top; frame != null; frame = frame.parent) {
+                for (int i : frame.dispatch.consumers(field)) {
+                    if (i >= frame.next && frame.children[i].head() != null) {
+                        frame.seen[i] = true;
+                    }
+                }
+            }
+            drain();
+        }
+
+        // Write every child whose data is complete, in mapping order
+        void drain() throws Exception {
+            while (true) {
+                Frame frame = top;
+                while (frame.next < frame.children.length) {
+                    CompiledMapping child = frame.children[frame.next];
+                    if (child.head() != null) {
+                        if (!frame.seen[frame.next]) {
+                            return;
+                        }
+                        writeCaptured(child);
+                    } else if (child.getQuery() != null) {
+                        // Any later field may match, so it waits for the end of the object
+                        return;
+                    } else if (child.elementChildren().length == 0) {
+                        writeCaptured(child);
+                    } else {
+                        enter(child);
+                        frame = top;
+                        continue;
+                    }
+                    frame.next++;
+                }
+                if (frame.parent == null) {
+                    return;
+                }
+                exit();
+            }
+        }
+
+        // At the end of the object every remaining child is written from what was captured
+        void finish() throws Exception {
+            while (true) {
+                Frame frame = top;
+                for (; frame.next < frame.children.length; frame.next++) {
+                    writeCaptured(frame.children[frame.next]);
+                }
+                if (frame.parent == null) {
+                    return;
+                }
+                exit();
+            }
+        }
+
+        private void enter(CompiledMapping mapping) throws Exception {
+            for (String wrapperName : mapping.wrapperNames()) {
+                writer.writeStartElement(wrapperName);
+            }
+            writer.writeSuppressibleStartElement(mapping.getElementName(), false);
+
+            Frame frame = new Frame(top, mapping, mapping.childDispatch());
+            if (captured != null) {
+                for (int i = 0; i < frame.children.length; i++) {
+                    String head = frame.children[i].head();
+                    frame.seen[i] = head != null && captured.has(head);
+                }
+            }
+            top = frame;
+        }
+
+        private void exit() throws Exception {
+            if (writer.endElement()) {
+                TraceRecorder.record(Event.EMPTY_OBJECT, top.mapping.getElementName(), top.mapping.getJPath(), 0);
+            }
+            for (int i = 0; i < top.mapping.wrapperNames().length; i++) {
+                writer.writeEndElement();
+            }
+            top = top.parent;
+            top.next++;
+        }
+
+        private void writeCaptured(CompiledMapping child) throws Exception {
+            JsonNode childNode = child.select(captured != null ? captured : EMPTY_OBJECT);
+            if (!childNode.isMissingNode()) {
+                renderer.writeXmlElement(childNode, child);
+            } else {
+                TraceRecorder.record(Event.MISSING_NODE, child.getElementName(), child.getJPath(), 0);
+            }
+        }
+    }
+
+    private static final class Frame {
+        final Frame parent;
+        final CompiledMapping mapping;
+        final FieldDispatch dispatch;
+        final CompiledMapping[] children;
+        final boolean[] seen;
+        int next;
+
+        Frame(Frame parent, CompiledMapping mapping, FieldDispatch dispatch) {
+            this.parent = parent;
+            this.mapping = mapping;
+            this.dispatch = dispatch;
+            this.children = dispatch.children();
+            this.seen = new boolean[children.length];
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package org.rutz;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.rutz.ReversePlan.Node;
+import org.rutz.metrics.TransformMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming XML to JSON transformation with the same mappings as the JSON to XML direction.
+ * <p>
+ * The XML is read with a StAX {@link XMLStreamReader} and the JSON written with a Jackson {@link JsonGenerator}
+ * while it is read. Each element is looked up among the elements its parent's mappings write (see
+ * {@link ReversePlan}); elements no mapping writes are skipped. An element becomes the field its mapping's
+ * jPath names below the enclosing object: an object for a mapping with children, the element's text,
+ * converted by the mapping's {@code jsonType}, for one without. Consecutive elements of a list mapping become
+ * one array. Memory depends on nesting depth only.
+ * <p>
+ * The output has the shape of the JSON the XML was written from. Expressions are not reversed, so such
+ * values are written as they appear in the XML, and mappings with a JSONPath query are left out. Fields of
+ * one nested object, e.g. {@code $.customer.name} and {@code $.customer.city}, and the items of a list must
+ * be consecutive in the XML, as the JSON to XML direction writes them. A field that would be written a
+ * second time into the same object fails the transform with a {@link JsonGenerationException} instead.
+ */
+public final class StreamingXmlToJson {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingXmlToJson.class);
+
+    // Shared factories; both are safe for concurrent use once configured
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final XMLStreamReader reader;
+    private final JsonGenerator generator;
+    private char[] text = new char[64];
+    private int textLength;
+
+    private StreamingXmlToJson(XMLStreamReader reader, JsonGenerator generator) {
+        this.reader = reader;
+        this.generator = generator;
+    }
+
+    // Partner input is not trusted: no DTDs and no external entities
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    // Main method to stream XML to JSON and write directly to a file
+    public static void transformXmlToJson(InputStream xmlStream, List<Mapping> mappings, String outputFilePath) throws Exception {
+        transformXmlToJson(xmlStream, MappingPlan.compile(mappings), outputFilePath);
+    }
+
+    public static void transformXmlToJson(InputStream xmlStream, MappingPlan plan, String outputFilePath) throws Exception {
+        try (OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(new File(outputFilePath)), 64 * 1024)) {
+            transformXmlToJson(xmlStream, plan, fileOutputStream);
+        }
+    }
+
+    // Stream XML to JSON into a stream the caller provides; neither stream is closed, the JSON is flushed
+    public static void transformXmlToJson(InputStream xmlStream, MappingPlan plan, OutputStream jsonStream) throws Exception {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(xmlStream);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(jsonStream, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            transform(reader, plan, generator);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Streams the next XML element from the reader into the generator as one JSON object. The reader is left
+     * on the element's end tag; flushing and closing the generator is left to the caller.
+     *
+     * @param reader    The XML reader, positioned before or on the element.
+     * @param plan      The compiled mappings.
+     * @param generator The JSON generator.
+     * @throws JsonGenerationException If a field would be written twice into one object, e.g. because the
+     *                                 items of a list are not consecutive.
+     * @throws Exception               If reading, converting or writing fails.
+     */
+    public static void transform(XMLStreamReader reader, MappingPlan plan, JsonGenerator generator) throws Exception {
+        try {
+            new StreamingXmlToJson(reader, generator).processDocument(plan.reversePlan());
+        } catch (JsonGenerationException e) {
+            throw new JsonGenerationException(e.getOriginalMessage() + " at XML line " + reader.getLocation().getLineNumber(), e, generator);
+        }
+    }
+
+    private void processDocument(ReversePlan plan) throws Exception {
+        JsonObject root = new JsonObject(generator);
+        generator.writeStartObject();
+        int event = reader.getEventType();
+        while (event != XMLStreamConstants.START_ELEMENT && reader.hasNext()) {
+            event = reader.next();
+        }
+        if (event == XMLStreamConstants.START_ELEMENT) {
+            processElement(plan.root(), root);
+        }
+        root.close();
+        generator.writeEndObject();
+    }
+
+    // Writes the element the reader is on, as a child of the given node, into the object; ends on its end tag
+    private void processElement(Node parent, JsonObject object) throws Exception {
+        Node node = parent.child(reader.getLocalName());
+        if (node == null) {
+            skipElement();
+            return;
+        }
+        switch (node.kind) {
+            case WRAPPER:
+            case SELF:
+                processChildren(node, object);
+                break;
+            case OBJECT:
+                object.field(node.path);
+                processObject(node);
+                break;
+            case OBJECT_ITEM:
+                object.item(node);
+                processObject(node);
+                break;
+            case VALUE:
+                object.field(node.path);
+                writeValue(node);
+                break;
+            default:
+                object.item(node);
+                writeValue(node);
+                break;
+        }
+    }
+
+    private void processObject(Node node) throws Exception {
+        JsonObject object = new JsonObject(generator);
+        generator.writeStartObject();
+        processChildren(node, object);
+        object.close();
+        generator.writeEndObject();
+    }
+
+    // Child elements of the element the reader is on, up to its end tag; text is ignored
+    private void processChildren(Node node, JsonObject object) throws Exception {
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                processElement(node, object);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    private void skipElement() throws Exception {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    // The element's own text, without that of child elements
+    private void readText() throws Exception {
+        textLength = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                int length = reader.getTextLength();
+                if (textLength + length > text.length) {
+                    text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+                }
+                System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), text, textLength, length);
+                textLength += length;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                skipElement();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    private void writeValue(Node node) throws Exception {
+        readText();
+        if (node.valueType == ReversePlan.ValueType.STRING) {
+            generator.writeString(text, 0, textLength);
+            return;
+        }
+        String value = new String(text, 0, textLength).trim();
+        if (value.isEmpty() || value.equals("null")) {
+            generator.writeNull();
+            return;
+        }
+        try {
+            switch (node.valueType) {
+                case INTEGER:
+                    generator.writeNumber(Integer.parseInt(value));
+                    break;
+                case LONG:
+                    generator.writeNumber(Long.parseLong(value));
+                    break;
+                case DOUBLE:
+                    generator.writeNumber(Double.parseDouble(value));
+                    break;
+                case DECIMAL:
+                    generator.writeNumber(new BigDecimal(value));
+                    break;
+                default:
+                    generator.writeBoolean(parseBoolean(value));
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // As in the JSON to XML direction, a value that does not convert is logged and the transform goes on
+            TransformMetrics.get().dataTypeConversionFailed();
+            LOGGER.error("Error converting " + node.jPath + " Value " + value,
+                    new DataTypeTransformationException("Datatype: " + node.valueType + " Value: " + value, e));
+            generator.writeString(value);
+        }
+    }
+
+    private static boolean parseBoolean(String value) {
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+
+    /**
+     * A JSON object being written, with the nested objects and the list array of the last field still
+     * open, so the next field can continue them. The names written into each open object are kept, so a
+     * field that comes back after another one fails instead of appearing twice.
+     */
+    private static final class JsonObject {
+
+        private final JsonGenerator generator;
+        private final List<SerializedString> openNames = new ArrayList<>(4);
+        private Node openList; // the list whose array is open after the open names, null if none
+        // Names written into this object, then into each open nested object in turn; compared by identity
+        private SerializedString[] written = new SerializedString[8];
+        private int writtenCount;
+        private int[] nestedStarts = new int[4]; // where the names of each open nested object begin in written
+
+        JsonObject(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        // Opens the field at the path, continuing open objects on it
+        void field(SerializedString[] path) throws Exception {
+            enter(path, path.length - 1);
+            writeFieldName(path[path.length - 1]);
+        }
+
+        // Opens an item of a list, continuing its array if it is the last field written
+        void item(Node list) throws Exception {
+            if (openList == list) {
+                return;
+            }
+            SerializedString[] path = list.path;
+            enter(path, path.length - 1);
+            writeFieldName(path[path.length - 1]);
+            generator.writeStartArray();
+            openList = list;
+        }
+
+        // Closes everything that was opened inside the object
+        void close() throws Exception {
+            enter(null, 0);
+        }
+
+        // Leaves the first objects of the path open, or opens them, and closes the rest
+        private void enter(SerializedString[] path, int objects) throws Exception {
+            if (openList != null) {
+                generator.writeEndArray();
+                openList = null;
+            }
+            int common = 0;
+            while (common < objects && common < openNames.size() && openNames.get(common) == path[common]) {
+                common++;
+            }
+            for (int i = openNames.size(); i > common; i--) {
+                generator.writeEndObject();
+                openNames.remove(i - 1);
+                writtenCount = nestedStarts[i - 1];
+            }
+            for (int i = common; i < objects; i++) {
+                writeFieldName(path[i]);
+                generator.writeStartObject();
+                if (i == nestedStarts.length) {
+                    nestedStarts = Arrays.copyOf(nestedStarts, i * 2);
+                }
+                nestedStarts[i] = writtenCount;
+                openNames.add(path[i]);
+            }
+        }
+
+        // Writes a name into the innermost open object, unless it was written there already
+        private void writeFieldName(SerializedString name) throws Exception {
+            int depth = openNames.size();
+            for (int i = depth == 0 ? 0 : nestedStarts[depth - 1]; i < writtenCount; i++) {
+                if (written[i] == name) {
+                    throw new JsonGenerationException("Field '" + name + "' would be written twice: the elements of"
+                            + " a nested object or a list must be consecutive", generator);
+                }
+            }
+            if (writtenCount == written.length) {
+                written = Arrays.copyOf(written, writtenCount * 2);
+            }
+            written[writtenCount++] = name;
+            generator.writeFieldName(name);
+        }
+    }
+}
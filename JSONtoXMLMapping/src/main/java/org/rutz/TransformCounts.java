@@ -0,0 +1,52 @@
+package org.rutz;
+
+import org.rutz.metrics.TransformMetrics;
+
+/**
+ * Counts of one transform, kept in plain fields by the single thread running it and added to
+ * {@link TransformMetrics} once at the end, so the hot path touches no shared counter.
+ */
+final class TransformCounts {
+
+    // One expression evaluation in SAMPLE_MASK + 1 is timed; timing every one would cost about as much as a compiled expression
+    private static final long SAMPLE_MASK = 15;
+
+    long jsonNodes;
+    long xmlElements;
+    long emptyElements;
+    long expressions;
+    long sampledExpressions;
+    long sampledExpressionNanos;
+
+    // Applies the mapping's transformer, counting and sampling expression evaluations
+    String transform(CompiledMapping mapping, String value) throws Exception {
+        if (!mapping.hasExpression()) {
+            return mapping.transform(value);
+        }
+        if ((expressions++ & SAMPLE_MASK) != 0) {
+            return mapping.transform(value);
+        }
+        long start = System.nanoTime();
+        try {
+            return mapping.transform(value);
+        } finally {
+            sampledExpressions++;
+            sampledExpressionNanos += System.nanoTime() - start;
+        }
+    }
+
+    // Counts of a part rendered on another thread, e.g. a chunk of a parallel list
+    void add(TransformCounts other) {
+        jsonNodes += other.jsonNodes;
+        xmlElements += other.xmlElements;
+        emptyElements += other.emptyElements;
+        expressions += other.expressions;
+        sampledExpressions += other.sampledExpressions;
+        sampledExpressionNanos += other.sampledExpressionNanos;
+    }
+
+    void recordTo(TransformMetrics metrics) {
+        metrics.recordTraversal(jsonNodes, xmlElements, emptyElements);
+        metrics.recordExpressions(expressions, sampledExpressions, sampledExpressionNanos);
+    }
+}
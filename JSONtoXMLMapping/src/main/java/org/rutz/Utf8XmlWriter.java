@@ -0,0 +1,459 @@
+package org.rutz;
+
+import org.rutz.XmlNames.EncodedName;
+import org.rutz.util.BufferPool;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link XMLStreamWriter} that encodes straight to UTF-8 bytes in a pooled buffer.
+ * <p>
+ * Start and end tags of the plan's element names are copied from {@link XmlNames}, and text that is
+ * plain ASCII without markup characters is copied byte by byte in one pass; only other text is escaped
+ * and encoded character by character. The buffer is written to an {@link OutputStream} or a
+ * {@link WritableByteChannel} when it is full and on {@link #flush()}.
+ * <p>
+ * The output is byte for byte that of the JDK's {@code XMLStreamWriter} for UTF-8, which stays the reference
+ * implementation: empty elements are written as a start and an end tag, text escapes {@code < > &}, and an
+ * unpaired surrogate is combined with whatever character is written next, as the JDK's UTF-8 writer does.
+ * Only the subset the transformation uses is supported: elements without namespaces or attributes, text and
+ * the document start and end.
+ */
+public final class Utf8XmlWriter implements XMLStreamWriter, AutoCloseable {
+
+    private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+
+    // ASCII characters that cannot be copied to text as they are
+    private static final boolean[] ESCAPED = new boolean[128];
+
+    static {
+        ESCAPED['<'] = true;
+        ESCAPED['>'] = true;
+        ESCAPED['&'] = true;
+    }
+
+    private final OutputStream out;              // null when writing to the channel
+    private final WritableByteChannel channel;   // null when writing to the stream
+    private final XmlNames names;
+    private final BufferPool pool;               // null if the buffer is not pooled
+    private byte[] buffer;
+    private ByteBuffer channelView;
+    private int count;
+    private long bytesWritten;
+
+    private EncodedName[] open = new EncodedName[16];
+    private int depth;
+    private boolean startTagOpen;
+    private int pendingSurrogate; // unpaired surrogate waiting for the next character, 0 if none
+
+    /**
+     * @param out   The stream to write to; it is flushed but never closed by this writer.
+     * @param names The encoded element names, e.g. {@link MappingPlan#getXmlNames()}.
+     * @param pool  Lends the output buffer until {@link #close()}.
+     */
+    public Utf8XmlWriter(OutputStream out, XmlNames names, BufferPool pool) {
+        this(out, null, names, pool, pool.acquire());
+    }
+
+    // The channel is never closed by this writer
+    public Utf8XmlWriter(WritableByteChannel channel, XmlNames names, BufferPool pool) {
+        this(null, channel, names, pool, pool.acquire());
+    }
+
+    public Utf8XmlWriter(OutputStream out, XmlNames names, int bufferSize) {
+        this(out, null, names, null, new byte[bufferSize]);
+    }
+
+    private Utf8XmlWriter(OutputStream out, WritableByteChannel channel, XmlNames names, BufferPool pool, byte[] buffer) {
+        if (buffer.length < 8) {
+            throw new IllegalArgumentException("Buffer size must be at least 8: " + buffer.length);
+        }
+        this.out = out;
+        this.channel = channel;
+        this.names = names != null ? names : XmlNames.EMPTY;
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    // Bytes written to the stream or channel so far, not counting what is still buffered
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        writeAscii("<?xml version=\"1.0\" ?>");
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        writeAscii("<?xml version=\"" + version + "\"?>");
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        if (!"UTF-8".equalsIgnoreCase(encoding)) {
+            throw new XMLStreamException("Utf8XmlWriter only writes UTF-8, not " + encoding);
+        }
+        writeAscii("<?xml version=\"" + version + "\" encoding=\"" + encoding + "\"?>");
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        EncodedName name = names.get(localName);
+        closeStartTag();
+        if (depth == open.length) {
+            EncodedName[] grown = new EncodedName[depth * 2];
+            System.arraycopy(open, 0, grown, 0, depth);
+            open = grown;
+        }
+        open[depth++] = name;
+        writeMarkup(name.startTag);
+        startTagOpen = true;
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        if (depth == 0) {
+            throw new XMLStreamException("No element was found to write");
+        }
+        closeStartTag();
+        EncodedName name = open[--depth];
+        open[depth] = null;
+        writeMarkup(name.endTag);
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (depth > 0) {
+            writeEndElement();
+        }
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        closeStartTag();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            // Fast path: copy plain ASCII until the buffer or the text ends
+            int end = Math.min(length, i + buffer.length - count);
+            if (pendingSurrogate == 0) {
+                byte[] buf = buffer;
+                int pos = count;
+                while (i < end) {
+                    char c = text.charAt(i);
+                    if (c >= 128 || ESCAPED[c]) {
+                        break;
+                    }
+                    buf[pos++] = (byte) c;
+                    i++;
+                }
+                count = pos;
+            }
+            if (i < end) {
+                writeTextChar(text.charAt(i++));
+            }
+        }
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        writeCharacters(new String(text, start, len));
+    }
+
+    /**
+     * Copies already encoded XML to the output, closing a start tag that is still open. The bytes do not
+     * complete an unpaired surrogate written before them, as with the JDK writer and its target stream.
+     */
+    public void writeRaw(byte[] bytes, int offset, int length) throws XMLStreamException {
+        closeStartTag();
+        if (length > buffer.length - count) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writeOut(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        flushBuffer();
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        }
+    }
+
+    /**
+     * Flushes and returns the buffer to its pool. Open elements are not ended and the target is not closed.
+     * Calling it again has no effect.
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            if (pool != null) {
+                pool.release(buffer);
+            }
+            buffer = null;
+        }
+    }
+
+    private void closeStartTag() throws XMLStreamException {
+        if (startTagOpen) {
+            startTagOpen = false;
+            if (pendingSurrogate != 0) {
+                writeTextChar('>');
+                return;
+            }
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = '>';
+        }
+    }
+
+    // Tags and declarations; the first character completes an unpaired surrogate like any other
+    private void writeMarkup(byte[] bytes) throws XMLStreamException {
+        int offset = 0;
+        if (pendingSurrogate != 0) {
+            writeUtf8(bytes[0]);
+            offset = 1;
+        }
+        int length = bytes.length - offset;
+        if (length > buffer.length - count) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writeOut(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void writeAscii(String markup) throws XMLStreamException {
+        closeStartTag();
+        writeMarkup(markup.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeTextChar(char c) throws XMLStreamException {
+        switch (c) {
+            case '<':
+                writeEscape(LT);
+                break;
+            case '>':
+                writeEscape(GT);
+                break;
+            case '&':
+                writeEscape(AMP);
+                break;
+            default:
+                writeUtf8(c);
+                break;
+        }
+    }
+
+    private void writeEscape(byte[] escape) throws XMLStreamException {
+        for (byte b : escape) {
+            writeUtf8(b);
+        }
+    }
+
+    // One UTF-16 unit, encoded as the JDK's UTF-8 writer does
+    private void writeUtf8(int c) throws XMLStreamException {
+        if (buffer.length - count < 4) {
+            flushBuffer();
+        }
+        byte[] buf = buffer;
+        if (pendingSurrogate != 0) {
+            int codePoint = (((pendingSurrogate & 0x3ff) << 10) | (c & 0x3ff)) + 0x10000;
+            pendingSurrogate = 0;
+            buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+            buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (c < 0x80) {
+            buf[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[count++] = (byte) (0xC0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate((char) c)) {
+            pendingSurrogate = c;
+        } else {
+            buf[count++] = (byte) (0xE0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws XMLStreamException {
+        if (count > 0) {
+            writeOut(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeOut(byte[] bytes, int offset, int length) throws XMLStreamException {
+        try {
+            if (out != null) {
+                out.write(bytes, offset, length);
+            } else {
+                ByteBuffer view = bytes == buffer ? channelView() : ByteBuffer.wrap(bytes);
+                view.limit(offset + length).position(offset);
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+        bytesWritten += length;
+    }
+
+    private ByteBuffer channelView() {
+        if (channelView == null) {
+            channelView = ByteBuffer.wrap(buffer);
+        }
+        return channelView.clear();
+    }
+
+    // Namespaces, attributes and other events are not written by the transformation
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) {
+        throw unsupported("empty elements");
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) {
+        throw unsupported("empty elements");
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) {
+        throw unsupported("empty elements");
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) {
+        throw unsupported("attributes");
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) {
+        throw unsupported("attributes");
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) {
+        throw unsupported("attributes");
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void writeComment(String data) {
+        throw unsupported("comments");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) {
+        throw unsupported("processing instructions");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) {
+        throw unsupported("processing instructions");
+    }
+
+    @Override
+    public void writeCData(String data) {
+        throw unsupported("CDATA");
+    }
+
+    @Override
+    public void writeDTD(String dtd) {
+        throw unsupported("DTDs");
+    }
+
+    @Override
+    public void writeEntityRef(String name) {
+        throw unsupported("entity references");
+    }
+
+    @Override
+    public String getPrefix(String uri) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        throw unsupported("namespaces");
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        throw new IllegalArgumentException("Property " + name + " is not supported");
+    }
+
+    private static UnsupportedOperationException unsupported(String what) {
+        return new UnsupportedOperationException("Utf8XmlWriter does not write " + what);
+    }
+}
@@ -0,0 +1,14 @@
+package org.rutz;
+
+/**
+ * Converts a single JSON value into the text written to XML.
+ * A handler is resolved once per mapping when the {@link MappingPlan} is compiled.
+ */
+@FunctionalInterface
+public interface ValueTransformer {
+
+    // Handler used by mappings that carry no expression
+    ValueTransformer IDENTITY = value -> value;
+
+    String transform(String value) throws Exception;
+}
@@ -0,0 +1,60 @@
+package org.rutz;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Element names of a {@link MappingPlan}, encoded once as the UTF-8 bytes of their start and end tags,
+ * so {@link Utf8XmlWriter} copies tags instead of encoding names per element.
+ * Immutable and shared by all writers of the plan.
+ */
+public final class XmlNames {
+
+    static final XmlNames EMPTY = new XmlNames(new HashMap<>());
+
+    private final Map<String, EncodedName> names;
+
+    private XmlNames(Map<String, EncodedName> names) {
+        this.names = names;
+    }
+
+    // Every wrapper and element name written by the mappings
+    static XmlNames of(CompiledMapping[] roots) {
+        Map<String, EncodedName> names = new HashMap<>();
+        for (CompiledMapping root : roots) {
+            collect(root, names);
+        }
+        return new XmlNames(names);
+    }
+
+    private static void collect(CompiledMapping mapping, Map<String, EncodedName> names) {
+        for (String wrapperName : mapping.wrapperNames()) {
+            names.computeIfAbsent(wrapperName, EncodedName::new);
+        }
+        names.computeIfAbsent(mapping.getElementName(), EncodedName::new);
+        for (CompiledMapping child : mapping.elementChildren()) {
+            collect(child, names);
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    // The encoded tags of a name; names outside the plan are encoded on each call
+    EncodedName get(String name) {
+        EncodedName encoded = names.get(name);
+        return encoded != null ? encoded : new EncodedName(name);
+    }
+
+    static final class EncodedName {
+        final byte[] startTag; // <name
+        final byte[] endTag;   // </name>
+
+        EncodedName(String name) {
+            this.startTag = ("<" + name).getBytes(StandardCharsets.UTF_8);
+            this.endTag = ("</" + name + ">").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
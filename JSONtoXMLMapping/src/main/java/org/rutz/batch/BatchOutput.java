@@ -0,0 +1,76 @@
+package org.rutz.batch;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Where a batch writes its XML: one file per record, or one stream with every record inside a root element.
+ */
+public final class BatchOutput {
+
+    private final Path directory;
+    private final OutputStream stream;
+    private final String rootElement;
+    private final boolean gzip;
+
+    private BatchOutput(Path directory, OutputStream stream, String rootElement, boolean gzip) {
+        this.directory = directory;
+        this.stream = stream;
+        this.rootElement = rootElement;
+        this.gzip = gzip;
+    }
+
+    /**
+     * One XML document per record in the given directory, named after the record
+     * ({@code <name>.xml} for files, {@code record-<line>.xml} for NDJSON lines).
+     */
+    public static BatchOutput perRecordFiles(Path directory) {
+        return perRecordFiles(directory, false);
+    }
+
+    /**
+     * Like {@link #perRecordFiles(Path)}, with {@code gzip} every file is compressed by the worker that
+     * rendered it and named {@code <name>.xml.gz}. For one large compressed document use {@link #wrapped}
+     * over a {@link org.rutz.util.ParallelGzipOutputStream}.
+     */
+    public static BatchOutput perRecordFiles(Path directory, boolean gzip) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Output directory cannot be null.");
+        }
+        return new BatchOutput(directory, null, null, gzip);
+    }
+
+    /**
+     * One XML document with the mapped elements of every record, in input order, inside {@code rootElement}.
+     * Records that fail are left out. The stream is not closed.
+     */
+    public static BatchOutput wrapped(OutputStream stream, String rootElement) {
+        if (stream == null) {
+            throw new IllegalArgumentException("Output stream cannot be null.");
+        }
+        if (rootElement == null || rootElement.isBlank()) {
+            throw new IllegalArgumentException("Root element cannot be empty.");
+        }
+        return new BatchOutput(null, stream, rootElement, false);
+    }
+
+    boolean isWrapped() {
+        return stream != null;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    OutputStream getStream() {
+        return stream;
+    }
+
+    String getRootElement() {
+        return rootElement;
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+}
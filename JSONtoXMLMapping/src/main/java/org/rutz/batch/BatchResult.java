@@ -0,0 +1,78 @@
+package org.rutz.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one batch run: record counts, throughput and the records that failed.
+ */
+public final class BatchResult {
+
+    private final long recordCount;
+    private final long elapsedNanos;
+    private final List<RecordFailure> failures;
+
+    BatchResult(long recordCount, long elapsedNanos, List<RecordFailure> failures) {
+        this.recordCount = recordCount;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public long getSucceededCount() {
+        return recordCount - failures.size();
+    }
+
+    public long getFailedCount() {
+        return failures.size();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : recordCount * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    // In input order
+    public List<RecordFailure> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records (%d failed) in %d ms, %.1f records/sec",
+                recordCount, getFailedCount(), elapsedNanos / 1_000_000, getRecordsPerSecond());
+    }
+
+    /**
+     * A record that could not be read, transformed or written.
+     */
+    public static final class RecordFailure {
+        private final String recordId;
+        private final Exception cause;
+
+        RecordFailure(String recordId, Exception cause) {
+            this.recordId = recordId;
+            this.cause = cause;
+        }
+
+        // The file name, or the line number for NDJSON input
+        public String getRecordId() {
+            return recordId;
+        }
+
+        public Exception getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return recordId + ": " + cause;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.rutz.batch;
+
+import org.rutz.JsonToXmlEngine;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.MappingSnapshot;
+import org.rutz.util.AsyncFileOutputStream;
+import org.rutz.util.ParallelGzipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line entry point for {@link BatchTransformer}.
+ * <pre>
+ * BatchRunner &lt;mappings.csv&gt; &lt;input.ndjson | input directory&gt; &lt;output directory | output.xml&gt;
+ *             [--workers N] [--queue N] [--wrap RootElement] [--output-buffers N] [--output-buffer-size BYTES] [--fsync]
+ *             [--gzip] [--gzip-block-size BYTES] [--gzip-level N] [--mapping-snapshot FILE]
+ * </pre>
+ * Without {@code --wrap} every record is written to its own file in the output directory; with it all
+ * records go to one XML file inside the given root element, written by an {@link AsyncFileOutputStream}
+ * with the given buffers. With {@code --gzip} the per-record files are compressed by the workers, and the
+ * wrapped file is compressed in parallel blocks by a {@link ParallelGzipOutputStream} in front of the file
+ * stream. The mapping CSV is read once for the batch; with {@code --mapping-snapshot} the plan is loaded from
+ * that {@link MappingSnapshot} while it matches the CSV, and the snapshot is written otherwise.
+ */
+public class BatchRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunner.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchRunner <mappings.csv> <input.ndjson|input dir> <output dir|output.xml>"
+                    + " [--workers N] [--queue N] [--wrap RootElement] [--output-buffers N] [--output-buffer-size BYTES] [--fsync]"
+                    + " [--gzip] [--gzip-block-size BYTES] [--gzip-level N] [--mapping-snapshot FILE]");
+            System.exit(2);
+        }
+
+        BatchTransformer.Builder builder = BatchTransformer.builder(JsonToXmlEngine.builder(loadPlan(args)).build());
+        String rootElement = null;
+        AsyncFileOutputStream.Builder wrappedOutput = AsyncFileOutputStream.builder(Paths.get(args[2]));
+        boolean gzip = false;
+        int gzipBlockSize = 0;
+        int gzipLevel = -1;
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers":
+                    builder.workers(Integer.parseInt(args[++i]));
+                    break;
+                case "--queue":
+                    builder.queueCapacity(Integer.parseInt(args[++i]));
+                    break;
+                case "--wrap":
+                    rootElement = args[++i];
+                    break;
+                case "--output-buffers":
+                    wrappedOutput.bufferCount(Integer.parseInt(args[++i]));
+                    break;
+                case "--output-buffer-size":
+                    wrappedOutput.bufferSize(Integer.parseInt(args[++i]));
+                    break;
+                case "--fsync":
+                    wrappedOutput.fsync(true);
+                    break;
+                case "--gzip":
+                    gzip = true;
+                    break;
+                case "--gzip-block-size":
+                    gzipBlockSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--gzip-level":
+                    gzipLevel = Integer.parseInt(args[++i]);
+                    break;
+                case "--mapping-snapshot":
+                    i++; // read by loadPlan
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        BatchTransformer batch = builder.build();
+
+        Path input = Paths.get(args[1]);
+        Path output = Paths.get(args[2]);
+        BatchResult result;
+        if (rootElement != null) {
+            AsyncFileOutputStream fileStream = wrappedOutput.build();
+            try (fileStream; OutputStream xmlStream = gzip ? gzipStream(fileStream, gzipBlockSize, gzipLevel) : fileStream) {
+                result = run(batch, input, BatchOutput.wrapped(xmlStream, rootElement));
+            }
+            LOGGER.info("Waited {} ms for the output file", fileStream.getIoWaitNanos() / 1_000_000);
+        } else {
+            result = run(batch, input, BatchOutput.perRecordFiles(output, gzip));
+        }
+
+        for (BatchResult.RecordFailure failure : result.getFailures()) {
+            LOGGER.error("Record {} failed", failure.getRecordId(), failure.getCause());
+        }
+        LOGGER.info("Batch finished: {}", result);
+        if (result.getFailedCount() > 0) {
+            System.exit(1);
+        }
+    }
+
+    // From the mapping snapshot when one is given and still matches the CSV
+    private static MappingPlan loadPlan(String[] args) throws Exception {
+        for (int i = 3; i < args.length - 1; i++) {
+            if ("--mapping-snapshot".equals(args[i])) {
+                return MappingSnapshot.loadOrCompile(Paths.get(args[0]), Paths.get(args[i + 1]));
+            }
+        }
+        return MappingPlan.compile(MappingGenerator.readMappingsFromCsv(args[0]));
+    }
+
+    private static OutputStream gzipStream(OutputStream target, int blockSize, int level) throws Exception {
+        ParallelGzipOutputStream.Builder builder = ParallelGzipOutputStream.builder(target).level(level);
+        if (blockSize > 0) {
+            builder.blockSize(blockSize);
+        }
+        return builder.build();
+    }
+
+    private static BatchResult run(BatchTransformer batch, Path input, BatchOutput output) throws Exception {
+        return Files.isDirectory(input) ? batch.transformDirectory(input, output) : batch.transformNdjson(input, output);
+    }
+}
@@ -0,0 +1,299 @@
+package org.rutz.batch;
+
+import org.rutz.DeferredXmlWriter;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.MappingPlan;
+import org.rutz.batch.BatchResult.RecordFailure;
+
+import javax.xml.stream.XMLOutputFactory;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Transforms many independent JSON documents with one {@link JsonToXmlEngine}.
+ * <p>
+ * Input is newline-delimited JSON (one document per line) or a directory of {@code .json} files. Records
+ * are read on the calling thread and transformed on a fixed pool of workers. At most
+ * {@code workers + queueCapacity} records are read ahead of the oldest unfinished one, so memory stays
+ * bounded for any input size. Results are collected in input order; a record that fails is reported in
+ * the {@link BatchResult} and the batch continues.
+ */
+public final class BatchTransformer {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final JsonToXmlEngine engine;
+    private final int workers;
+    private final int queueCapacity;
+
+    private BatchTransformer(Builder builder) {
+        this.engine = builder.engine;
+        this.workers = builder.workers;
+        this.queueCapacity = builder.queueCapacity;
+    }
+
+    public static Builder builder(JsonToXmlEngine engine) {
+        return new Builder(engine);
+    }
+
+    public static Builder builder(MappingPlan plan) {
+        return new Builder(JsonToXmlEngine.builder(plan).build());
+    }
+
+    public BatchResult transformNdjson(Path ndjsonFile, BatchOutput output) throws Exception {
+        try (InputStream ndjsonStream = Files.newInputStream(ndjsonFile)) {
+            return transformNdjson(ndjsonStream, output);
+        }
+    }
+
+    /**
+     * Transforms every non-blank line of the stream as one JSON document. The stream is not closed.
+     */
+    public BatchResult transformNdjson(InputStream ndjsonStream, BatchOutput output) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ndjsonStream, StandardCharsets.UTF_8));
+        return run(new RecordSource() {
+            private int lineNumber;
+
+            @Override
+            public BatchRecord next() throws Exception {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (!line.isBlank()) {
+                        return new BatchRecord(String.valueOf(lineNumber), "record-" + lineNumber + ".xml", line, null);
+                    }
+                }
+                return null;
+            }
+        }, output);
+    }
+
+    /**
+     * Transforms every {@code .json} file directly inside the directory, in file name order.
+     */
+    public BatchResult transformDirectory(Path inputDirectory, BatchOutput output) throws Exception {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(inputDirectory)) {
+            files = listing.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".json"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Iterator<Path> iterator = files.iterator();
+        return run(() -> {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Path file = iterator.next();
+            String name = file.getFileName().toString();
+            return new BatchRecord(name, name.substring(0, name.length() - ".json".length()) + ".xml", null, file);
+        }, output);
+    }
+
+    private BatchResult run(RecordSource source, BatchOutput output) throws Exception {
+        long start = System.nanoTime();
+        if (!output.isWrapped()) {
+            Files.createDirectories(output.getDirectory());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+        ArrayDeque<Future<Outcome>> inFlight = new ArrayDeque<>();
+        List<RecordFailure> failures = new ArrayList<>();
+        WrappedWriter wrappedWriter = output.isWrapped() ? new WrappedWriter(output) : null;
+        long recordCount = 0;
+        try {
+            BatchRecord record;
+            while ((record = source.next()) != null) {
+                recordCount++;
+                if (inFlight.size() == workers + queueCapacity) {
+                    retire(inFlight.poll(), failures, wrappedWriter);
+                }
+                BatchRecord submitted = record;
+                inFlight.add(executor.submit(() -> process(submitted, output)));
+            }
+            while (!inFlight.isEmpty()) {
+                retire(inFlight.poll(), failures, wrappedWriter);
+            }
+            if (wrappedWriter != null) {
+                wrappedWriter.finish();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new BatchResult(recordCount, System.nanoTime() - start, failures);
+    }
+
+    // Runs on a worker; failures are returned rather than thrown so the batch continues
+    private Outcome process(BatchRecord record, BatchOutput output) {
+        try {
+            byte[] json = record.file != null ? Files.readAllBytes(record.file) : null;
+            ByteArrayOutputStream xmlStream = new ByteArrayOutputStream(json != null ? Math.max(256, json.length) : 1024);
+            if (output.isWrapped()) {
+                if (json != null) {
+                    engine.transformFragment(json, xmlStream);
+                } else {
+                    engine.transformFragment(record.json, xmlStream);
+                }
+                return new Outcome(record, xmlStream.toByteArray(), null);
+            }
+
+            if (json != null) {
+                engine.transform(json, xmlStream);
+            } else {
+                engine.transform(record.json, xmlStream);
+            }
+            // Rendered in memory first, so a failed record never leaves a partial file
+            if (output.isGzip()) {
+                try (OutputStream file = new GZIPOutputStream(
+                        Files.newOutputStream(output.getDirectory().resolve(record.outputName + ".gz")), 8192)) {
+                    xmlStream.writeTo(file);
+                }
+            } else {
+                Files.write(output.getDirectory().resolve(record.outputName), xmlStream.toByteArray());
+            }
+            return new Outcome(record, null, null);
+        } catch (Exception e) {
+            return new Outcome(record, null, e);
+        }
+    }
+
+    private static void retire(Future<Outcome> future, List<RecordFailure> failures, WrappedWriter wrappedWriter) throws Exception {
+        Outcome outcome;
+        try {
+            outcome = future.get();
+        } catch (ExecutionException e) {
+            // Only errors escape process()
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+        if (outcome.failure != null) {
+            failures.add(new RecordFailure(outcome.record.id, outcome.failure));
+        } else if (wrappedWriter != null) {
+            wrappedWriter.write(outcome.xml);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordSource {
+        // Returns null after the last record
+        BatchRecord next() throws Exception;
+    }
+
+    private static final class BatchRecord {
+        final String id;
+        final String outputName;
+        final String json; // NDJSON line
+        final Path file;   // or the file to read on the worker
+
+        BatchRecord(String id, String outputName, String json, Path file) {
+            this.id = id;
+            this.outputName = outputName;
+            this.json = json;
+            this.file = file;
+        }
+    }
+
+    private static final class Outcome {
+        final BatchRecord record;
+        final byte[] xml;
+        final Exception failure;
+
+        Outcome(BatchRecord record, byte[] xml, Exception failure) {
+            this.record = record;
+            this.xml = xml;
+            this.failure = failure;
+        }
+    }
+
+    // Writes the records of a wrapped output inside the root element, on the calling thread
+    private static final class WrappedWriter {
+        private final OutputStream bufferedStream;
+        private final DeferredXmlWriter writer;
+
+        WrappedWriter(BatchOutput output) throws Exception {
+            this.bufferedStream = new BufferedOutputStream(output.getStream(), 64 * 1024);
+            this.writer = new DeferredXmlWriter(OUTPUT_FACTORY.createXMLStreamWriter(bufferedStream, "UTF-8"), bufferedStream);
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(output.getRootElement());
+        }
+
+        void write(byte[] xml) throws Exception {
+            writer.writeRaw(xml, 0, xml.length);
+        }
+
+        void finish() throws Exception {
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            bufferedStream.flush();
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final int pool = POOL_COUNTER.incrementAndGet();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "batch-" + pool + "-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static final class Builder {
+        private final JsonToXmlEngine engine;
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 4 * Runtime.getRuntime().availableProcessors();
+
+        private Builder(JsonToXmlEngine engine) {
+            if (engine == null) {
+                throw new IllegalArgumentException("Engine cannot be null.");
+            }
+            this.engine = engine;
+        }
+
+        public Builder workers(int workers) {
+            if (workers < 1) {
+                throw new IllegalArgumentException("Workers must be positive: " + workers);
+            }
+            this.workers = workers;
+            return this;
+        }
+
+        // Records read ahead beyond the ones being transformed
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 0) {
+                throw new IllegalArgumentException("Queue capacity cannot be negative: " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public BatchTransformer build() {
+            return new BatchTransformer(this);
+        }
+    }
+}
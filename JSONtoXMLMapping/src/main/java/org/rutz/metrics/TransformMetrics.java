@@ -0,0 +1,218 @@
+package org.rutz.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histogram of the transformations, exposed over JMX.
+ * <p>
+ * The counters are {@link LongAdder}s, which stripe updates across cells so concurrent transforms do not
+ * contend on one cache line. The engine does not update them per JSON node: each transform counts in plain
+ * fields of its own and adds the totals here once, when it ends. Nothing is allocated per node.
+ * <p>
+ * The instance is registered with the platform MBean server as {@value #OBJECT_NAME} on first use.
+ */
+public final class TransformMetrics implements TransformMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.rutz:type=TransformMetrics";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransformMetrics.class);
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final LongAdder documentsTransformed = new LongAdder();
+    private final LongAdder documentsFailed = new LongAdder();
+    private final LongAdder jsonNodesVisited = new LongAdder();
+    private final LongAdder xmlElementsWritten = new LongAdder();
+    private final LongAdder xmlBytesWritten = new LongAdder();
+    private final LongAdder emptyElementsSkipped = new LongAdder();
+    private final LongAdder expressionEvaluations = new LongAdder();
+    private final LongAdder sampledExpressions = new LongAdder();
+    private final LongAdder sampledExpressionNanos = new LongAdder();
+    private final LongAdder attributeTransformationFailures = new LongAdder();
+    private final LongAdder dataTypeConversionFailures = new LongAdder();
+    private final LongAdder outputWaitNanos = new LongAdder();
+    private final LatencyHistogram transformLatency = new LatencyHistogram();
+
+    private TransformMetrics() {}
+
+    public static TransformMetrics get() {
+        return Holder.INSTANCE;
+    }
+
+    // Registered when first used, so applications that never transform do not get the MBean
+    private static final class Holder {
+        private static final TransformMetrics INSTANCE = register(new TransformMetrics());
+
+        private static TransformMetrics register(TransformMetrics metrics) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+            } catch (InstanceAlreadyExistsException e) {
+                LOGGER.warn("{} is already registered, e.g. by another class loader; these metrics are not exposed", OBJECT_NAME);
+            } catch (JMException | SecurityException e) {
+                LOGGER.warn("Cannot register {}; metrics are collected but not exposed", OBJECT_NAME, e);
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * Records the end of one transform.
+     *
+     * @param latencyNanos Time the transform took.
+     * @param bytesWritten XML bytes written.
+     * @param failed       Whether the transform threw; failed transforms are not in the latency histogram.
+     */
+    public void recordDocument(long latencyNanos, long bytesWritten, boolean failed) {
+        xmlBytesWritten.add(bytesWritten);
+        if (failed) {
+            documentsFailed.increment();
+        } else {
+            documentsTransformed.increment();
+            transformLatency.record(latencyNanos);
+        }
+    }
+
+    // Totals of one transform's traversal
+    public void recordTraversal(long jsonNodes, long xmlElements, long emptyElements) {
+        jsonNodesVisited.add(jsonNodes);
+        xmlElementsWritten.add(xmlElements);
+        emptyElementsSkipped.add(emptyElements);
+    }
+
+    /**
+     * @param evaluations  Expressions evaluated.
+     * @param sampled      Evaluations that were timed.
+     * @param sampledNanos Time of the timed evaluations.
+     */
+    public void recordExpressions(long evaluations, long sampled, long sampledNanos) {
+        expressionEvaluations.add(evaluations);
+        sampledExpressions.add(sampled);
+        sampledExpressionNanos.add(sampledNanos);
+    }
+
+    public void attributeTransformationFailed() {
+        attributeTransformationFailures.increment();
+    }
+
+    public void dataTypeConversionFailed() {
+        dataTypeConversionFailures.increment();
+    }
+
+    // Time a transform was blocked on asynchronous file output
+    public void recordOutputWait(long nanos) {
+        outputWaitNanos.add(nanos);
+    }
+
+    public LatencyHistogram getTransformLatency() {
+        return transformLatency;
+    }
+
+    @Override
+    public long getDocumentsTransformed() {
+        return documentsTransformed.sum();
+    }
+
+    @Override
+    public long getDocumentsFailed() {
+        return documentsFailed.sum();
+    }
+
+    @Override
+    public long getJsonNodesVisited() {
+        return jsonNodesVisited.sum();
+    }
+
+    @Override
+    public long getXmlElementsWritten() {
+        return xmlElementsWritten.sum();
+    }
+
+    @Override
+    public long getXmlBytesWritten() {
+        return xmlBytesWritten.sum();
+    }
+
+    @Override
+    public long getEmptyElementsSkipped() {
+        return emptyElementsSkipped.sum();
+    }
+
+    @Override
+    public long getExpressionEvaluations() {
+        return expressionEvaluations.sum();
+    }
+
+    @Override
+    public double getExpressionMeanNanos() {
+        long sampled = sampledExpressions.sum();
+        return sampled == 0 ? 0 : (double) sampledExpressionNanos.sum() / sampled;
+    }
+
+    @Override
+    public long getExpressionTimeMillis() {
+        return Math.round(getExpressionMeanNanos() * expressionEvaluations.sum() / NANOS_PER_MILLI);
+    }
+
+    @Override
+    public long getAttributeTransformationFailures() {
+        return attributeTransformationFailures.sum();
+    }
+
+    @Override
+    public long getDataTypeConversionFailures() {
+        return dataTypeConversionFailures.sum();
+    }
+
+    @Override
+    public long getOutputWaitMillis() {
+        return outputWaitNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public double getTransformLatencyMeanMillis() {
+        return transformLatency.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTransformLatencyP50Millis() {
+        return transformLatency.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTransformLatencyP99Millis() {
+        return transformLatency.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTransformLatencyP999Millis() {
+        return transformLatency.getPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTransformLatencyMaxMillis() {
+        return transformLatency.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        documentsTransformed.reset();
+        documentsFailed.reset();
+        jsonNodesVisited.reset();
+        xmlElementsWritten.reset();
+        xmlBytesWritten.reset();
+        emptyElementsSkipped.reset();
+        expressionEvaluations.reset();
+        sampledExpressions.reset();
+        sampledExpressionNanos.reset();
+        attributeTransformationFailures.reset();
+        dataTypeConversionFailures.reset();
+        outputWaitNanos.reset();
+        transformLatency.reset();
+    }
+}
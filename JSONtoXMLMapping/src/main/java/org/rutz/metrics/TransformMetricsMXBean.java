@@ -0,0 +1,51 @@
+package org.rutz.metrics;
+
+/**
+ * JMX view of {@link TransformMetrics}, registered as {@value TransformMetrics#OBJECT_NAME}.
+ * Counters are totals since start or the last {@link #reset()}; times are in the unit the name says.
+ */
+public interface TransformMetricsMXBean {
+
+    // Documents transformed successfully
+    long getDocumentsTransformed();
+
+    long getDocumentsFailed();
+
+    // JSON values the mappings were matched against
+    long getJsonNodesVisited();
+
+    long getXmlElementsWritten();
+
+    long getXmlBytesWritten();
+
+    // Object and list item elements left out because nothing below them had content
+    long getEmptyElementsSkipped();
+
+    long getExpressionEvaluations();
+
+    // Mean time of one expression evaluation, measured on a sample of the evaluations
+    double getExpressionMeanNanos();
+
+    // Estimated total time spent in expressions, the sampled mean times the evaluations
+    long getExpressionTimeMillis();
+
+    long getAttributeTransformationFailures();
+
+    long getDataTypeConversionFailures();
+
+    // Time transforms waited for asynchronous file output to take a buffer or finish writing
+    long getOutputWaitMillis();
+
+    double getTransformLatencyMeanMillis();
+
+    double getTransformLatencyP50Millis();
+
+    double getTransformLatencyP99Millis();
+
+    double getTransformLatencyP999Millis();
+
+    double getTransformLatencyMaxMillis();
+
+    // Sets every counter and the latency histogram back to zero
+    void reset();
+}
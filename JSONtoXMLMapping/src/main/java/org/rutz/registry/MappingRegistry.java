@@ -0,0 +1,276 @@
+package org.rutz.registry;
+
+import org.rutz.JsonToXmlEngine;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.MappingSnapshot;
+import org.rutz.MappingTreeBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Named mapping sets loaded from CSV files that are reloaded when the files change.
+ * <p>
+ * Each set is published as a {@link JsonToXmlEngine} in an {@link AtomicReference}. {@link #engine(String)}
+ * is a map lookup and a volatile read, so transforms never wait for a reload; a transform keeps the engine,
+ * and therefore the plan, it started with. A {@link WatchService} thread notices changes to the files, and a
+ * single background thread of minimum priority re-reads and compiles a changed set once its file has been
+ * quiet for {@code settleDelay}, then swaps the reference. Content with the same checksum is not recompiled.
+ * A file that fails to load leaves the previous engine in place. So does one with rows that cannot be linked
+ * into the mapping tree, or with no rows, as a file caught half-written often is.
+ */
+public final class MappingRegistry implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingRegistry.class);
+    private static final AtomicInteger REGISTRY_COUNTER = new AtomicInteger();
+
+    private final Function<MappingPlan, JsonToXmlEngine> engineFactory;
+    private final long settleMillis;
+    private final Map<String, MappingSet> sets = new ConcurrentHashMap<>();
+    private final Map<Path, List<MappingSet>> setsByDirectory = new ConcurrentHashMap<>();
+    private final WatchService watchService;
+    private final ScheduledExecutorService reloader;
+    private final Thread watcher;
+    private volatile boolean closed;
+
+    private MappingRegistry(Builder builder) throws IOException {
+        this.engineFactory = builder.engineFactory;
+        this.settleMillis = builder.settleDelay.toMillis();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        int id = REGISTRY_COUNTER.incrementAndGet();
+        this.reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mapping-reload-" + id);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.watcher = new Thread(this::watchLoop, "mapping-watcher-" + id);
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Loads a mapping set and watches its file from now on.
+     *
+     * @param name    The name transforms look the set up by.
+     * @param csvFile The mapping CSV.
+     * @throws IllegalArgumentException If the name is already registered.
+     * @throws Exception                If the file cannot be loaded; the set is not registered then.
+     */
+    public void register(String name, Path csvFile) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Registry closed");
+        }
+        Path file = csvFile.toAbsolutePath().normalize();
+        MappingSet set = new MappingSet(name, file);
+        set.checksum = MappingSnapshot.checksum(file);
+        set.engine.set(engineFactory.apply(loadPlan(file)));
+        if (sets.putIfAbsent(name, set) != null) {
+            throw new IllegalArgumentException("Mapping set already registered: " + name);
+        }
+
+        Path directory = file.getParent();
+        setsByDirectory.computeIfAbsent(directory, key -> {
+            try {
+                key.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                sets.remove(name);
+                throw new IllegalStateException("Cannot watch " + key, e);
+            }
+            return new CopyOnWriteArrayList<>();
+        }).add(set);
+    }
+
+    // The current engine of a set; lock-free, and the engine stays valid after a reload
+    public JsonToXmlEngine engine(String name) {
+        MappingSet set = sets.get(name);
+        if (set == null) {
+            throw new IllegalArgumentException("Unknown mapping set: " + name);
+        }
+        return set.engine.get();
+    }
+
+    public MappingPlan plan(String name) {
+        return engine(name).getPlan();
+    }
+
+    // Times the set was replaced since it was registered
+    public int getReloadCount(String name) {
+        MappingSet set = sets.get(name);
+        return set != null ? set.reloads.get() : 0;
+    }
+
+    // Reloads that failed and left the previous engine in place
+    public int getFailedReloadCount(String name) {
+        MappingSet set = sets.get(name);
+        return set != null ? set.failures.get() : 0;
+    }
+
+    /**
+     * Re-reads a set now on the calling thread, e.g. when file events are not available, and swaps it in
+     * if the file changed. A failure is counted in {@link #getFailedReloadCount(String)}.
+     *
+     * @return Whether the engine was replaced.
+     * @throws Exception If the file cannot be loaded; the previous engine stays in place.
+     */
+    public boolean reload(String name) throws Exception {
+        MappingSet set = sets.get(name);
+        if (set == null) {
+            throw new IllegalArgumentException("Unknown mapping set: " + name);
+        }
+        synchronized (set) {
+            long checksum = MappingSnapshot.checksum(set.file);
+            if (checksum == set.checksum) {
+                return false;
+            }
+            JsonToXmlEngine engine;
+            try {
+                engine = engineFactory.apply(loadPlan(set.file));
+            } catch (Exception e) {
+                set.failures.incrementAndGet();
+                throw e;
+            }
+            set.checksum = checksum;
+            set.engine.set(engine);
+            set.reloads.incrementAndGet();
+            return true;
+        }
+    }
+
+    // Unlike MappingGenerator.readMappingsFromCsv, rows left out of the tree fail the load
+    private static MappingPlan loadPlan(Path file) throws Exception {
+        MappingTreeBuilder.Result result = MappingGenerator.readMappingTreeFromCsv(file.toString());
+        if (!result.getUnresolved().isEmpty()) {
+            throw new IllegalStateException(result.getUnresolved().size() + " of " + result.getRowCount()
+                    + " mappings in " + file + " could not be linked to the top level, first " + result.getUnresolved().get(0).getXPath());
+        }
+        if (result.getRoots().isEmpty()) {
+            throw new IllegalStateException("No mappings in " + file);
+        }
+        return MappingPlan.compile(result.getRoots());
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        reloader.shutdownNow();
+    }
+
+    private void watchLoop() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                List<MappingSet> watched = setsByDirectory.getOrDefault(directory, List.of());
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // After an overflow any file of the directory may have changed
+                    Path changed = event.kind() == StandardWatchEventKinds.OVERFLOW ? null : directory.resolve((Path) event.context());
+                    for (MappingSet set : watched) {
+                        if (changed == null || set.file.equals(changed)) {
+                            scheduleReload(set);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    // Editors write a file in several steps; one reload runs once the events stop for settleDelay
+    private void scheduleReload(MappingSet set) {
+        set.lastEvent = System.nanoTime();
+        if (set.reloadPending.compareAndSet(false, true)) {
+            reloader.schedule(() -> reloadWhenQuiet(set), settleMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reloadWhenQuiet(MappingSet set) {
+        long quietFor = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - set.lastEvent);
+        if (quietFor < settleMillis) {
+            reloader.schedule(() -> reloadWhenQuiet(set), settleMillis - quietFor, TimeUnit.MILLISECONDS);
+            return;
+        }
+        set.reloadPending.set(false);
+        try {
+            if (reload(set.name)) {
+                LOGGER.info("Reloaded mapping set {} from {}", set.name, set.file);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Reloading mapping set {} from {} failed, keeping the previous mappings", set.name, set.file, e);
+        }
+    }
+
+    private static final class MappingSet {
+        final String name;
+        final Path file;
+        final AtomicReference<JsonToXmlEngine> engine = new AtomicReference<>();
+        final AtomicBoolean reloadPending = new AtomicBoolean();
+        final AtomicInteger reloads = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long lastEvent;
+        long checksum; // of the loaded file, guarded by the set's monitor
+
+        MappingSet(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    public static final class Builder {
+        private Function<MappingPlan, JsonToXmlEngine> engineFactory = plan -> JsonToXmlEngine.builder(plan).build();
+        private Duration settleDelay = Duration.ofMillis(200);
+
+        private Builder() {}
+
+        // Builds the engine for each loaded plan, e.g. to set the input mode or parallel lists
+        public Builder engineFactory(Function<MappingPlan, JsonToXmlEngine> engineFactory) {
+            if (engineFactory == null) {
+                throw new IllegalArgumentException("Engine factory cannot be null.");
+            }
+            this.engineFactory = engineFactory;
+            return this;
+        }
+
+        // How long a file must be unchanged before it is reloaded
+        public Builder settleDelay(Duration settleDelay) {
+            if (settleDelay == null || settleDelay.isNegative()) {
+                throw new IllegalArgumentException("Settle delay cannot be negative.");
+            }
+            this.settleDelay = settleDelay;
+            return this;
+        }
+
+        // Starts the watcher thread
+        public MappingRegistry build() throws IOException {
+            return new MappingRegistry(this);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.rutz.registry;
+
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.MappingSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiled mapping plans of many tenants or formats, loaded on first use and evicted by estimated size.
+ * <p>
+ * A hit is a map lookup and a volatile write of the access time, without locks. Concurrent misses on one key
+ * share a single load: the first caller runs the {@link PlanLoader} and the others wait for its result. A
+ * failed load is not cached, the next request tries again.
+ * <p>
+ * Plans are weighed with {@link MappingPlan#getEstimatedSize()}, which includes compiled expressions. When the
+ * total exceeds {@code maxWeight}, the least recently used plans are evicted; finding them scans the entries,
+ * which is cheap for the hundreds of formats a cache holds and only happens when a plan is loaded. A plan larger
+ * than {@code maxWeight} on its own is still returned and stays until the next load. Transforms already
+ * holding an evicted plan are not affected.
+ */
+public final class PlanCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlanCache.class);
+
+    // Loads the plan of one key
+    @FunctionalInterface
+    public interface PlanLoader {
+        MappingPlan load(String key) throws Exception;
+    }
+
+    private final PlanLoader loader;
+    private final long maxWeight;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong weight = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private PlanCache(Builder builder) {
+        this.loader = builder.loader;
+        this.maxWeight = builder.maxWeight;
+    }
+
+    public static Builder builder(PlanLoader loader) {
+        return new Builder(loader);
+    }
+
+    /**
+     * Loads {@code <key>.csv} from the directory. Keys may only contain letters, digits, '.', '_' and '-',
+     * so a key cannot name a file outside it.
+     */
+    public static PlanLoader csvLoader(Path csvDirectory) {
+        return key -> MappingPlan.compile(MappingGenerator.readMappingsFromCsv(csvFile(csvDirectory, key).toString()));
+    }
+
+    // Like csvLoader, through a MappingSnapshot per key in the snapshot directory
+    public static PlanLoader snapshotLoader(Path csvDirectory, Path snapshotDirectory) {
+        return key -> MappingSnapshot.loadOrCompile(csvFile(csvDirectory, key), snapshotDirectory.resolve(key + ".snapshot"));
+    }
+
+    private static Path csvFile(Path csvDirectory, String key) {
+        if (!key.matches("[A-Za-z0-9._-]+") || key.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid mapping key: " + key);
+        }
+        return csvDirectory.resolve(key + ".csv");
+    }
+
+    /**
+     * Returns the plan of a key, loading it if it is not cached.
+     *
+     * @throws Exception The loader's failure, also for callers that waited on another caller's load.
+     */
+    public MappingPlan get(String key) throws Exception {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.plan.isDone() && !entry.plan.isCompletedExceptionally()) {
+            hits.increment();
+            entry.lastAccess = clock.incrementAndGet();
+            return entry.plan.join();
+        }
+
+        Entry created = new Entry();
+        entry = entries.putIfAbsent(key, created);
+        if (entry == null) {
+            misses.increment();
+            load(key, created);
+            entry = created;
+        } else {
+            // Waiting for a load that is in progress counts as a hit
+            hits.increment();
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        try {
+            return entry.plan.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    // Cached plan of a key, without loading it
+    public MappingPlan getIfPresent(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.plan.isDone() || entry.plan.isCompletedExceptionally()) {
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.plan.join();
+    }
+
+    public void invalidate(String key) {
+        remove(key, null);
+    }
+
+    public void invalidateAll() {
+        for (String key : entries.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), loadFailures.sum(), loadNanos.sum(), evictions.sum(), entries.size(), weight.get());
+    }
+
+    private void load(String key, Entry entry) {
+        long start = System.nanoTime();
+        MappingPlan plan;
+        try {
+            plan = loader.load(key);
+            if (plan == null) {
+                throw new IllegalStateException("Loader returned no plan for " + key);
+            }
+        } catch (Throwable t) {
+            loadNanos.add(System.nanoTime() - start);
+            loadFailures.increment();
+            entries.remove(key, entry);
+            entry.plan.completeExceptionally(t);
+            return;
+        }
+        loadNanos.add(System.nanoTime() - start);
+        entry.lastAccess = clock.incrementAndGet();
+        // Counted only while the entry is still cached, under its key's lock like the removal, so an
+        // invalidation during the load subtracts either nothing or exactly what was added
+        entries.computeIfPresent(key, (k, current) -> {
+            if (current == entry) {
+                entry.weight = plan.getEstimatedSize();
+                weight.addAndGet(entry.weight);
+            }
+            return current;
+        });
+        entry.plan.complete(plan);
+        evict(key);
+    }
+
+    // Removes least recently used loaded plans until the total fits, sparing the one just loaded
+    private void evict(String loadedKey) {
+        synchronized (evictionLock) {
+            while (weight.get() > maxWeight) {
+                String oldestKey = null;
+                Entry oldest = null;
+                for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                    Entry entry = candidate.getValue();
+                    if (!candidate.getKey().equals(loadedKey) && entry.plan.isDone()
+                            && (oldest == null || entry.lastAccess < oldest.lastAccess)) {
+                        oldestKey = candidate.getKey();
+                        oldest = entry;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                if (remove(oldestKey, oldest)) {
+                    evictions.increment();
+                    LOGGER.debug("Evicted mapping plan {} ({} bytes)", oldestKey, oldest.weight);
+                }
+            }
+        }
+    }
+
+    // Removes the key's entry, or only the expected one if given, and subtracts its weight under the key's lock
+    private boolean remove(String key, Entry expected) {
+        boolean[] removed = new boolean[1];
+        entries.computeIfPresent(key, (k, current) -> {
+            if (expected != null && current != expected) {
+                return current;
+            }
+            weight.addAndGet(-current.weight);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private static final class Entry {
+        final CompletableFuture<MappingPlan> plan = new CompletableFuture<>();
+        volatile long lastAccess;
+        volatile long weight;
+    }
+
+    /**
+     * Counters since the cache was built, and its current size.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long loadFailures;
+        private final long loadNanos;
+        private final long evictions;
+        private final int size;
+        private final long weight;
+
+        Stats(long hits, long misses, long loadFailures, long loadNanos, long evictions, int size, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loadFailures = loadFailures;
+            this.loadNanos = loadNanos;
+            this.evictions = evictions;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHits() { return hits; }
+
+        // Requests that started a load
+        public long getMisses() { return misses; }
+
+        public long getLoadFailures() { return loadFailures; }
+
+        // Time spent in the loader, successful or not
+        public long getTotalLoadNanos() { return loadNanos; }
+
+        public double getAverageLoadMillis() {
+            return misses == 0 ? 0 : loadNanos / 1e6 / misses;
+        }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1 : (double) hits / requests;
+        }
+
+        public long getEvictions() { return evictions; }
+
+        // Plans cached or being loaded
+        public int getSize() { return size; }
+
+        // Estimated bytes of the cached plans
+        public long getWeight() { return weight; }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, hitRate=%.3f, loadFailures=%d, averageLoadMillis=%.1f, evictions=%d, size=%d, weight=%d",
+                    hits, misses, getHitRate(), loadFailures, getAverageLoadMillis(), evictions, size, weight);
+        }
+    }
+
+    public static final class Builder {
+        private final PlanLoader loader;
+        private long maxWeight = 256L * 1024 * 1024;
+
+        private Builder(PlanLoader loader) {
+            if (loader == null) {
+                throw new IllegalArgumentException("Plan loader cannot be null.");
+            }
+            this.loader = loader;
+        }
+
+        // Estimated bytes of plans to keep, 256 MB by default
+        public Builder maxWeight(long maxWeight) {
+            if (maxWeight < 0) {
+                throw new IllegalArgumentException("Maximum weight cannot be negative: " + maxWeight);
+            }
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        public PlanCache build() {
+            return new PlanCache(this);
+        }
+    }
+}
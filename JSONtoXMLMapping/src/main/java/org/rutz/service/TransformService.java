@@ -0,0 +1,228 @@
+package org.rutz.service;
+
+import org.rutz.JsonToXmlEngine;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service-facing front end of a {@link JsonToXmlEngine} for callers that block on I/O while a transform runs.
+ * <p>
+ * Each {@link #submit(InputStream, OutputStream)} runs on its own virtual thread when the runtime has them
+ * (Java 21+), so tens of thousands of transforms can wait on their streams without a large platform-thread
+ * pool. The project still targets Java 17, so virtual threads are looked up at runtime; on older runtimes
+ * a fixed pool of platform threads is used instead.
+ * <p>
+ * Two limits apply: {@code maxConcurrent} transforms run at the same time and the others wait on a
+ * {@link Semaphore}, which parks a virtual thread without pinning its carrier; beyond {@code maxInFlight}
+ * accepted transforms, new submissions are rejected.
+ * <p>
+ * The engine's transform paths hold no monitors: buffers come from a lock-free pool, JEXL's expression
+ * cache uses a read-write lock, and node events go to the lock-free buffer of
+ * {@link org.rutz.trace.TraceRecorder}, whose drainer thread is the only one calling the logback appenders.
+ */
+public final class TransformService implements AutoCloseable {
+
+    // Which threads run the transforms
+    public enum ThreadMode {
+        AUTO,     // virtual threads if the runtime has them, else platform threads
+        VIRTUAL,  // virtual threads; fails on runtimes before Java 21
+        PLATFORM  // a fixed pool of platformThreads
+    }
+
+    private static final AtomicInteger SERVICE_COUNTER = new AtomicInteger();
+
+    private final JsonToXmlEngine engine;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Semaphore running;
+    private final int maxConcurrent;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private TransformService(Builder builder) {
+        this.engine = builder.engine;
+        this.maxConcurrent = builder.maxConcurrent;
+        this.maxInFlight = builder.maxInFlight;
+        this.running = new Semaphore(builder.maxConcurrent);
+
+        ExecutorService virtualExecutor = builder.threadMode == ThreadMode.PLATFORM ? null : newVirtualThreadExecutor();
+        if (virtualExecutor == null && builder.threadMode == ThreadMode.VIRTUAL) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on " + Runtime.version());
+        }
+        this.virtualThreads = virtualExecutor != null;
+        this.executor = virtualExecutor != null ? virtualExecutor
+                : Executors.newFixedThreadPool(builder.platformThreads, new PlatformThreadFactory());
+    }
+
+    public static Builder builder(JsonToXmlEngine engine) {
+        return new Builder(engine);
+    }
+
+    /**
+     * Transforms the JSON from the input into the sink. Neither stream is closed; the sink is flushed
+     * before the future completes.
+     *
+     * @param input The JSON input.
+     * @param sink  The XML output.
+     * @return Completes when the XML is written, or exceptionally with the failure. Completes with a
+     * {@link RejectedExecutionException} if {@code maxInFlight} transforms are already accepted.
+     */
+    public CompletableFuture<Void> submit(InputStream input, OutputStream sink) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException("More than " + maxInFlight + " transforms in flight"));
+            return result;
+        }
+        try {
+            executor.execute(() -> run(input, sink, result));
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void run(InputStream input, OutputStream sink, CompletableFuture<Void> result) {
+        Throwable failure = null;
+        try {
+            running.acquire();
+            try {
+                engine.transform(input, sink);
+            } finally {
+                running.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        // Free the slot first, so a caller reacting to the future can submit again
+        inFlight.decrementAndGet();
+        if (failure == null) {
+            result.complete(null);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Transforms accepted and not yet completed, running or waiting for a permit
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Stops accepting transforms and waits for the accepted ones to finish. If the calling thread is
+     * interrupted, it stops waiting and returns with its interrupt status set; the accepted transforms
+     * still run to the end.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting; accepted transforms are never dropped
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() on Java 21+, looked up so the code still compiles for Java 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create the virtual thread executor", e);
+        }
+    }
+
+    private static final class PlatformThreadFactory implements ThreadFactory {
+        private final int service = SERVICE_COUNTER.incrementAndGet();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "transform-" + service + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static final class Builder {
+        private final JsonToXmlEngine engine;
+        private ThreadMode threadMode = ThreadMode.AUTO;
+        private int maxConcurrent = 10_000;
+        private int maxInFlight = 50_000;
+        private int platformThreads = 4 * Runtime.getRuntime().availableProcessors();
+
+        private Builder(JsonToXmlEngine engine) {
+            if (engine == null) {
+                throw new IllegalArgumentException("Engine cannot be null.");
+            }
+            this.engine = engine;
+        }
+
+        public Builder threadMode(ThreadMode threadMode) {
+            this.threadMode = threadMode;
+            return this;
+        }
+
+        // Transforms that run at the same time; the others wait without holding a platform thread
+        public Builder maxConcurrent(int maxConcurrent) {
+            if (maxConcurrent < 1) {
+                throw new IllegalArgumentException("Max concurrent must be positive: " + maxConcurrent);
+            }
+            this.maxConcurrent = maxConcurrent;
+            return this;
+        }
+
+        // Transforms accepted at the same time, running or waiting; further submissions are rejected
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("Max in flight must be positive: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        // Pool size when virtual threads are not used
+        public Builder platformThreads(int platformThreads) {
+            if (platformThreads < 1) {
+                throw new IllegalArgumentException("Platform threads must be positive: " + platformThreads);
+            }
+            this.platformThreads = platformThreads;
+            return this;
+        }
+
+        public TransformService build() {
+            return new TransformService(this);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.rutz.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampled trace of mapping and node events, for diagnosing a transform without logging on the hot path.
+ * <p>
+ * Tracing is off by default; {@link #record(Event, String, String, long)} then reads one volatile field and
+ * returns. Once {@link #start(int, int) started}, one in {@code sampleRate} events is copied into a bounded
+ * ring buffer: a producer claims a slot with a compare-and-set on the tail sequence, writes the event's
+ * fields and publishes the slot by storing its sequence. A daemon thread drains the published slots in order
+ * and logs them to the {@value #LOGGER_NAME} SLF4J logger, so formatting and appender I/O happen off the
+ * transforming threads. When the buffer is full, events are dropped and counted rather than waited for.
+ * <p>
+ * The system property {@value #SAMPLE_RATE_PROPERTY} starts tracing when the class is loaded, and
+ * {@value #CAPACITY_PROPERTY} sets the buffer size, e.g. {@code -Dorg.rutz.trace.sampleRate=100}.
+ */
+public final class TraceRecorder {
+
+    public static final String LOGGER_NAME = "org.rutz.trace";
+    public static final String SAMPLE_RATE_PROPERTY = "org.rutz.trace.sampleRate";
+    public static final String CAPACITY_PROPERTY = "org.rutz.trace.capacity";
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LOGGER_NAME);
+    private static final long DRAIN_INTERVAL_NANOS = 10_000_000L;
+
+    // The recorder events go to, null while tracing is off
+    private static volatile TraceRecorder active;
+
+    // What happened at a node
+    public enum Event {
+        MISSING_NODE,    // the mapping's jPath does not resolve, nothing is written
+        ARRAY,           // a list mapping matched an array; the value is its size
+        EMPTY_LIST_ITEM, // a list item without content was skipped
+        EMPTY_OBJECT     // an object element without content was skipped
+    }
+
+    private final int sampleRate;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+
+    // One slot per index; published holds the sequence last written to the slot, -1 before the first
+    private final Event[] events;
+    private final String[] elements;
+    private final String[] paths;
+    private final long[] values;
+    private final long[] times;
+    private final String[] threads;
+    private final AtomicLongArray published;
+
+    private final AtomicLong tail = new AtomicLong(); // next sequence to claim
+    private volatile long head;                       // next sequence to drain
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    static {
+        int sampleRate = Integer.getInteger(SAMPLE_RATE_PROPERTY, 0);
+        if (sampleRate > 0) {
+            start(sampleRate, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+        }
+    }
+
+    private TraceRecorder(int sampleRate, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.sampleRate = sampleRate;
+        this.mask = size - 1;
+        this.events = new Event[size];
+        this.elements = new String[size];
+        this.paths = new String[size];
+        this.values = new long[size];
+        this.times = new long[size];
+        this.threads = new String[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.drainer = new Thread(this::drainLoop, "trace-drainer");
+        this.drainer.setDaemon(true);
+    }
+
+    /**
+     * Starts tracing, replacing the recorder that is active.
+     *
+     * @param sampleRate Record one in this many events; 1 records all of them.
+     * @param capacity   Events buffered before new ones are dropped, rounded up to a power of two.
+     * @return The recorder, for its counters.
+     */
+    public static synchronized TraceRecorder start(int sampleRate, int capacity) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        }
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        stop();
+        TraceRecorder recorder = new TraceRecorder(sampleRate, capacity);
+        recorder.drainer.start();
+        active = recorder;
+        return recorder;
+    }
+
+    /**
+     * Stops tracing and logs the events still buffered. Events recorded by threads that read the recorder
+     * just before it was stopped may be lost.
+     */
+    public static synchronized void stop() {
+        TraceRecorder recorder = active;
+        if (recorder == null) {
+            return;
+        }
+        active = null;
+        recorder.running = false;
+        LockSupport.unpark(recorder.drainer);
+        try {
+            recorder.drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recorder.drain();
+        long dropped = recorder.getDropped();
+        if (dropped > 0) {
+            LOGGER.warn("Trace buffer was full, {} sampled events were dropped", dropped);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return active != null;
+    }
+
+    /**
+     * Records an event if tracing is on and the event is sampled. Allocates nothing.
+     *
+     * @param event   What happened.
+     * @param element The XML element name.
+     * @param path    The mapping's jPath.
+     * @param value   A number describing the event, e.g. the array size.
+     */
+    public static void record(Event event, String element, String path, long value) {
+        TraceRecorder recorder = active;
+        if (recorder != null) {
+            recorder.offer(event, element, path, value);
+        }
+    }
+
+    private void offer(Event event, String element, String path, long value) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        events[slot] = event;
+        elements[slot] = element;
+        paths[slot] = path;
+        values[slot] = value;
+        times[slot] = System.nanoTime() - startNanos;
+        threads[slot] = Thread.currentThread().getName();
+        // Release: the drainer sees the fields once it sees the sequence
+        published.lazySet(slot, sequence);
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            }
+        }
+    }
+
+    // Logs the published events in sequence order; only the drainer thread, or stop() after it ended, calls this
+    private int drain() {
+        int drained = 0;
+        long sequence = head;
+        int slot = (int) sequence & mask;
+        while (published.get(slot) == sequence) {
+            Event event = events[slot];
+            String element = elements[slot];
+            String path = paths[slot];
+            long value = values[slot];
+            long micros = times[slot] / 1000;
+            String thread = threads[slot];
+            elements[slot] = null;
+            paths[slot] = null;
+            threads[slot] = null;
+            // Frees the slot for producers
+            head = ++sequence;
+
+            LOGGER.info("+{}us [{}] {} element={} jPath={} value={}", micros, thread, event, element, path, value);
+            drained++;
+            slot = (int) sequence & mask;
+        }
+        return drained;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    // Sampled events that were put into the buffer
+    public long getRecorded() {
+        return tail.get();
+    }
+
+    // Sampled events dropped because the buffer was full
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,253 @@
+package org.rutz.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File output stream that writes on its own I/O thread, so producing the output and writing it to disk overlap.
+ * <p>
+ * The stream owns {@code bufferCount} direct buffers. The writing thread fills one while the I/O thread
+ * writes the full ones to a {@link FileChannel} in order; with the default of two this is double buffering.
+ * The writing thread only blocks when every buffer is full or being written, and the time it spends waiting,
+ * including the final write and the optional fsync in {@link #close()}, is reported by {@link #getIoWaitNanos()}.
+ * <p>
+ * Not safe for use by more than one writing thread. {@link #flush()} does not write anything, since handing
+ * off partial buffers would defeat the batching; everything is written, and forced to disk if requested,
+ * when the stream is closed. A write failure on the I/O thread is thrown by the next write or by close.
+ */
+public final class AsyncFileOutputStream extends OutputStream {
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final Thread ioThread;
+    private ByteBuffer current;
+    private boolean closed;
+    private long ioWaitNanos;
+
+    // Written by the I/O thread
+    private volatile Throwable failure;
+    private volatile long bytesWritten;
+    private volatile long writeNanos;
+
+    private AsyncFileOutputStream(Builder builder) throws IOException {
+        this.channel = FileChannel.open(builder.file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.fsync = builder.fsync;
+        this.free = new ArrayBlockingQueue<>(builder.bufferCount);
+        this.filled = new ArrayBlockingQueue<>(builder.bufferCount + 1);
+        this.current = ByteBuffer.allocateDirect(builder.bufferSize);
+        for (int i = 1; i < builder.bufferCount; i++) {
+            free.add(ByteBuffer.allocateDirect(builder.bufferSize));
+        }
+        this.ioThread = new Thread(this::writeLoop, "async-output-" + THREAD_COUNTER.incrementAndGet());
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    public static Builder builder(Path file) {
+        return new Builder(file);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!current.hasRemaining()) {
+            handOff();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                handOff();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Buffers are only written when full or on close
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        checkFailure();
+    }
+
+    /**
+     * Writes the remaining output, waits for the I/O thread, forces the file to disk if fsync was requested
+     * and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long start = System.nanoTime();
+        try {
+            current.flip();
+            if (current.hasRemaining()) {
+                filled.add(current);
+            }
+            current = null;
+            filled.add(END);
+            ioThread.join();
+            checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the output to be written");
+        } finally {
+            ioWaitNanos += System.nanoTime() - start;
+            channel.close();
+        }
+    }
+
+    // Time the writing thread was blocked waiting for a free buffer or, in close, for the output to be written
+    public long getIoWaitNanos() {
+        return ioWaitNanos;
+    }
+
+    // Time the I/O thread spent writing and forcing the file
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    // Bytes the I/O thread has written to the file
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void handOff() throws IOException {
+        checkFailure();
+        current.flip();
+        filled.add(current);
+        ByteBuffer next = free.poll();
+        if (next == null) {
+            long start = System.nanoTime();
+            try {
+                next = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                current = null;
+                closed = true;
+                filled.add(END);
+                channel.close();
+                throw new InterruptedIOException("Interrupted while waiting for a free output buffer");
+            } finally {
+                ioWaitNanos += System.nanoTime() - start;
+            }
+        }
+        current = next;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = filled.take();
+                if (buffer == END) {
+                    break;
+                }
+                // After a failure buffers are only recycled, so the writing thread does not block forever
+                if (failure == null) {
+                    write(buffer);
+                }
+                buffer.clear();
+                free.add(buffer);
+            }
+            if (fsync && failure == null) {
+                long start = System.nanoTime();
+                channel.force(true);
+                writeNanos += System.nanoTime() - start;
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    private void write(ByteBuffer buffer) {
+        long start = System.nanoTime();
+        try {
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            bytesWritten += length;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        writeNanos += System.nanoTime() - start;
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            throw t instanceof IOException ? (IOException) t : new IOException("Writing the output failed", t);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    public static final class Builder {
+        private final Path file;
+        private int bufferSize = 1024 * 1024;
+        private int bufferCount = 2;
+        private boolean fsync;
+
+        private Builder(Path file) {
+            if (file == null) {
+                throw new IllegalArgumentException("Output file cannot be null.");
+            }
+            this.file = file;
+        }
+
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        // Buffers in rotation, at least two: one being filled while the others are written
+        public Builder bufferCount(int bufferCount) {
+            if (bufferCount < 2) {
+                throw new IllegalArgumentException("Buffer count must be at least 2: " + bufferCount);
+            }
+            this.bufferCount = bufferCount;
+            return this;
+        }
+
+        // Force the file to disk before close returns
+        public Builder fsync(boolean fsync) {
+            this.fsync = fsync;
+            return this;
+        }
+
+        // Creates or truncates the file and starts the I/O thread
+        public AsyncFileOutputStream build() throws IOException {
+            return new AsyncFileOutputStream(this);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.rutz.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Input stream over a memory-mapped file, so reading a large file copies straight from the page cache
+ * into the reader's buffer instead of through a file stream's intermediate buffer.
+ * <p>
+ * The file is mapped in regions of at most 1 GB, one at a time, so files over 2 GB work too.
+ * A region stays mapped until it is garbage collected, which the JDK offers no way to force.
+ * Not safe for concurrent use.
+ */
+public final class MappedFileInputStream extends InputStream {
+
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private long mappedUpTo; // file offset after the current region
+    private MappedByteBuffer region;
+
+    public MappedFileInputStream(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureRegion()) {
+            return -1;
+        }
+        return region.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureRegion()) {
+            return -1;
+        }
+        int n = Math.min(len, region.remaining());
+        region.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureRegion()) {
+            int step = (int) Math.min(n - skipped, region.remaining());
+            region.position(region.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        long remaining = (region != null ? region.remaining() : 0) + size - mappedUpTo;
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+
+    // Maps the next region once the current one is used up; false at the end of the file
+    private boolean ensureRegion() throws IOException {
+        if (region != null && region.hasRemaining()) {
+            return true;
+        }
+        if (!channel.isOpen()) {
+            throw new IOException("Stream closed");
+        }
+        if (mappedUpTo >= size) {
+            return false;
+        }
+        long length = Math.min(MAX_REGION_SIZE, size - mappedUpTo);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, mappedUpTo, length);
+        mappedUpTo += length;
+        return true;
+    }
+}
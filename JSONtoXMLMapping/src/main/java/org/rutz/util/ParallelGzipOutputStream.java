@@ -0,0 +1,291 @@
+package org.rutz.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that compresses fixed-size blocks concurrently, in the manner of pigz.
+ * <p>
+ * Written bytes are collected into blocks of {@code blockSize}. Each full block is deflated on the
+ * executor with the last 32 KB of the previous block as its dictionary and ends with a sync flush, so the
+ * compressed blocks, written to the target in their original order, form one deflate stream. The result is
+ * a single-member gzip file any gzip reader accepts, compressed almost as well as by {@link java.util.zip.GZIPOutputStream}.
+ * The CRC is computed on the writing thread. At most {@code maxBlocksInFlight} blocks are being compressed
+ * or waiting to be written, which bounds memory.
+ * <p>
+ * Not safe for use by more than one writing thread. {@link #close()} finishes the gzip stream and closes the
+ * target; {@link #finish()} finishes it and leaves the target open.
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final Executor executor;
+    private final int maxBlocksInFlight;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<CompletableFuture<Block>> inFlight = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+    private int count;
+    private byte[] previous; // the last submitted block, the dictionary of the next one
+    private int previousLength;
+    private long totalIn;
+    private boolean finished;
+    private boolean closed;
+
+    private ParallelGzipOutputStream(Builder builder) throws IOException {
+        this.out = builder.out;
+        this.level = builder.level;
+        this.blockSize = builder.blockSize;
+        this.executor = builder.executor;
+        this.maxBlocksInFlight = builder.maxBlocksInFlight;
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    public static Builder builder(OutputStream out) {
+        return new Builder(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == blockSize) {
+            submit(false);
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == blockSize) {
+                submit(false);
+            }
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Writes the blocks compressed so far; the block being filled stays until it is full
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining data and writes the end of the gzip stream, leaving the target open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        ensureOpen();
+        finished = true;
+        try {
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeNext();
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) totalIn);
+            out.flush();
+        } finally {
+            cancel();
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        if (inFlight.size() >= maxBlocksInFlight) {
+            writeNext();
+        }
+        byte[] input = block;
+        int length = count;
+        byte[] dictionary = previous;
+        int dictionaryLength = Math.min(previousLength, DICTIONARY_SIZE);
+        int dictionaryOffset = previousLength - dictionaryLength;
+        crc.update(input, 0, length);
+        totalIn += length;
+        inFlight.add(CompletableFuture.supplyAsync(
+                () -> compress(input, length, dictionary, dictionaryOffset, dictionaryLength, last), executor));
+
+        previous = input;
+        previousLength = length;
+        block = last ? null : new byte[blockSize];
+        count = 0;
+    }
+
+    // Deflates one block, with the tail of the previous block as its dictionary
+    private Block compress(byte[] input, int length, byte[] dictionary, int dictionaryOffset, int dictionaryLength,
+                           boolean last) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(dictionary, dictionaryOffset, dictionaryLength);
+            }
+            deflater.setInput(input, 0, length);
+            byte[] output = new byte[length + (length >> 7) + 64];
+            int size = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (size == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    size += deflater.deflate(output, size, output.length - size);
+                }
+            } else {
+                // A sync flush is complete once it leaves room in the output
+                while (true) {
+                    size += deflater.deflate(output, size, output.length - size, Deflater.SYNC_FLUSH);
+                    if (size < output.length) {
+                        break;
+                    }
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+            }
+            return new Block(output, size);
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Block compressed;
+        try {
+            compressed = inFlight.poll().join();
+        } catch (CompletionException e) {
+            throw new IOException("Compressing a block failed", e.getCause());
+        }
+        out.write(compressed.data, 0, compressed.length);
+    }
+
+    private void cancel() {
+        for (CompletableFuture<Block> future : inFlight) {
+            future.cancel(false);
+        }
+        inFlight.clear();
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished || closed) {
+            throw new IOException("Stream finished");
+        }
+    }
+
+    private static final class Block {
+        final byte[] data;
+        final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    public static final class Builder {
+        private final OutputStream out;
+        private int blockSize = 128 * 1024;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private Executor executor = ForkJoinPool.commonPool();
+        private int maxBlocksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+        private Builder(OutputStream out) {
+            if (out == null) {
+                throw new IllegalArgumentException("Output stream cannot be null.");
+            }
+            this.out = out;
+        }
+
+        // Uncompressed bytes per block, at least 32 KB so every block is a full dictionary for the next
+        public Builder blockSize(int blockSize) {
+            if (blockSize < DICTIONARY_SIZE) {
+                throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE + ": " + blockSize);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        // Deflater level, 0 to 9 or -1 for the default
+        public Builder level(int level) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Compression level must be between -1 and 9: " + level);
+            }
+            this.level = level;
+            return this;
+        }
+
+        // Runs the block compression, by default the common ForkJoinPool
+        public Builder executor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("Executor cannot be null.");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        // Blocks being compressed or waiting to be written at the same time
+        public Builder maxBlocksInFlight(int maxBlocksInFlight) {
+            if (maxBlocksInFlight < 1) {
+                throw new IllegalArgumentException("Blocks in flight must be positive: " + maxBlocksInFlight);
+            }
+            this.maxBlocksInFlight = maxBlocksInFlight;
+            return this;
+        }
+
+        // Writes the gzip header to the target
+        public ParallelGzipOutputStream build() throws IOException {
+            return new ParallelGzipOutputStream(this);
+        }
+    }
+}
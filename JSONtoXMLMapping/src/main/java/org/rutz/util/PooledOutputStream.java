@@ -0,0 +1,79 @@
+package org.rutz.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Unsynchronized buffered output stream backed by a buffer borrowed from a {@link BufferPool}.
+ * Closing it flushes, hands the buffer back to the pool and leaves the target stream open.
+ */
+public final class PooledOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final BufferPool pool;
+    private byte[] buffer;
+    private int count;
+    private long bytesWritten;
+
+    public PooledOutputStream(OutputStream out, BufferPool pool) {
+        this.out = out;
+        this.pool = pool;
+        this.buffer = pool.acquire();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // Large writes bypass the buffer
+            flushBuffer();
+            out.write(b, off, len);
+            bytesWritten += len;
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    // Bytes passed on to the underlying stream so far
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            bytesWritten += count;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.util.AsyncFileOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncFileOutputStreamTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesEverythingInOrder() throws Exception {
+        Random random = new Random(7);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Path file = tempDir.resolve("out.bin");
+
+        AsyncFileOutputStream out = AsyncFileOutputStream.builder(file).bufferSize(100).bufferCount(3).fsync(true).build();
+        try (out) {
+            for (int i = 0; i < 2000; i++) {
+                byte[] chunk = new byte[random.nextInt(250)];
+                random.nextBytes(chunk);
+                if (i % 3 == 0) {
+                    out.write(chunk.length);
+                    expected.write(chunk.length);
+                }
+                out.write(chunk, 0, chunk.length);
+                expected.write(chunk, 0, chunk.length);
+                out.flush();
+            }
+        }
+
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file));
+        assertEquals(expected.size(), out.getBytesWritten());
+        assertTrue(out.getIoWaitNanos() > 0);
+        assertThrows(IOException.class, () -> out.write(1));
+    }
+
+    @Test
+    void transformsIntoTheFile() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        String json = Files.readString(Paths.get("src/main/resources/data1.json"));
+        Path reference = tempDir.resolve("reference.xml");
+        JsonToXmlSteam.transformJsonToXml(json, plan, reference.toString());
+
+        Path async = tempDir.resolve("async.xml");
+        try (AsyncFileOutputStream out = AsyncFileOutputStream.builder(async).bufferSize(64).build()) {
+            JsonToXmlSteam.transformJsonToXml(json, plan, out, EmptyElementMode.DEFERRED);
+        }
+        assertEquals(Files.readString(reference), Files.readString(async, StandardCharsets.UTF_8));
+
+        Path engineOutput = tempDir.resolve("engine.xml");
+        JsonToXmlEngine.builder(plan).asyncFileOutput(128, 4, false).build()
+                .transform(Paths.get("src/main/resources/data1.json"), engineOutput);
+        assertEquals(Files.readString(reference), Files.readString(engineOutput, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        AsyncFileOutputStream.Builder builder = AsyncFileOutputStream.builder(tempDir.resolve("out.bin"));
+
+        assertThrows(IllegalArgumentException.class, () -> builder.bufferCount(1));
+        assertThrows(IllegalArgumentException.class, () -> builder.bufferSize(0));
+        assertThrows(IllegalArgumentException.class, () -> JsonToXmlEngine.builder(MappingPlan.compile(List.of()))
+                .asyncFileOutput(1024, 1, false));
+    }
+}
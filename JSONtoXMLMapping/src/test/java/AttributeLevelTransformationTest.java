@@ -5,7 +5,12 @@ import org.junit.jupiter.params.provider.CsvSource;
 import org.rutz.AttributeLevelTransformation;
 import org.rutz.AttributeLevelTransformationException;
 import org.rutz.DataTypeTransformationException;
+import org.rutz.ExpressionEvaluator;
 import org.rutz.Mapping;
+import org.rutz.MappingPlan;
+import org.rutz.ValueTransformer;
+
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -57,4 +62,37 @@ class AttributeLevelTransformationTest {
             AttributeLevelTransformation.transform("10", mapping);
         });
     }
+
+    @Test
+    void emptyExpressionReturnsValue() throws Exception {
+        Mapping mapping = new Mapping("$.name", "Name", false, "String", "String", "", "Default", "Root", 0);
+
+        assertEquals("Alice", AttributeLevelTransformation.transform("Alice", mapping));
+    }
+
+    @Test
+    void precompiledExpressionIsReusable() throws Exception {
+        Mapping mapping = new Mapping("$.name", "Name", false, "String", "String", "val + '!'", "Default", "Root", 0);
+        ValueTransformer transformer = MappingPlan.compile(List.of(mapping)).getRoots().get(0).getTransformer();
+
+        assertEquals("a!", transformer.transform("a"));
+        assertEquals("b!", transformer.transform("b"));
+        assertEquals("c!", AttributeLevelTransformation.transform("c", ExpressionEvaluator.compile("val + '!'"), "String", "$.name"));
+    }
+
+    @Test
+    void assignedVariablesDoNotLeakBetweenValues() throws Exception {
+        AttributeLevelTransformation.transform("a", ExpressionEvaluator.compile("leaked = val"), "String", "$.name");
+
+        assertThrows(AttributeLevelTransformationException.class, () ->
+                AttributeLevelTransformation.transform("b", ExpressionEvaluator.compile("leaked"), "String", "$.name"));
+    }
+
+    @Test
+    void invalidExpressionFailsOnlyWhenUsed() throws Exception {
+        Mapping mapping = new Mapping("$.name", "Name", false, "String", "String", "val +", "Default", "Root", 0);
+        ValueTransformer transformer = MappingPlan.compile(List.of(mapping)).getRoots().get(0).getTransformer();
+
+        assertThrows(AttributeLevelTransformationException.class, () -> transformer.transform("a"));
+    }
 }
@@ -0,0 +1,88 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.batch.BatchOutput;
+import org.rutz.batch.BatchResult;
+import org.rutz.batch.BatchTransformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTransformerTest {
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    private static JsonToXmlEngine engine;
+    private static String compactJson;
+    private static String expected;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        engine = JsonToXmlEngine.builder(plan).build();
+        byte[] json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+        compactJson = new ObjectMapper().readTree(json).toString();
+        expected = new String(engine.transform(json), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void ndjsonToPerRecordFiles() throws Exception {
+        String ndjson = compactJson + "\n\n{not json}\n" + compactJson + "\n";
+        Path outputDir = tempDir.resolve("out");
+
+        BatchResult result = BatchTransformer.builder(engine).workers(2).queueCapacity(1).build()
+                .transformNdjson(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), BatchOutput.perRecordFiles(outputDir));
+
+        assertEquals(3, result.getRecordCount());
+        assertEquals(2, result.getSucceededCount());
+        assertEquals("3", result.getFailures().get(0).getRecordId());
+        assertEquals(expected, Files.readString(outputDir.resolve("record-1.xml")));
+        assertEquals(expected, Files.readString(outputDir.resolve("record-4.xml")));
+        assertFalse(Files.exists(outputDir.resolve("record-3.xml")));
+    }
+
+    @Test
+    void ndjsonToWrappedStreamKeepsInputOrder() throws Exception {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            ndjson.append(compactJson).append('\n');
+        }
+        ByteArrayOutputStream xmlStream = new ByteArrayOutputStream();
+
+        BatchResult result = BatchTransformer.builder(engine).workers(4).queueCapacity(2).build()
+                .transformNdjson(new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)), BatchOutput.wrapped(xmlStream, "Companies"));
+
+        String fragment = expected.substring(XML_DECLARATION.length());
+        assertEquals(XML_DECLARATION + "<Companies>" + fragment.repeat(50) + "</Companies>", xmlStream.toString(StandardCharsets.UTF_8));
+        assertEquals(0, result.getFailedCount());
+        assertTrue(result.getRecordsPerSecond() > 0);
+    }
+
+    @Test
+    void directoryOfJsonFiles() throws Exception {
+        Path inputDir = Files.createDirectory(tempDir.resolve("in"));
+        Files.copy(Paths.get("src/main/resources/data1.json"), inputDir.resolve("a.json"));
+        Files.writeString(inputDir.resolve("b.json"), "[");
+        Files.writeString(inputDir.resolve("notes.txt"), "ignored");
+        Path outputDir = tempDir.resolve("out");
+
+        BatchResult result = BatchTransformer.builder(engine).build().transformDirectory(inputDir, BatchOutput.perRecordFiles(outputDir));
+
+        assertEquals(2, result.getRecordCount());
+        assertEquals("b.json", result.getFailures().get(0).getRecordId());
+        assertEquals(expected, Files.readString(outputDir.resolve("a.xml")));
+    }
+}
@@ -0,0 +1,165 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.DeferredXmlWriter;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeferredXmlWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private StringWriter stringWriter;
+    private DeferredXmlWriter writer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stringWriter = new StringWriter();
+        writer = new DeferredXmlWriter(XMLOutputFactory.newInstance().createXMLStreamWriter(stringWriter));
+    }
+
+    @Test
+    void dropsElementClosedWithoutContent() throws Exception {
+        writer.writeSuppressibleStartElement("Customer", false);
+        writer.writeStartElement("Address");
+        writer.writeCharacters("null");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.flush();
+
+        assertEquals("", stringWriter.toString());
+    }
+
+    @Test
+    void writesHeldBackEventsOnCommit() throws Exception {
+        writer.writeSuppressibleStartElement("Customer", false);
+        writer.writeStartElement("Wrapper");
+        writer.writeEndElement();
+        writer.writeSuppressibleStartElement("Empty", false);
+        writer.writeEndElement();
+        writer.writeStartElement("Name");
+        writer.writeCharacters("Alice");
+        writer.writeEndElement();
+        writer.commit();
+        writer.writeEndElement();
+        writer.flush();
+
+        assertEquals("<Customer><Wrapper></Wrapper><Name>Alice</Name></Customer>", stringWriter.toString());
+    }
+
+    @Test
+    void isolatedElementDoesNotCommitAncestors() throws Exception {
+        writer.writeSuppressibleStartElement("Outer", false);
+        writer.writeSuppressibleStartElement("Inner", true);
+        writer.writeCharacters("x");
+        writer.commit();
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.flush();
+
+        assertEquals("", stringWriter.toString());
+    }
+
+    @Test
+    void splicesRawFragmentsInOrder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        DeferredXmlWriter rawWriter = new DeferredXmlWriter(xmlWriter, out);
+        byte[] fragment = "<Item>1</Item>".getBytes(StandardCharsets.UTF_8);
+
+        rawWriter.writeStartElement("List");
+        rawWriter.writeRaw(fragment, 0, fragment.length);
+        rawWriter.writeSuppressibleStartElement("Dropped", false);
+        rawWriter.writeRaw(fragment, 0, fragment.length);
+        rawWriter.writeEndElement();
+        rawWriter.writeSuppressibleStartElement("Kept", false);
+        rawWriter.writeRaw(fragment, 0, fragment.length);
+        rawWriter.commit();
+        rawWriter.writeEndElement();
+        rawWriter.writeEndElement();
+        rawWriter.flush();
+
+        assertEquals("<List><Item>1</Item><Kept><Item>1</Item></Kept></List>", out.toString(StandardCharsets.UTF_8));
+        assertTrue(rawWriter.hasRootContent());
+    }
+
+    @Test
+    void deferredModeMatchesScanMode() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        String json = Files.readString(Paths.get("src/main/resources/data1.json"));
+        Path scan = tempDir.resolve("scan.xml");
+        Path deferred = tempDir.resolve("deferred.xml");
+
+        JsonToXmlSteam.transformJsonToXml(json, plan, scan.toString(), EmptyElementMode.SCAN);
+        JsonToXmlSteam.transformJsonToXml(json, plan, deferred.toString(), EmptyElementMode.DEFERRED);
+
+        assertEquals(Files.readString(scan), Files.readString(deferred));
+    }
+
+    // The XML, or the failure, of one mode
+    private String outcome(String json, MappingPlan plan, EmptyElementMode mode) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            JsonToXmlSteam.transformJsonToXml(json, plan, out, mode);
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    @Test
+    void deferredModeMatchesScanModeForExpressionsAndNulls() {
+        String date = "fmfcn:convertUTCToESTDateOnly(val)";
+        Mapping doc = new Mapping("$", "Doc", false, "String", "String", "", "Default", "Root", 0);
+        doc.addChildMapping(new Mapping("$.name", "Name", false, "String", "String", "", "Default", "Doc", 0));
+        Mapping audit = new Mapping("$.audit", "Audit", false, "String", "String", "", "Default", "Doc", 1);
+        audit.addChildMapping(new Mapping("$.updated", "Updated", false, "String", "String", date, "Default", "Audit", 0));
+        audit.addChildMapping(new Mapping("$.by", "By", false, "String", "String", "", "Default", "Audit", 1));
+        doc.addChildMapping(audit);
+        Mapping events = new Mapping("$.events[*]", "Events/Event", true, "String", "String", "", "Default", "Doc", 2);
+        events.addChildMapping(new Mapping("$.at", "At", false, "String", "String", date, "Default", "Events/Event", 0));
+        Mapping detail = new Mapping("$.detail", "Detail", false, "String", "String", "", "Default", "Events/Event", 1);
+        detail.addChildMapping(new Mapping("$.at", "At", false, "String", "String", date, "Default", "Detail", 0));
+        detail.addChildMapping(new Mapping("$.code", "Code", false, "Integer", "String", "", "Default", "Detail", 1));
+        events.addChildMapping(detail);
+        doc.addChildMapping(events);
+        doc.addChildMapping(new Mapping("$.dates[*]", "Dates/Date", true, "String", "String", date, "Default", "Doc", 3));
+        MappingPlan plan = MappingPlan.compile(List.of(doc));
+
+        String at = "\"2024-03-01T12:00:00Z\"";
+        List<String> inputs = List.of(
+                "{\"name\":\"x\",\"audit\":{\"updated\":null}}",
+                "{\"audit\":{\"updated\":null,\"by\":null}}",
+                "{\"audit\":{\"updated\":" + at + "}}",
+                "{\"audit\":{\"updated\":null,\"by\":\"ann\"}}",
+                "{\"audit\":{\"by\":\"ann\",\"updated\":null}}",
+                "{\"audit\":{\"updated\":\"not a date\"}}",
+                "{\"events\":[{\"at\":null},{\"detail\":{\"at\":null,\"code\":null}},{}]}",
+                "{\"events\":[{\"detail\":{\"at\":null}},{\"at\":" + at + ",\"detail\":{\"at\":" + at + "}}]}",
+                "{\"events\":[{\"detail\":{\"at\":null,\"code\":7}}]}",
+                "{\"events\":[{\"detail\":{\"code\":\"seven\",\"at\":null}}]}",
+                "{\"dates\":[null]}",
+                "{\"dates\":[" + at + ",null],\"name\":null}",
+                "{\"name\":null,\"audit\":{},\"events\":[],\"dates\":[]}");
+
+        for (String json : inputs) {
+            assertEquals(outcome(json, plan, EmptyElementMode.SCAN), outcome(json, plan, EmptyElementMode.DEFERRED), json);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+import org.rutz.AttributeLevelTransformation;
+import org.rutz.AttributeLevelTransformationException;
+import org.rutz.ExpressionCompiler;
+import org.rutz.ExpressionEvaluator;
+import org.rutz.ValueTransformer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCompilerTest {
+
+    private static final String[] COMPILED = {
+            "fmfcn:convertUTCToESTDateOnly(val)",
+            "fmfcn:convertUTCToEST( val )",
+            "fmfcn:addFive(val)",
+            "val + '!'",
+            "'#' + (val * 2) + \"#\"",
+            "'x' + (val - 1) % 3 + '/' + -val",
+            "'r' + val / 0",
+            "fmfcn:convertUTCToESTDateOnly('2024-06-14T10:00:00Z') + ' ' + val",
+            "val * 2",
+            "val"
+    };
+
+    private static final String[] INTERPRETED = {
+            "val.substring(0, 2)",
+            "val == null ? 'none' : val",
+            "size(val)",
+            "'a\\'b' + val",
+            "val + 1.5",
+            "val + 010",
+            "fmfcn:unknown(val)",
+            "other:call(val)",
+            "x = val; x",
+            "val +"
+    };
+
+    private static final String[] TYPES = {"String", "Integer", "Long", "Double", "Date"};
+
+    private static final String[] VALUES = {"2024-06-14T18:30:00Z", "12", "-3", "2.5", "null", "abc", ""};
+
+    @Test
+    void compilesSupportedExpressions() {
+        for (String expression : COMPILED) {
+            assertNotNull(ExpressionCompiler.compile(expression, "String", "$.a"), expression);
+        }
+        for (String expression : INTERPRETED) {
+            assertNull(ExpressionCompiler.compile(expression, "String", "$.a"), expression);
+        }
+    }
+
+    @Test
+    void compiledResultsMatchJexl() throws Exception {
+        for (String expression : COMPILED) {
+            for (String type : TYPES) {
+                ValueTransformer compiled = ExpressionCompiler.compile(expression, type, "$.a");
+                for (String value : VALUES) {
+                    String context = expression + " / " + type + " / " + value;
+                    String expected = outcome(() -> AttributeLevelTransformation.transform(value, ExpressionEvaluator.compile(expression), type, "$.a"));
+                    assertEquals(expected, outcome(() -> compiled.transform(value)), context);
+                }
+            }
+        }
+    }
+
+    // The result, or the failure message so both paths can be compared
+    private static String outcome(Transformation transformation) {
+        try {
+            return "result: " + transformation.run();
+        } catch (AttributeLevelTransformationException e) {
+            return "failure: " + e.getMessage();
+        } catch (Exception e) {
+            return "unexpected: " + e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Transformation {
+        String run() throws Exception;
+    }
+}
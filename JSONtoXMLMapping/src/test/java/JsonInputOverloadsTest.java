@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlEngine.InputMode;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.StreamingJsonToXml;
+import org.rutz.util.MappedFileInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonInputOverloadsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void everyInputGivesTheSameXml() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        String json = Files.readString(Paths.get("src/main/resources/data1.json"));
+        ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        JsonToXmlSteam.transformJsonToXml(json, plan, reference, EmptyElementMode.DEFERRED);
+
+        // Leading whitespace takes the file over the threshold for memory mapping
+        byte[] small = json.getBytes(StandardCharsets.UTF_8);
+        byte[] padded = new byte[2 * 1024 * 1024 + small.length];
+        Arrays.fill(padded, (byte) ' ');
+        System.arraycopy(small, 0, padded, padded.length - small.length, small.length);
+        byte[] framed = new byte[small.length + 20];
+        System.arraycopy(small, 0, framed, 10, small.length);
+
+        for (byte[] document : new byte[][]{small, padded}) {
+            Path jsonFile = Files.write(tempDir.resolve("input.json"), document);
+            assertArrayEquals(reference.toByteArray(), render(out -> JsonToXmlSteam.transformJsonToXml(jsonFile, plan, out, EmptyElementMode.DEFERRED)));
+            assertArrayEquals(reference.toByteArray(), render(out -> StreamingJsonToXml.transformJsonToXml(jsonFile, plan, out)));
+            for (InputMode inputMode : InputMode.values()) {
+                JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(inputMode).emptyElementMode(EmptyElementMode.DEFERRED).build();
+                assertArrayEquals(reference.toByteArray(), render(out -> engine.transform(jsonFile, out)));
+                Path xmlFile = tempDir.resolve("output.xml");
+                engine.transform(jsonFile, xmlFile);
+                assertArrayEquals(reference.toByteArray(), Files.readAllBytes(xmlFile));
+            }
+        }
+
+        JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).build();
+        assertArrayEquals(reference.toByteArray(), render(out -> engine.transform(framed, 10, small.length, out)));
+        assertArrayEquals(reference.toByteArray(), render(out -> JsonToXmlSteam.transformJsonToXml(framed, 10, small.length, plan, out, EmptyElementMode.DEFERRED)));
+        assertArrayEquals(reference.toByteArray(), render(out -> JsonToXmlSteam.transformJsonToXml(new ByteArrayInputStream(small), plan, out, EmptyElementMode.DEFERRED)));
+    }
+
+    @Test
+    void mappedStreamReadsTheWholeFile() throws Exception {
+        byte[] data = new byte[300_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Path file = Files.write(tempDir.resolve("data.bin"), data);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        InputStream in = new MappedFileInputStream(file);
+        try (in) {
+            assertEquals(data.length, in.available());
+            copy.write(in.read());
+            assertEquals(1000, in.skip(1000));
+            copy.write(new byte[1000]);
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                copy.write(buffer, 0, n);
+            }
+            assertEquals(-1, in.read());
+            assertEquals(0, in.skip(10));
+        }
+        byte[] expected = data.clone();
+        Arrays.fill(expected, 1, 1001, (byte) 0);
+        assertArrayEquals(expected, copy.toByteArray());
+        assertThrows(IOException.class, in::read);
+
+        try (InputStream empty = new MappedFileInputStream(Files.write(tempDir.resolve("empty.bin"), new byte[0]))) {
+            assertEquals(-1, empty.read());
+        }
+    }
+
+    private interface Transform {
+        void run(ByteArrayOutputStream out) throws Exception;
+    }
+
+    private static byte[] render(Transform transform) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transform.run(out);
+        return out.toByteArray();
+    }
+}
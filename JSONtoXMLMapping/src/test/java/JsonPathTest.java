@@ -0,0 +1,71 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.rutz.JsonPath;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonPathTest {
+
+    private static final String JSON = "{\"company\":{\"name\":\"Acme\",\"branches\":["
+            + "{\"id\":1,\"region\":\"EU\",\"size\":3,\"name\":\"Berlin\"},"
+            + "{\"id\":2,\"region\":\"US\",\"size\":5,\"name\":\"Boston\",\"tags\":[\"a\",\"b\"]},"
+            + "{\"id\":3,\"region\":\"EU\",\"size\":8,\"name\":\"Paris\",\"closed\":null},"
+            + "{\"id\":4,\"region\":\"APAC\",\"size\":2.5,\"name\":\"Tokyo\"}]},"
+            + "\"odd key\":{\"x.y\":true}}";
+
+    private static String select(String path) throws Exception {
+        JsonNode root = new ObjectMapper().readTree(JSON);
+        List<JsonNode> matches = JsonPath.compile(path).select(root);
+        return matches.stream().map(JsonNode::asText).collect(Collectors.joining(","));
+    }
+
+    @Test
+    void namesWildcardsIndexesAndSlices() throws Exception {
+        assertEquals("Acme", select("$.company.name"));
+        assertEquals("true", select("$['odd key']['x.y']"));
+        assertEquals("1,2,3,4", select("$.company.branches[*].id"));
+        assertEquals("4", select("$.company.branches[-1].id"));
+        assertEquals("2,3", select("$.company.branches[1:3].id"));
+        assertEquals("1,3", select("$.company.branches[::2].id"));
+        assertEquals("1,2,3", select("$.company.branches[:-1].id"));
+        assertEquals("1,2,3,4", select("$.company.branches[::-1].id")); // document order
+        assertEquals("", select("$.company.branches[9].id"));
+        assertEquals("a,b", select("$.company.branches[1].tags.*"));
+    }
+
+    @Test
+    void recursiveDescentVisitsEachNodeOnce() throws Exception {
+        assertEquals("Acme,Berlin,Boston,Paris,Tokyo", select("$..name"));
+        assertEquals("b", select("$..tags[1]"));
+        assertEquals("Berlin,Boston,Paris,Tokyo", select("$.company..branches[*].name"));
+        assertEquals(1, JsonPath.compile("$..branches..name").select(new ObjectMapper().readTree(JSON)).stream()
+                .filter(node -> node.asText().equals("Berlin")).count());
+    }
+
+    @Test
+    void filters() throws Exception {
+        assertEquals("Berlin,Paris", select("$.company.branches[?(@.region=='EU')].name"));
+        assertEquals("Paris", select("$.company.branches[?(@.region == \"EU\" && @.size > 3)].name"));
+        assertEquals("Boston,Tokyo", select("$.company.branches[?(!(@.region == 'EU'))].name"));
+        assertEquals("Berlin,Tokyo", select("$.company.branches[?(@.size < 3 || @.size == 3)].name"));
+        assertEquals("Tokyo", select("$.company.branches[?(@.size == 2.50)].name"));
+        assertEquals("Boston", select("$.company.branches[?(@.tags)].name"));
+        assertEquals("Paris", select("$.company.branches[?(@.closed == null)].name"));
+        assertEquals("Boston,Paris,Tokyo", select("$.company.branches[?(@.name >= 'Boston')].name"));
+        assertEquals("b", select("$..tags[?(@ != 'a')]"));
+        assertEquals("Paris", select("$..[?(@.id == 3)].name"));
+        assertEquals("Berlin", JsonPath.compile("$..[?(@.region == 'EU')].name").first(new ObjectMapper().readTree(JSON)).asText());
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        for (String path : List.of("company", "$.", "$.a[", "$.a['b]", "$.a[1,2]", "$.a[?(@.b ==)]", "$.a[?($.b == 1)]", "$.a]")) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> JsonPath.compile(path), path);
+            assertTrue(e.getMessage().startsWith("Invalid JSONPath expression: " + path), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlEngine.InputMode;
+import org.rutz.JsonToXmlEngine.OutputMode;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonToXmlEngineTest {
+
+    private static MappingPlan plan;
+    private static byte[] json;
+    private static String expected;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp(@TempDir Path dir) throws Exception {
+        plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+
+        Path reference = dir.resolve("reference.xml");
+        JsonToXmlSteam.transformJsonToXml(new String(json, StandardCharsets.UTF_8), plan, reference.toString());
+        expected = Files.readString(reference);
+    }
+
+    @Test
+    void allOverloadsMatchReferenceOutput() throws Exception {
+        for (InputMode inputMode : InputMode.values()) {
+            for (OutputMode outputMode : OutputMode.values()) {
+                JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(inputMode).outputMode(outputMode).build();
+
+                assertEquals(expected, new String(engine.transform(json), StandardCharsets.UTF_8));
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                engine.transform(new ByteArrayInputStream(json), out);
+                assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+
+                Path output = tempDir.resolve(inputMode + "-" + outputMode + ".xml");
+                engine.transform(Paths.get("src/main/resources/data1.json"), output);
+                assertEquals(expected, Files.readString(output));
+            }
+        }
+    }
+
+    @Test
+    void smallBufferFlushesCorrectly() throws Exception {
+        JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).outputBufferSize(16).build();
+
+        assertEquals(expected, new String(engine.transform(json), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void concurrentCallsShareOneEngine() throws Exception {
+        JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).maxPooledBuffers(2).build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> engine.transform(json)));
+            }
+            for (Future<byte[]> result : results) {
+                assertEquals(expected, new String(result.get(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void parallelListsMatchSequentialOutput() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (InputMode inputMode : InputMode.values()) {
+                for (OutputMode outputMode : OutputMode.values()) {
+                    JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(inputMode).outputMode(outputMode)
+                            .parallelLists(pool, 1).parallelChunkSize(1).maxChunksInFlight(2).build();
+
+                    assertEquals(expected, new String(engine.transform(json), StandardCharsets.UTF_8));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void largeListIsRenderedInChunks() throws Exception {
+        // Repeat the branches of the sample document so the list spans many chunks
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode document = (ObjectNode) objectMapper.readTree(json);
+        ArrayNode branches = (ArrayNode) document.get("branches");
+        ArrayNode manyBranches = objectMapper.createArrayNode();
+        for (int i = 0; i < 2000; i++) {
+            manyBranches.add(branches.get(i % branches.size()));
+            manyBranches.addNull();
+        }
+        document.set("branches", manyBranches);
+        byte[] largeJson = objectMapper.writeValueAsBytes(document);
+
+        JsonToXmlEngine sequential = JsonToXmlEngine.builder(plan).build();
+        String sequentialXml = new String(sequential.transform(largeJson), StandardCharsets.UTF_8);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (InputMode inputMode : InputMode.values()) {
+                for (EmptyElementMode emptyElementMode : EmptyElementMode.values()) {
+                    JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(inputMode).emptyElementMode(emptyElementMode)
+                            .parallelLists(executor, 100).parallelChunkSize(64).build();
+
+                    assertEquals(sequentialXml, new String(engine.transform(largeJson), StandardCharsets.UTF_8));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void parallelListsRejectInvalidSettings() {
+        JsonToXmlEngine.Builder builder = JsonToXmlEngine.builder(plan);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.parallelLists(null, 10));
+        assertThrows(IllegalArgumentException.class, () -> builder.parallelLists(ForkJoinPool.commonPool(), 0));
+        assertThrows(IllegalArgumentException.class, () -> builder.parallelChunkSize(0));
+    }
+}
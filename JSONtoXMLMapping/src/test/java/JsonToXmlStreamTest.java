@@ -2,11 +2,13 @@ import com.opencsv.exceptions.CsvValidationException;
 import org.junit.jupiter.api.Test;
 
 import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
 import org.rutz.Mapping;
 import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
@@ -14,8 +16,8 @@ public class JsonToXmlStreamTest {
 
     @Test
     public void testJsonToXmlTransformation() throws IOException, CsvValidationException, Exception{
-        // Read JSON data from a resource file
-        String jsonData = new String(Files.readAllBytes(Paths.get("src/main/resources/data1.json")));
+        // JSON data from a resource file, parsed from its bytes
+        Path jsonFile = Paths.get("src/main/resources/data1.json");
 
         String csvFile = "C:\\Users\\rushi\\IdeaProjects\\JSONtoXMLMapping\\src\\main\\resources\\mappings1.csv";
 
@@ -23,7 +25,7 @@ public class JsonToXmlStreamTest {
         List<Mapping> mappings = MappingGenerator.readMappingsFromCsv(csvFile);
 
         // Transform JSON to XML
-        JsonToXmlSteam.transformJsonToXml(jsonData, mappings, "output1.xml");
+        JsonToXmlSteam.transformJsonToXml(jsonFile, MappingPlan.compile(mappings), "output1.xml", EmptyElementMode.SCAN);
 
         System.out.println("XML file created successfully!");
 
@@ -0,0 +1,129 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.CompiledMapping;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.Mapping;
+import org.rutz.MappingPlan;
+import org.rutz.StreamingJsonToXml;
+import org.rutz.ValueTransformer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappingPlanTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<Mapping> companyMappings() {
+        Mapping company = new Mapping("$", "Company", false, "String", "String", "", "Default", "Root", 0);
+        Mapping name = new Mapping("$.companyName", "CompanyName", false, "String", "String", "", "Default", "Company", 0);
+        Mapping id = new Mapping("$.companyId", "@id", false, "String", "String", "", "Default", "Company", 0);
+        Mapping branches = new Mapping("$.branches[*]", "Branches/Branch", true, "String", "String", "", "Default", "Company", 0);
+        Mapping branchName = new Mapping("$.branchName", "BranchName", false, "String", "String", "", "Default", "Branches/Branch", 0);
+        branches.addChildMapping(branchName);
+        company.addChildMapping(name);
+        company.addChildMapping(id);
+        company.addChildMapping(branches);
+        return List.of(company);
+    }
+
+    @Test
+    void compilesElementNamesAndPointers() {
+        MappingPlan plan = MappingPlan.compile(companyMappings());
+
+        CompiledMapping company = plan.getRoots().get(0);
+        assertEquals("Company", company.getElementName());
+        assertEquals("", company.getPointer().toString());
+        assertEquals(3, company.getChildren().size());
+
+        CompiledMapping id = company.getChildren().get(1);
+        assertTrue(id.isAttribute());
+
+        CompiledMapping branches = company.getChildren().get(2);
+        assertEquals("Branch", branches.getElementName());
+        assertEquals("/branches", branches.getPointer().toString());
+        assertTrue(branches.isList());
+    }
+
+    @Test
+    void mappingsWithoutExpressionUseIdentity() {
+        MappingPlan plan = MappingPlan.compile(companyMappings());
+
+        assertSame(ValueTransformer.IDENTITY, plan.getRoots().get(0).getTransformer());
+    }
+
+    @Test
+    void planIsDetachedFromSourceMappings() throws Exception {
+        List<Mapping> mappings = companyMappings();
+        MappingPlan plan = MappingPlan.compile(mappings);
+
+        mappings.get(0).getChildMappings().get(0).setExprsn("'changed'");
+
+        assertEquals("Acme", plan.getRoots().get(0).getChildren().get(0).getTransformer().transform("Acme"));
+    }
+
+    @Test
+    void planOutputMatchesMappingOutput() throws Exception {
+        String json = "{\"companyName\":\"Acme\",\"companyId\":\"7\",\"branches\":[{\"branchName\":\"EU\"},{},{\"branchName\":\"NA\"}]}";
+        Path fromMappings = tempDir.resolve("mappings.xml");
+        Path fromPlan = tempDir.resolve("plan.xml");
+
+        JsonToXmlSteam.transformJsonToXml(json, companyMappings(), fromMappings.toString());
+        JsonToXmlSteam.transformJsonToXml(json, MappingPlan.compile(companyMappings()), fromPlan.toString());
+
+        String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Company><CompanyName>Acme</CompanyName>"
+                + "<Branches><Branch><BranchName>EU</BranchName></Branch><Branch><BranchName>NA</BranchName></Branch></Branches></Company>";
+        assertEquals(expected, Files.readString(fromMappings));
+        assertEquals(expected, Files.readString(fromPlan));
+    }
+
+    @Test
+    void unmappedFieldsSkippedWhileParsingDoNotChangeTheOutput() throws Exception {
+        List<Mapping> mappings = companyMappings();
+        Mapping company = mappings.get(0);
+        company.addChildMapping(new Mapping("$.codes.1", "SecondCode", false, "String", "String", "", "Default", "Company", 0));
+        company.addChildMapping(new Mapping("$.owner", "Owner", false, "String", "String", "", "Default", "Company", 0));
+        MappingPlan plan = MappingPlan.compile(mappings);
+
+        // Unmapped values of every kind, objects with unmapped fields only, an empty list and an object where a value is mapped
+        String[] documents = {
+                "{\"companyName\":\"Acme\",\"location\":{\"city\":\"Rome\",\"geo\":[1.5,2]},\"codes\":[\"a\",\"b\"],"
+                        + "\"branches\":[{\"branchName\":\"EU\",\"staff\":[{\"n\":1}]},{\"opened\":2001},[{\"branchName\":\"X\"}],\"NA\"],"
+                        + "\"owner\":{\"name\":\"Ann\"},\"flags\":[true,null]}",
+                "{\"branches\":[],\"companyName\":null,\"big\":123456789012345678901234567890}",
+                "[{\"companyName\":\"Acme\"}]",
+                // Ahead of their turn, so the streaming engine keeps them as trees
+                "{\"owner\":{\"name\":\"Ann\"},\"codes\":[1,{\"c\":2}],\"branches\":[{\"staff\":[1],\"branchName\":\"EU\"}],\"companyName\":\"Acme\"}"
+        };
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (JsonToXmlSteam.EmptyElementMode mode : JsonToXmlSteam.EmptyElementMode.values()) {
+            for (String json : documents) {
+                StringWriter fullTree = new StringWriter();
+                XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(fullTree);
+                writer.writeStartDocument("UTF-8", "1.0");
+                JsonToXmlSteam.writeXmlElements(writer, objectMapper.readTree(json), plan, mode);
+                writer.writeEndDocument();
+                writer.close();
+
+                Path sparseTree = tempDir.resolve("sparse.xml");
+                JsonToXmlSteam.transformJsonToXml(json, plan, sparseTree.toString(), mode);
+                assertEquals(fullTree.toString(), Files.readString(sparseTree), json);
+                if (mode == JsonToXmlSteam.EmptyElementMode.DEFERRED) {
+                    Path streamed = tempDir.resolve("streamed.xml");
+                    StreamingJsonToXml.transformJsonToXml(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), plan, streamed.toString());
+                    assertEquals(fullTree.toString(), Files.readString(streamed), json);
+                }
+            }
+        }
+    }
+}
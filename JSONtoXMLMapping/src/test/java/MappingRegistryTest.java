@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.registry.MappingRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappingRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void swapsThePlanWhenTheFileChanges() throws Exception {
+        Path csvFile = Files.copy(Paths.get("src/main/resources/mappings.csv"), tempDir.resolve("mappings.csv"));
+        byte[] original = Files.readAllBytes(csvFile);
+        List<String> lines = Files.readAllLines(csvFile);
+        byte[] json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+
+        try (MappingRegistry registry = MappingRegistry.builder().settleDelay(Duration.ofMillis(50)).build()) {
+            registry.register("partner", csvFile);
+            JsonToXmlEngine before = registry.engine("partner");
+            byte[] fullXml = before.transform(json);
+            assertThrows(IllegalArgumentException.class, () -> registry.register("partner", csvFile));
+
+            // Rewriting the same content does not reload
+            Files.write(csvFile, original);
+            Thread.sleep(300);
+            assertEquals(0, registry.getReloadCount("partner"));
+            assertSame(before, registry.engine("partner"));
+
+            // Without the companyDate row every row still links into the tree
+            List<String> edited = new ArrayList<>(lines);
+            edited.remove(3);
+            Files.write(csvFile, edited);
+            awaitTrue(() -> registry.getReloadCount("partner") == 1);
+            MappingPlan reloaded = registry.plan("partner");
+            assertEquals(MappingGenerator.readMappingsFromCsv(csvFile.toString()).size(), reloaded.getRoots().size());
+            assertFalse(Arrays.equals(fullXml, registry.engine("partner").transform(json)));
+            // An engine taken before the reload still transforms with the old plan
+            assertArrayEquals(fullXml, before.transform(json));
+
+            // A file that fails to load keeps the current plan
+            Files.writeString(csvFile, "header\nbroken\n");
+            awaitTrue(() -> registry.getFailedReloadCount("partner") == 1);
+            assertSame(reloaded, registry.plan("partner"));
+
+            // So do a file cut off inside a row, rows whose parent is missing, and a file with the header only
+            String text = new String(original, StandardCharsets.UTF_8);
+            Files.writeString(csvFile, text.substring(0, text.indexOf("Branches/Branch,Yes")));
+            awaitTrue(() -> registry.getFailedReloadCount("partner") == 2);
+            List<String> orphaned = new ArrayList<>(lines);
+            orphaned.remove(5);
+            Files.write(csvFile, orphaned);
+            awaitTrue(() -> registry.getFailedReloadCount("partner") == 3);
+            Files.write(csvFile, lines.subList(0, 1));
+            assertThrows(IllegalStateException.class, () -> registry.reload("partner"));
+            // The watcher may fail on the same file as well
+            assertTrue(registry.getFailedReloadCount("partner") >= 4);
+            assertSame(reloaded, registry.plan("partner"));
+            assertEquals(1, registry.getReloadCount("partner"));
+
+            Files.write(csvFile, original);
+            awaitTrue(() -> registry.getReloadCount("partner") == 2);
+            assertArrayEquals(fullXml, registry.engine("partner").transform(json));
+            assertFalse(registry.reload("partner"));
+        }
+    }
+
+    @Test
+    void rejectsUnknownSets() throws Exception {
+        try (MappingRegistry registry = MappingRegistry.builder().build()) {
+            assertThrows(IllegalArgumentException.class, () -> registry.engine("missing"));
+            assertThrows(Exception.class, () -> registry.register("missing", tempDir.resolve("missing.csv")));
+            assertThrows(IllegalArgumentException.class, () -> registry.engine("missing"));
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for a reload");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.MappingSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappingSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void restoresTheMappingTree() throws Exception {
+        Path csvFile = Paths.get("src/main/resources/mappings.csv");
+        List<Mapping> mappings = MappingGenerator.readMappingsFromCsv(csvFile.toString());
+        long checksum = MappingSnapshot.checksum(csvFile);
+        Path snapshot = tempDir.resolve("mappings.snapshot");
+        MappingSnapshot.write(mappings, checksum, snapshot);
+
+        List<Mapping> restored = MappingSnapshot.read(snapshot, checksum);
+        assertEquals(describe(mappings), describe(restored));
+        assertNull(MappingSnapshot.read(snapshot, checksum + 1));
+
+        byte[] json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+        assertArrayEquals(JsonToXmlEngine.builder(MappingPlan.compile(mappings)).build().transform(json),
+                JsonToXmlEngine.builder(MappingPlan.compile(restored)).build().transform(json));
+    }
+
+    @Test
+    void loadOrCompileFollowsTheCsv() throws Exception {
+        Path csvFile = Files.copy(Paths.get("src/main/resources/mappings.csv"), tempDir.resolve("mappings.csv"));
+        Path snapshot = tempDir.resolve("cache").resolve("mappings.snapshot");
+        byte[] json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+        byte[] expected = JsonToXmlEngine.builder(MappingPlan.compile(MappingGenerator.readMappingsFromCsv(csvFile.toString())))
+                .build().transform(json);
+
+        // The first run writes the snapshot, the second one only reads it
+        assertArrayEquals(expected, transform(MappingSnapshot.loadOrCompile(csvFile, snapshot), json));
+        assertTrue(Files.exists(snapshot));
+        FileTime written = FileTime.fromMillis(1_000_000);
+        Files.setLastModifiedTime(snapshot, written);
+        assertArrayEquals(expected, transform(MappingSnapshot.loadOrCompile(csvFile, snapshot), json));
+        assertEquals(written, Files.getLastModifiedTime(snapshot));
+
+        // A changed CSV replaces the snapshot
+        List<String> lines = Files.readAllLines(csvFile);
+        Files.write(csvFile, lines.subList(0, lines.size() / 2));
+        MappingPlan changed = MappingSnapshot.loadOrCompile(csvFile, snapshot);
+        assertNotEquals(written, Files.getLastModifiedTime(snapshot));
+        assertEquals(describe(MappingGenerator.readMappingsFromCsv(csvFile.toString())),
+                describe(MappingSnapshot.read(snapshot, MappingSnapshot.checksum(csvFile))));
+        assertEquals(MappingGenerator.readMappingsFromCsv(csvFile.toString()).size(), changed.getRoots().size());
+
+        // A damaged snapshot is rebuilt
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 3] ^= 0x55;
+        Files.write(snapshot, bytes);
+        assertThrows(IOException.class, () -> MappingSnapshot.read(snapshot, MappingSnapshot.checksum(csvFile)));
+        MappingSnapshot.loadOrCompile(csvFile, snapshot);
+        assertNotNull(MappingSnapshot.read(snapshot, MappingSnapshot.checksum(csvFile)));
+    }
+
+    private static byte[] transform(MappingPlan plan, byte[] json) throws Exception {
+        return JsonToXmlEngine.builder(plan).build().transform(json);
+    }
+
+    private static String describe(List<Mapping> mappings) {
+        StringBuilder out = new StringBuilder("[");
+        for (Mapping mapping : mappings) {
+            out.append(String.join("|", mapping.getJPath(), mapping.getXPath(), Boolean.toString(mapping.isList()),
+                    mapping.getJsonType(), mapping.getXmlType(), mapping.getExprsn(), mapping.getNamespace(),
+                    mapping.getParentXPath(), Integer.toString(mapping.getOrder())));
+            out.append(describe(mapping.getChildMappings())).append(',');
+        }
+        return out.append(']').toString();
+    }
+}
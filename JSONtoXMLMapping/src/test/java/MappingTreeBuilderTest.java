@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingTreeBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappingTreeBuilderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void buildsTheSameTreeAsRepeatedPasses() {
+        Random random = new Random(5);
+        for (int round = 0; round < 300; round++) {
+            // Few distinct orders and some repeated xPaths, rows in any order
+            int size = 1 + random.nextInt(40);
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                String xPath = "E" + random.nextInt(size + 3);
+                int parent = random.nextInt(size + 6);
+                String parentXPath = parent >= size + 3 ? (parent == size + 3 ? "Root" : "") : "E" + parent;
+                rows.add(row(xPath, parentXPath, Integer.toString(random.nextInt(3))));
+            }
+
+            MappingTreeBuilder builder = new MappingTreeBuilder();
+            rows.forEach(builder::addRow);
+            List<Mapping> roots = builder.build().getRoots();
+
+            Mapping virtualRoot = new Mapping("$", "Root", false, "", "", "", "", "", 0);
+            Map<String, Mapping> registry = new HashMap<>();
+            registry.put("Root", virtualRoot);
+            MappingGenerator.processMappingsIteratively(rows, registry, virtualRoot);
+            sort(virtualRoot);
+
+            assertEquals(describe(virtualRoot.getChildMappings()), describe(roots), "round " + round);
+        }
+    }
+
+    @Test
+    void reportsOrphansAndCycles() {
+        MappingTreeBuilder builder = new MappingTreeBuilder()
+                .addRow(row("B", "A", "2"))
+                .addRow(row("A", "", "1"))
+                .addRow(row("C", "Missing", ""))
+                .addRow(row("D", "C", ""))
+                .addRow(row("X", "Z", ""))
+                .addRow(row("Y", "X", ""))
+                .addRow(row("Z", "Y", ""))
+                .addRow(row("W", "X", ""))
+                .addRow(row("S", "S", ""))
+                .addRow(row("A", "", "3"))
+                .addRow(row("F", "A", "x"));
+        MappingTreeBuilder.Result result = builder.build();
+
+        assertEquals("[A:1[F:0,B:2]]", describe(result.getRoots()));
+        assertEquals(List.of("C"), xPaths(result.getOrphans()));
+        assertEquals(List.of(List.of("X", "Z", "Y"), List.of("S")), result.getCycles());
+        assertEquals(List.of("C", "D", "X", "Y", "Z", "W", "S"), xPaths(result.getUnresolved()));
+        assertEquals(List.of("A"), xPaths(result.getDuplicates()));
+        assertEquals(3, result.getDuplicates().get(0).getOrder());
+    }
+
+    @Test
+    void loadsALargeCsvWithChildrenBeforeParents() throws Exception {
+        // 100k rows, ten levels deep, every level listed before its parents
+        int perLevel = 10_000;
+        StringBuilder csv = new StringBuilder("jPath,xPath,isList,jsonType,xmlType,exprsn,namespace,parentXPath,order\n");
+        for (int level = 9; level >= 0; level--) {
+            for (int i = 0; i < perLevel; i++) {
+                String parent = level == 0 ? "" : "E" + (level - 1) + "_" + i;
+                csv.append("$.v,E").append(level).append('_').append(i).append(",No,string,string,,,")
+                        .append(parent).append(',').append(perLevel - i).append('\n');
+            }
+        }
+        Path file = Files.writeString(tempDir.resolve("large.csv"), csv);
+
+        List<Mapping> roots = MappingGenerator.readMappingsFromCsv(file.toString());
+
+        assertEquals(perLevel, roots.size());
+        assertEquals("E0_9999", roots.get(0).getXPath());
+        Mapping leaf = roots.get(perLevel - 1);
+        for (int level = 1; level < 10; level++) {
+            assertEquals(1, leaf.getChildMappings().size());
+            leaf = leaf.getChildMappings().get(0);
+        }
+        assertEquals("E9_0", leaf.getXPath());
+    }
+
+    private static String[] row(String xPath, String parentXPath, String order) {
+        return new String[]{"$." + xPath, xPath, "No", "string", "string", "", "", parentXPath, order};
+    }
+
+    private static void sort(Mapping mapping) {
+        mapping.getChildMappings().sort(Comparator.comparingInt(Mapping::getOrder));
+        mapping.getChildMappings().forEach(MappingTreeBuilderTest::sort);
+    }
+
+    // Identity matters for repeated xPaths, so the order is part of the description
+    private static String describe(List<Mapping> mappings) {
+        StringBuilder out = new StringBuilder("[");
+        for (Mapping mapping : mappings) {
+            if (out.length() > 1) {
+                out.append(',');
+            }
+            out.append(mapping.getXPath()).append(':').append(mapping.getOrder());
+            if (!mapping.getChildMappings().isEmpty()) {
+                out.append(describe(mapping.getChildMappings()));
+            }
+        }
+        return out.append(']').toString();
+    }
+
+    private static List<String> xPaths(List<Mapping> mappings) {
+        List<String> xPaths = new ArrayList<>();
+        mappings.forEach(mapping -> xPaths.add(mapping.getXPath()));
+        return Collections.unmodifiableList(xPaths);
+    }
+}
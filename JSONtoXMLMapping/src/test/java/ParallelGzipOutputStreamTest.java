@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.batch.BatchOutput;
+import org.rutz.batch.BatchTransformer;
+import org.rutz.util.ParallelGzipOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelGzipOutputStreamTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsThroughGzipInputStream() throws Exception {
+        Random random = new Random(11);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        StringBuilder text = new StringBuilder();
+        while (expected.size() < 600_000) {
+            // Repetitive text so blocks refer back into the previous block
+            text.setLength(0);
+            text.append("<Account><Id>").append(random.nextInt(1000)).append("</Id></Account>");
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            expected.write(bytes, 0, bytes.length);
+            if (random.nextInt(1000) == 0) {
+                byte[] noise = new byte[random.nextInt(5000)];
+                random.nextBytes(noise);
+                expected.write(noise, 0, noise.length);
+            }
+        }
+        byte[] data = expected.toByteArray();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int blockSize : new int[]{32 * 1024, 100_000, 1 << 20}) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (ParallelGzipOutputStream out = ParallelGzipOutputStream.builder(compressed)
+                        .blockSize(blockSize).executor(executor).maxBlocksInFlight(2).build()) {
+                    int offset = 0;
+                    while (offset < data.length) {
+                        int n = Math.min(data.length - offset, random.nextInt(70_000));
+                        if (n % 7 == 0) {
+                            out.write(data[offset++]);
+                        } else {
+                            out.write(data, offset, n);
+                            offset += n;
+                        }
+                        out.flush();
+                    }
+                }
+                assertArrayEquals(data, gunzip(compressed.toByteArray()), "block size " + blockSize);
+                assertTrue(compressed.size() < data.length / 4, "block size " + blockSize);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void writesAValidStreamForEmptyInput() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream out = ParallelGzipOutputStream.builder(compressed).build();
+        out.finish();
+        out.finish();
+
+        assertEquals(0, gunzip(compressed.toByteArray()).length);
+        assertThrows(IOException.class, () -> out.write(1));
+        out.close();
+    }
+
+    @Test
+    void compressesTransformOutput() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        String json = Files.readString(Paths.get("src/main/resources/data1.json"));
+        ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        JsonToXmlSteam.transformJsonToXml(json, plan, reference, EmptyElementMode.DEFERRED);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = ParallelGzipOutputStream.builder(compressed).build()) {
+            JsonToXmlSteam.transformJsonToXml(json, plan, out, EmptyElementMode.DEFERRED);
+        }
+        assertArrayEquals(reference.toByteArray(), gunzip(compressed.toByteArray()));
+
+        Path inputDir = Files.createDirectories(tempDir.resolve("in"));
+        Files.writeString(inputDir.resolve("data1.json"), json);
+        BatchTransformer.builder(JsonToXmlEngine.builder(plan).build()).build()
+                .transformDirectory(inputDir, BatchOutput.perRecordFiles(tempDir.resolve("out"), true));
+        ByteArrayOutputStream engineOutput = new ByteArrayOutputStream();
+        JsonToXmlEngine.builder(plan).build().transform(json, engineOutput);
+        assertArrayEquals(engineOutput.toByteArray(),
+                gunzip(Files.readAllBytes(tempDir.resolve("out").resolve("data1.xml.gz"))));
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        ParallelGzipOutputStream.Builder builder = ParallelGzipOutputStream.builder(new ByteArrayOutputStream());
+
+        assertThrows(IllegalArgumentException.class, () -> builder.blockSize(1024));
+        assertThrows(IllegalArgumentException.class, () -> builder.level(10));
+        assertThrows(IllegalArgumentException.class, () -> builder.maxBlocksInFlight(0));
+        assertThrows(IllegalArgumentException.class, () -> ParallelGzipOutputStream.builder(null));
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
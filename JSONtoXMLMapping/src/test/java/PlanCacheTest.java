@@ -0,0 +1,148 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.registry.PlanCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlanCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PlanCache cache = PlanCache.builder(key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return plan;
+        }).build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<MappingPlan>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get("partner")));
+            }
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<MappingPlan> result : results) {
+                assertSame(plan, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertSame(plan, cache.get("partner"));
+        assertEquals(1, loads.get());
+
+        PlanCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getMisses());
+        assertEquals(8, stats.getHits());
+        assertEquals(1, stats.getSize());
+        assertEquals(plan.getEstimatedSize(), stats.getWeight());
+        assertTrue(stats.getTotalLoadNanos() > 0);
+    }
+
+    @Test
+    void weightStaysExactWhenInvalidationsRaceLoads() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        PlanCache cache = PlanCache.builder(key -> {
+            Thread.yield();
+            return plan;
+        }).build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        String key = "k" + (i * 7 + seed) % 4;
+                        if ((i + seed) % 3 == 0) {
+                            cache.invalidate(key);
+                        } else {
+                            cache.get(key);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(cache.getStats().getSize() * plan.getEstimatedSize(), cache.getStats().getWeight());
+        cache.invalidateAll();
+        assertEquals(0, cache.getStats().getWeight());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPlansBySize() throws Exception {
+        Path csvFile = Paths.get("src/main/resources/mappings.csv");
+        for (String key : List.of("a", "b", "c")) {
+            Files.copy(csvFile, tempDir.resolve(key + ".csv"));
+        }
+        long planSize = MappingPlan.compile(MappingGenerator.readMappingsFromCsv(csvFile.toString())).getEstimatedSize();
+        assertTrue(planSize > 0);
+
+        PlanCache cache = PlanCache.builder(PlanCache.csvLoader(tempDir)).maxWeight(2 * planSize).build();
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+
+        assertNotNull(cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertNotNull(cache.getIfPresent("c"));
+        PlanCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, stats.getSize());
+        assertEquals(2 * planSize, stats.getWeight());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getStats().getWeight());
+        assertThrows(IllegalArgumentException.class, () -> cache.get("../a"));
+    }
+
+    @Test
+    void failedLoadsAreRetried() throws Exception {
+        MappingPlan plan = MappingPlan.compile(new ArrayList<>());
+        AtomicInteger attempts = new AtomicInteger();
+        PlanCache cache = PlanCache.builder(key -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("unavailable");
+            }
+            return plan;
+        }).build();
+
+        assertThrows(IOException.class, () -> cache.get("partner"));
+        assertEquals(0, cache.getStats().getSize());
+        assertSame(plan, cache.get("partner"));
+        assertEquals(1, cache.getStats().getLoadFailures());
+        assertEquals(2, cache.getStats().getMisses());
+    }
+}
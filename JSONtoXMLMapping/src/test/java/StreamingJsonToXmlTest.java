@@ -0,0 +1,183 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.AttributeLevelTransformationException;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.StreamingJsonToXml;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingJsonToXmlTest {
+
+    @TempDir
+    Path tempDir;
+
+    private String treeOutput(String json, MappingPlan plan) throws Exception {
+        Path output = tempDir.resolve("tree.xml");
+        JsonToXmlSteam.transformJsonToXml(json, plan, output.toString());
+        return Files.readString(output);
+    }
+
+    private String streamingOutput(String json, MappingPlan plan) throws Exception {
+        Path output = tempDir.resolve("streaming.xml");
+        try (InputStream in = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))) {
+            StreamingJsonToXml.transformJsonToXml(in, plan, output.toString());
+        }
+        return Files.readString(output);
+    }
+
+    @Test
+    void matchesTreeOutputForCompanyHierarchy() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        String json = Files.readString(Paths.get("src/main/resources/data1.json"));
+
+        assertEquals(treeOutput(json, plan), streamingOutput(json, plan));
+    }
+
+    @Test
+    void fieldsBeforeTheirTurnAreWrittenInMappingOrder() throws Exception {
+        Mapping order = new Mapping("$", "Order", false, "String", "String", "", "Default", "Root", 0);
+        order.addChildMapping(new Mapping("$.id", "Id", false, "String", "String", "", "Default", "Order", 1));
+        order.addChildMapping(new Mapping("$.lines[*]", "Lines/Line", true, "String", "String", "", "Default", "Order", 2));
+        order.addChildMapping(new Mapping("$.total", "Total", false, "String", "String", "", "Default", "Order", 3));
+        MappingPlan plan = MappingPlan.compile(List.of(order));
+
+        String json = "{\"total\":12.5,\"unmapped\":{\"x\":[1,2]},\"lines\":[\"a\",null,\"b\"],\"id\":7}";
+
+        String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Order><Id>7</Id>"
+                + "<Lines><Line>a</Line><Line>b</Line></Lines><Total>12.5</Total></Order>";
+        assertEquals(expected, streamingOutput(json, plan));
+        assertEquals(treeOutput(json, plan), streamingOutput(json, plan));
+    }
+
+    @Test
+    void emptyObjectsAreSuppressed() throws Exception {
+        Mapping order = new Mapping("$", "Order", false, "String", "String", "", "Default", "Root", 0);
+        Mapping customer = new Mapping("$.customer", "Parties/Customer", false, "String", "String", "", "Default", "Order", 1);
+        customer.addChildMapping(new Mapping("$.name", "Name", false, "String", "String", "", "Default", "Parties/Customer", 0));
+        order.addChildMapping(customer);
+        MappingPlan plan = MappingPlan.compile(List.of(order));
+
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>", streamingOutput("{\"customer\":{\"name\":null}}", plan));
+        assertEquals(treeOutput("{\"customer\":{\"other\":1},\"x\":[]}", plan),
+                streamingOutput("{\"customer\":{\"other\":1},\"x\":[]}", plan));
+    }
+
+    @Test
+    void siblingsReadingTheSameFieldsMatchTheTreeOutput() throws Exception {
+        Mapping member = new Mapping("$.members[*]", "Members/Member", true, "String", "String", "", "Default", "Root", 0);
+        member.addChildMapping(new Mapping("$.id", "Id", false, "String", "String", "", "Default", "Members/Member", 0));
+        member.addChildMapping(new Mapping("$.address.city", "City", false, "String", "String", "", "Default", "Members/Member", 1));
+        Mapping contact = new Mapping("$", "Contact", false, "String", "String", "", "Default", "Members/Member", 2);
+        contact.addChildMapping(new Mapping("$.email", "Email", false, "String", "String", "", "Default", "Contact", 0));
+        contact.addChildMapping(new Mapping("$.id", "Ref", false, "String", "String", "", "Default", "Contact", 1));
+        member.addChildMapping(contact);
+        member.addChildMapping(new Mapping("$.address.zip", "Zip", false, "String", "String", "", "Default", "Members/Member", 3));
+        for (int i = 0; i < 6; i++) {
+            member.addChildMapping(new Mapping("$.f" + i, "F" + i, false, "String", "String", "", "Default", "Members/Member", 4 + i));
+        }
+        MappingPlan plan = MappingPlan.compile(List.of(member));
+
+        // Objects with fewer and with more fields than the mappings read, in and out of mapping order
+        String json = "{\"members\":["
+                + "{\"email\":\"a@x\",\"id\":1},"
+                + "{\"f5\":5,\"address\":{\"zip\":\"Z\",\"city\":\"C\"},\"x\":0,\"f0\":0,\"id\":2,\"f1\":1,"
+                + "\"f2\":2,\"f3\":3,\"f4\":4,\"email\":\"b@x\",\"y\":[1],\"z\":{}},"
+                + "{\"address\":\"none\",\"other\":1},"
+                + "[1,2]]}";
+
+        String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Members>"
+                + "<Member><Id>1</Id><Contact><Email>a@x</Email><Ref>1</Ref></Contact></Member>"
+                + "<Member><Id>2</Id><City>C</City><Contact><Email>b@x</Email><Ref>2</Ref></Contact><Zip>Z</Zip>"
+                + "<F0>0</F0><F1>1</F1><F2>2</F2><F3>3</F3><F4>4</F4><F5>5</F5></Member></Members>";
+        assertEquals(expected, treeOutput(json, plan));
+        assertEquals(expected, streamingOutput(json, plan));
+        Path deferred = tempDir.resolve("deferred.xml");
+        JsonToXmlSteam.transformJsonToXml(json, plan, deferred.toString(), JsonToXmlSteam.EmptyElementMode.DEFERRED);
+        assertEquals(expected, Files.readString(deferred));
+    }
+
+    @Test
+    void jsonPathQueriesMatchTheTreeOutput() throws Exception {
+        Mapping company = new Mapping("$", "Company", false, "String", "String", "", "Default", "Root", 0);
+        company.addChildMapping(new Mapping("$.name", "Name", false, "String", "String", "", "Default", "Company", 0));
+        Mapping eu = new Mapping("$.branches[?(@.region == 'EU')]", "EuBranches/Branch", true, "String", "String", "", "Default", "Company", 1);
+        eu.addChildMapping(new Mapping("$.city", "City", false, "String", "String", "", "Default", "EuBranches/Branch", 0));
+        company.addChildMapping(eu);
+        company.addChildMapping(new Mapping("$.branches[?(@.region == 'MARS')]", "MarsBranches/Branch", true, "String", "String", "", "Default", "Company", 2));
+        company.addChildMapping(new Mapping("$.branches[1:].id", "Later/Id", true, "String", "String", "", "Default", "Company", 3));
+        company.addChildMapping(new Mapping("$.branches[-1].city", "LastCity", false, "String", "String", "", "Default", "Company", 4));
+        company.addChildMapping(new Mapping("$..zip", "Zips/Zip", true, "String", "String", "", "Default", "Company", 5));
+        company.addChildMapping(new Mapping("$.owner", "Owner", false, "String", "String", "", "Default", "Company", 6));
+        MappingPlan plan = MappingPlan.compile(List.of(company));
+
+        String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Company><Name>Acme</Name>"
+                + "<EuBranches><Branch><City>Berlin</City></Branch><Branch><City>Paris</City></Branch></EuBranches>"
+                + "<Later><Id>2</Id><Id>3</Id></Later><LastCity>Paris</LastCity>"
+                + "<Zips><Zip>10115</Zip><Zip>75001</Zip><Zip>1</Zip></Zips><Owner>Ann</Owner></Company>";
+        String branches = "\"branches\":[{\"id\":1,\"region\":\"EU\",\"city\":\"Berlin\",\"address\":{\"zip\":\"10115\"}},"
+                + "{\"id\":2,\"region\":\"US\",\"city\":\"Boston\"},"
+                + "{\"id\":3,\"region\":\"EU\",\"city\":\"Paris\",\"zip\":\"75001\"}]";
+        // Fields in mapping order, and ahead of their turn
+        for (String json : List.of("{\"name\":\"Acme\"," + branches + ",\"owner\":\"Ann\",\"x\":{\"zip\":1}}",
+                "{\"x\":{\"zip\":1},\"owner\":\"Ann\"," + branches + ",\"name\":\"Acme\"}")) {
+            String zipsInOrder = json.startsWith("{\"x") ? expected.replace("<Zip>10115</Zip><Zip>75001</Zip><Zip>1</Zip>",
+                    "<Zip>1</Zip><Zip>10115</Zip><Zip>75001</Zip>") : expected;
+            assertEquals(zipsInOrder, treeOutput(json, plan));
+            assertEquals(zipsInOrder, streamingOutput(json, plan));
+            Path deferred = tempDir.resolve("deferred.xml");
+            JsonToXmlSteam.transformJsonToXml(json, plan, deferred.toString(), JsonToXmlSteam.EmptyElementMode.DEFERRED);
+            assertEquals(zipsInOrder, Files.readString(deferred));
+        }
+
+        // A single list query is streamed item by item; nothing matching keeps the wrappers out
+        Mapping branchList = new Mapping("$.branches[?(@.region == 'EU')]", "Branches/Branch", true, "String", "String", "", "Default", "Root", 0);
+        branchList.addChildMapping(new Mapping("$.city", "City", false, "String", "String", "", "Default", "Branches/Branch", 0));
+        MappingPlan rootQuery = MappingPlan.compile(List.of(branchList));
+        String none = "{\"branches\":[{\"region\":\"US\",\"city\":\"Boston\"}]}";
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>", streamingOutput(none, rootQuery));
+        assertEquals(treeOutput(none, rootQuery), streamingOutput(none, rootQuery));
+        String some = "{\"branches\":[{\"region\":\"EU\",\"city\":\"Berlin\"},{\"region\":\"US\"},{\"region\":\"EU\"},null]}";
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Branches><Branch><City>Berlin</City></Branch></Branches>",
+                streamingOutput(some, rootQuery));
+        assertEquals(treeOutput(some, rootQuery), streamingOutput(some, rootQuery));
+    }
+
+    @Test
+    void expressionOnANullInAnObjectWithoutContentDoesNotRun() throws Exception {
+        Mapping doc = new Mapping("$", "Doc", false, "String", "String", "", "Default", "Root", 0);
+        doc.addChildMapping(new Mapping("$.name", "Name", false, "String", "String", "", "Default", "Doc", 0));
+        Mapping audit = new Mapping("$.audit", "Audit", false, "String", "String", "", "Default", "Doc", 1);
+        audit.addChildMapping(new Mapping("$.updated", "Updated", false, "String", "String", "fmfcn:convertUTCToESTDateOnly(val)", "Default", "Audit", 0));
+        doc.addChildMapping(audit);
+        MappingPlan plan = MappingPlan.compile(List.of(doc));
+        String json = "{\"name\":\"x\",\"audit\":{\"updated\":null}}";
+
+        Path scan = tempDir.resolve("scan.xml");
+        JsonToXmlSteam.transformJsonToXml(json, plan, scan.toString(), JsonToXmlSteam.EmptyElementMode.SCAN);
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Doc><Name>x</Name></Doc>", Files.readString(scan));
+        assertEquals(Files.readString(scan), streamingOutput(json, plan));
+        for (JsonToXmlEngine.InputMode inputMode : JsonToXmlEngine.InputMode.values()) {
+            JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(inputMode).build();
+            assertEquals(Files.readString(scan), new String(engine.transform(json.getBytes(StandardCharsets.UTF_8)),
+                    StandardCharsets.UTF_8), inputMode.name());
+        }
+
+        // Once the object has content, the null is written and its expression fails as in the scan
+        String withContent = "{\"audit\":{\"updated\":null,\"other\":1}}";
+        audit.addChildMapping(new Mapping("$.other", "Other", false, "String", "String", "", "Default", "Audit", 1));
+        MappingPlan withOther = MappingPlan.compile(List.of(doc));
+        assertThrows(AttributeLevelTransformationException.class, () -> streamingOutput(withContent, withOther));
+    }
+}
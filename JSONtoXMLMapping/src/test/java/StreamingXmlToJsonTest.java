@@ -0,0 +1,120 @@
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.Mapping;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.StreamingXmlToJson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingXmlToJsonTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private static JsonNode reverse(String xml, MappingPlan plan) throws Exception {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (InputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))) {
+            StreamingXmlToJson.transformXmlToJson(in, plan, json);
+        }
+        return OBJECT_MAPPER.readTree(json.toByteArray());
+    }
+
+    private static List<Mapping> orderMappings() {
+        Mapping order = new Mapping("$", "Order", false, "String", "String", "", "Default", "Root", 0);
+        order.addChildMapping(new Mapping("$.orderId", "@id", false, "String", "String", "", "Default", "Order", 0));
+        order.addChildMapping(new Mapping("$.number", "Number", false, "Long", "String", "", "Default", "Order", 1));
+        order.addChildMapping(new Mapping("$.customer.name", "Customer/Name", false, "String", "String", "", "Default", "Order", 2));
+        order.addChildMapping(new Mapping("$.customer.address.city", "Customer/City", false, "String", "String", "", "Default", "Order", 3));
+        order.addChildMapping(new Mapping("$.paid", "Paid", false, "Boolean", "String", "", "Default", "Order", 4));
+        Mapping details = new Mapping("$", "Details", false, "String", "String", "", "Default", "Order", 5);
+        details.addChildMapping(new Mapping("$.note", "Note", false, "String", "String", "", "Default", "Details", 0));
+        order.addChildMapping(details);
+        Mapping lines = new Mapping("$.lines[*]", "Lines/Line", true, "String", "String", "", "Default", "Order", 6);
+        lines.addChildMapping(new Mapping("$.sku", "Sku", false, "String", "String", "", "Default", "Lines/Line", 0));
+        lines.addChildMapping(new Mapping("$.qty", "Qty", false, "Integer", "String", "", "Default", "Lines/Line", 1));
+        lines.addChildMapping(new Mapping("$.price", "Price", false, "Decimal", "String", "", "Default", "Lines/Line", 2));
+        order.addChildMapping(lines);
+        order.addChildMapping(new Mapping("$.tags[*]", "Tag", true, "String", "String", "", "Default", "Order", 7));
+        order.addChildMapping(new Mapping("$.weight", "Weight", false, "Double", "String", "", "Default", "Order", 8));
+        return List.of(order);
+    }
+
+    @Test
+    void xmlWrittenFromJsonConvertsBackToTheMappedFields() throws Exception {
+        MappingPlan plan = MappingPlan.compile(orderMappings());
+        String json = "{\"orderId\":\"A1\",\"number\":12345678901,\"customer\":{\"name\":\"Ann\",\"address\":{\"city\":\"Rome\"}},"
+                + "\"paid\":true,\"note\":\"fragile\",\"lines\":[{\"sku\":\"S1\",\"qty\":2,\"price\":10.50},{\"sku\":\"S2\",\"qty\":1,\"price\":3}],"
+                + "\"tags\":[\"x\",\"y\"],\"weight\":1.5,\"unmapped\":{\"a\":1}}";
+        Path xml = tempDir.resolve("order.xml");
+        JsonToXmlSteam.transformJsonToXml(json, plan, xml.toString());
+
+        JsonNode expected = OBJECT_MAPPER.readTree("{\"number\":12345678901,\"customer\":{\"name\":\"Ann\",\"address\":{\"city\":\"Rome\"}},"
+                + "\"paid\":true,\"note\":\"fragile\",\"lines\":[{\"sku\":\"S1\",\"qty\":2,\"price\":10.50},{\"sku\":\"S2\",\"qty\":1,\"price\":3}],"
+                + "\"tags\":[\"x\",\"y\"],\"weight\":1.5}");
+        assertEquals(expected, reverse(Files.readString(xml), plan));
+    }
+
+    @Test
+    void unmappedElementsAttributesAndChildrenOfValuesAreSkipped() throws Exception {
+        MappingPlan plan = MappingPlan.compile(orderMappings());
+        String xml = "<?xml version=\"1.0\"?>\n<Order id=\"A1\">\n  <Extra><Number>1</Number></Extra>\n"
+                + "  <Number>  7 <b>ignored</b></Number>\n  <Paid>maybe</Paid>\n  <Lines>\n    <Line><Sku><![CDATA[a<b]]></Sku><Qty/></Line>\n"
+                + "  </Lines>\n  <Lines><Line><Sku>c</Sku></Line></Lines>\n  <Weight>null</Weight>\n</Order>";
+
+        JsonNode json = reverse(xml, plan);
+
+        // A value that does not convert is kept as text; empty and null values of a typed field are null
+        assertEquals(OBJECT_MAPPER.readTree("{\"number\":7,\"paid\":\"maybe\",\"lines\":[{\"sku\":\"a<b\",\"qty\":null},"
+                + "{\"sku\":\"c\"}],\"weight\":null}"), json);
+    }
+
+    @Test
+    void fieldsThatWouldBeWrittenTwiceFailTheTransform() throws Exception {
+        MappingPlan plan = MappingPlan.compile(orderMappings());
+
+        // Items of one list, and fields of one nested object, separated by another field
+        String splitList = "<Order><Lines><Line><Sku>a</Sku></Line></Lines><Paid>true</Paid>"
+                + "<Lines><Line><Sku>b</Sku></Line></Lines></Order>";
+        JsonGenerationException list = assertThrows(JsonGenerationException.class, () -> reverse(splitList, plan));
+        assertTrue(list.getMessage().contains("lines"), list.getMessage());
+        String splitObject = "<Order><Customer><Name>Ann</Name></Customer><Paid>true</Paid>\n"
+                + "<Customer><City>Rome</City></Customer></Order>";
+        JsonGenerationException object = assertThrows(JsonGenerationException.class, () -> reverse(splitObject, plan));
+        assertTrue(object.getMessage().contains("customer") && object.getMessage().contains("line 2"), object.getMessage());
+
+        // The same element twice in a row continues the list
+        String consecutive = "<Order><Lines><Line><Sku>a</Sku></Line></Lines><Lines><Line><Sku>b</Sku></Line></Lines></Order>";
+        assertEquals(OBJECT_MAPPER.readTree("{\"lines\":[{\"sku\":\"a\"},{\"sku\":\"b\"}]}"), reverse(consecutive, plan));
+    }
+
+    @Test
+    void convertsTheSampleDocument() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+
+        JsonNode json = reverse(Files.readString(Paths.get("src/main/resources/st.xml")), plan);
+
+        assertEquals("Tech Innovators Inc.", json.get("companyName").asText());
+        assertFalse(json.has("companyLocation"));
+        JsonNode members = json.at("/branches/0/teams/0/members");
+        assertEquals(2, members.size());
+        assertEquals("Alice Johnson", members.get(0).get("name").asText());
+        assertEquals("T2", members.get(0).at("/tasks/1/taskId").asText());
+        assertEquals("Product Launch", members.get(0).at("/campaigns/0/name").asText());
+    }
+}
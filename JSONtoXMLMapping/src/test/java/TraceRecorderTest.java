@@ -0,0 +1,148 @@
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlEngine.InputMode;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.trace.TraceRecorder;
+import org.rutz.trace.TraceRecorder.Event;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceRecorderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Logger traceLogger;
+    private ListAppender<ILoggingEvent> appender;
+
+    @BeforeEach
+    void setUp() {
+        traceLogger = (Logger) LoggerFactory.getLogger(TraceRecorder.LOGGER_NAME);
+        appender = new ListAppender<>();
+        appender.start();
+        traceLogger.addAppender(appender);
+        traceLogger.setAdditive(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TraceRecorder.stop();
+        traceLogger.detachAppender(appender);
+        traceLogger.setAdditive(true);
+    }
+
+    @Test
+    void recordsNothingWhileOff() {
+        TraceRecorder.stop();
+        TraceRecorder.record(Event.ARRAY, "Item", "$.items", 3);
+
+        assertFalse(TraceRecorder.isEnabled());
+        assertTrue(appender.list.isEmpty());
+    }
+
+    @Test
+    void drainsTransformEventsToSlf4j() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        String json = Files.readString(Paths.get("src/main/resources/data1.json"));
+
+        TraceRecorder recorder = TraceRecorder.start(1, 1024);
+        JsonToXmlSteam.transformJsonToXml(json, plan, tempDir.resolve("scan.xml").toString(), EmptyElementMode.SCAN);
+        TraceRecorder.stop();
+
+        assertTrue(recorder.getRecorded() > 0);
+        assertEquals(0, recorder.getDropped());
+        assertEquals(recorder.getRecorded(), appender.list.size());
+        assertTrue(appender.list.stream().anyMatch(e -> e.getFormattedMessage().contains("ARRAY element=Branch jPath=$.branches[*]")));
+    }
+
+    @Test
+    void recordsStreamingTransformEvents() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(InputMode.STREAMING).build();
+        byte[] json = "{\"companyName\": \"A\", \"branches\": [{\"teams\": [{}]}, null, {\"branchNameEU\": \"B\"}]}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        TraceRecorder recorder = TraceRecorder.start(1, 1024);
+        engine.transform(json);
+        TraceRecorder.stop();
+
+        assertEquals(0, recorder.getDropped());
+        List<String> messages = new ArrayList<>();
+        for (ILoggingEvent event : appender.list) {
+            messages.add(event.getFormattedMessage());
+        }
+        assertTrue(messages.stream().anyMatch(m -> m.contains("MISSING_NODE element=CompanyDate jPath=$.companyDate")), messages.toString());
+        assertTrue(messages.stream().anyMatch(m -> m.contains("ARRAY element=Branch jPath=$.branches[*] value=3")), messages.toString());
+        assertTrue(messages.stream().anyMatch(m -> m.contains("EMPTY_LIST_ITEM element=Branch jPath=$.branches[*]")), messages.toString());
+        assertTrue(messages.stream().anyMatch(m -> m.contains("EMPTY_LIST_ITEM element=Team jPath=$.teams[*]")), messages.toString());
+        assertTrue(messages.stream().anyMatch(m -> m.contains("EMPTY_OBJECT element=GG jPath=$")), messages.toString());
+    }
+
+    @Test
+    void dropsEventsWhenTheBufferIsFull() throws Exception {
+        TraceRecorder recorder = TraceRecorder.start(1, 4);
+        assertEquals(4, recorder.getCapacity());
+
+        int threads = 4;
+        int perThread = 20_000;
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    TraceRecorder.record(Event.ARRAY, "Item", "$.items", i);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        TraceRecorder.stop();
+
+        // Every event is either logged in full or counted as dropped
+        assertEquals(threads * perThread, recorder.getRecorded() + recorder.getDropped());
+        long logged = 0;
+        boolean dropReported = false;
+        for (ILoggingEvent event : appender.list) {
+            if (event.getLevel() == Level.INFO) {
+                assertTrue(event.getFormattedMessage().contains("ARRAY element=Item jPath=$.items value="));
+                logged++;
+            } else {
+                dropReported = event.getFormattedMessage().contains(recorder.getDropped() + " sampled events were dropped");
+            }
+        }
+        assertEquals(recorder.getRecorded(), logged);
+        assertEquals(recorder.getDropped() > 0, dropReported);
+    }
+
+    @Test
+    void samplesOneInRateEvents() {
+        TraceRecorder recorder = TraceRecorder.start(10, 1 << 16);
+        for (int i = 0; i < 50_000; i++) {
+            TraceRecorder.record(Event.MISSING_NODE, "Name", "$.name", 0);
+        }
+        TraceRecorder.stop();
+
+        long recorded = recorder.getRecorded() + recorder.getDropped();
+        assertTrue(recorded > 4_000 && recorded < 6_000, "sampled " + recorded);
+    }
+}
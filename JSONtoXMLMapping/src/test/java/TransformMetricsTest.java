@@ -0,0 +1,193 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.JsonToXmlEngine.InputMode;
+import org.rutz.JsonToXmlSteam;
+import org.rutz.JsonToXmlSteam.EmptyElementMode;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.StreamingJsonToXml;
+import org.rutz.metrics.LatencyHistogram;
+import org.rutz.metrics.TransformMetrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformMetricsTest {
+
+    private static MappingPlan plan;
+    private static byte[] json;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+    }
+
+    @Test
+    void countsOneTransform() throws Exception {
+        TransformMetrics metrics = TransformMetrics.get();
+        long[] counts = null;
+        for (InputMode inputMode : InputMode.values()) {
+            JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).inputMode(inputMode).build();
+            long documents = metrics.getDocumentsTransformed();
+            long bytes = metrics.getXmlBytesWritten();
+            long elements = metrics.getXmlElementsWritten();
+            long skipped = metrics.getEmptyElementsSkipped();
+            long expressions = metrics.getExpressionEvaluations();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            engine.transform(json, out);
+
+            assertEquals(documents + 1, metrics.getDocumentsTransformed());
+            assertEquals(bytes + out.size(), metrics.getXmlBytesWritten());
+            String xml = out.toString(StandardCharsets.UTF_8);
+            // Every start tag in the output is one written element
+            long startTags = xml.split("<[A-Za-z]", -1).length - 1;
+            assertEquals(startTags, metrics.getXmlElementsWritten() - elements, inputMode.toString());
+            // companyDate is the only mapping with an expression
+            assertEquals(1, metrics.getExpressionEvaluations() - expressions);
+
+            long[] modeCounts = {metrics.getXmlElementsWritten() - elements, metrics.getEmptyElementsSkipped() - skipped};
+            if (counts != null) {
+                assertArrayEquals(counts, modeCounts, "streaming and tree modes count alike");
+            }
+            counts = modeCounts;
+        }
+    }
+
+    @Test
+    void countsScanModeAndStaticEntryPoints() throws Exception {
+        TransformMetrics metrics = TransformMetrics.get();
+        JsonToXmlEngine deferred = JsonToXmlEngine.builder(plan).inputMode(InputMode.TREE).build();
+        long nodes = metrics.getJsonNodesVisited();
+        long elements = metrics.getXmlElementsWritten();
+        deferred.transform(json);
+        long[] deferredCounts = {metrics.getJsonNodesVisited() - nodes, metrics.getXmlElementsWritten() - elements};
+
+        JsonToXmlEngine scan = JsonToXmlEngine.builder(plan).inputMode(InputMode.TREE)
+                .emptyElementMode(EmptyElementMode.SCAN).build();
+        nodes = metrics.getJsonNodesVisited();
+        elements = metrics.getXmlElementsWritten();
+        long expressions = metrics.getExpressionEvaluations();
+        scan.transform(json);
+        assertArrayEquals(deferredCounts, new long[]{metrics.getJsonNodesVisited() - nodes, metrics.getXmlElementsWritten() - elements});
+        assertEquals(1, metrics.getExpressionEvaluations() - expressions);
+
+        String jsonString = new String(json, StandardCharsets.UTF_8);
+        for (EmptyElementMode mode : EmptyElementMode.values()) {
+            long documents = metrics.getDocumentsTransformed();
+            long bytes = metrics.getXmlBytesWritten();
+            elements = metrics.getXmlElementsWritten();
+            expressions = metrics.getExpressionEvaluations();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonToXmlSteam.transformJsonToXml(jsonString, plan, out, mode);
+
+            assertEquals(documents + 1, metrics.getDocumentsTransformed(), mode.toString());
+            assertEquals(bytes + out.size(), metrics.getXmlBytesWritten(), mode.toString());
+            assertEquals(deferredCounts[1], metrics.getXmlElementsWritten() - elements, mode.toString());
+            assertEquals(1, metrics.getExpressionEvaluations() - expressions, mode.toString());
+        }
+
+        long failed = metrics.getDocumentsFailed();
+        byte[] badDate = "{\"companyName\": \"A\", \"companyDate\": \"yesterday\"}".getBytes(StandardCharsets.UTF_8);
+        assertThrows(Exception.class, () -> JsonToXmlSteam.transformJsonToXml(badDate, 0, badDate.length, plan,
+                new ByteArrayOutputStream(), EmptyElementMode.SCAN));
+        assertEquals(failed + 1, metrics.getDocumentsFailed());
+    }
+
+    @Test
+    void countsStaticStreamingEntryPoint() throws Exception {
+        TransformMetrics metrics = TransformMetrics.get();
+        JsonToXmlEngine streaming = JsonToXmlEngine.builder(plan).inputMode(InputMode.STREAMING).build();
+        long nodes = metrics.getJsonNodesVisited();
+        long elements = metrics.getXmlElementsWritten();
+        streaming.transform(json);
+        long[] engineCounts = {metrics.getJsonNodesVisited() - nodes, metrics.getXmlElementsWritten() - elements};
+
+        long documents = metrics.getDocumentsTransformed();
+        long bytes = metrics.getXmlBytesWritten();
+        nodes = metrics.getJsonNodesVisited();
+        elements = metrics.getXmlElementsWritten();
+        long expressions = metrics.getExpressionEvaluations();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingJsonToXml.transformJsonToXml(new ByteArrayInputStream(json), plan, out);
+
+        assertEquals(documents + 1, metrics.getDocumentsTransformed());
+        assertEquals(bytes + out.size(), metrics.getXmlBytesWritten());
+        assertTrue(engineCounts[0] > 0);
+        assertArrayEquals(engineCounts, new long[]{metrics.getJsonNodesVisited() - nodes, metrics.getXmlElementsWritten() - elements});
+        assertEquals(1, metrics.getExpressionEvaluations() - expressions);
+    }
+
+    @Test
+    void parallelListsCountLikeSequential() throws Exception {
+        TransformMetrics metrics = TransformMetrics.get();
+        long elements = metrics.getXmlElementsWritten();
+        JsonToXmlEngine.builder(plan).build().transform(json);
+        long sequential = metrics.getXmlElementsWritten() - elements;
+
+        elements = metrics.getXmlElementsWritten();
+        JsonToXmlEngine.builder(plan).parallelLists(ForkJoinPool.commonPool(), 1).parallelChunkSize(1).build().transform(json);
+        assertEquals(sequential, metrics.getXmlElementsWritten() - elements);
+    }
+
+    @Test
+    void countsFailures() throws Exception {
+        TransformMetrics metrics = TransformMetrics.get();
+        long failed = metrics.getDocumentsFailed();
+        long attributeFailures = metrics.getAttributeTransformationFailures();
+        JsonToXmlEngine engine = JsonToXmlEngine.builder(plan).build();
+
+        // convertUTCToESTDateOnly cannot parse this date
+        byte[] badDate = "{\"companyName\": \"A\", \"companyDate\": \"yesterday\"}".getBytes(StandardCharsets.UTF_8);
+        assertThrows(Exception.class, () -> engine.transform(badDate));
+
+        assertEquals(failed + 1, metrics.getDocumentsFailed());
+        assertEquals(attributeFailures + 1, metrics.getAttributeTransformationFailures());
+    }
+
+    @Test
+    void exposedOverJmx() throws Exception {
+        TransformMetrics metrics = TransformMetrics.get();
+        JsonToXmlEngine.builder(plan).build().transform(json);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(TransformMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertTrue((Long) server.getAttribute(name, "DocumentsTransformed") >= 1);
+        assertTrue((Double) server.getAttribute(name, "TransformLatencyP99Millis") > 0);
+        assertEquals(metrics.getJsonNodesVisited(), server.getAttribute(name, "JsonNodesVisited"));
+    }
+
+    @Test
+    void histogramPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_500, histogram.getMean(), 1);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double exact = percentile / 100 * 100_000_000;
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(reported >= exact && reported <= exact * 1.125, percentile + ": " + reported);
+        }
+        assertEquals(100_000_000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.rutz.JsonToXmlEngine;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.service.TransformService;
+import org.rutz.service.TransformService.ThreadMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformServiceTest {
+
+    private static JsonToXmlEngine engine;
+    private static byte[] json;
+    private static String expected;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        MappingPlan plan = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv"));
+        engine = JsonToXmlEngine.builder(plan).build();
+        json = Files.readAllBytes(Paths.get("src/main/resources/data1.json"));
+        expected = new String(engine.transform(json), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void manyConcurrentSubmissions() throws Exception {
+        for (ThreadMode threadMode : new ThreadMode[]{ThreadMode.AUTO, ThreadMode.PLATFORM}) {
+            try (TransformService service = TransformService.builder(engine).threadMode(threadMode).maxConcurrent(8).build()) {
+                List<ByteArrayOutputStream> sinks = new ArrayList<>();
+                List<CompletableFuture<Void>> results = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                    sinks.add(sink);
+                    results.add(service.submit(new ByteArrayInputStream(json), sink));
+                }
+                CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+                for (ByteArrayOutputStream sink : sinks) {
+                    assertEquals(expected, sink.toString(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    void rejectsBeyondMaxInFlight() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (TransformService service = TransformService.builder(engine).maxConcurrent(1).maxInFlight(2).build()) {
+            CompletableFuture<Void> first = service.submit(new BlockingInputStream(json, release), new ByteArrayOutputStream());
+            CompletableFuture<Void> second = service.submit(new BlockingInputStream(json, release), new ByteArrayOutputStream());
+            CompletableFuture<Void> third = service.submit(new ByteArrayInputStream(json), new ByteArrayOutputStream());
+
+            ExecutionException rejected = assertThrows(ExecutionException.class, () -> third.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+            assertEquals(2, service.getInFlight());
+
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+            assertEquals(0, service.getInFlight());
+        }
+    }
+
+    @Test
+    void failureCompletesFutureExceptionally() throws Exception {
+        try (TransformService service = TransformService.builder(engine).build()) {
+            CompletableFuture<Void> result = service.submit(new ByteArrayInputStream("{".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream());
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, failure.getCause());
+        }
+    }
+
+    @Test
+    void interruptedCloseReturnsWithTheInterruptSet() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TransformService service = TransformService.builder(engine).build();
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        CompletableFuture<Void> result = service.submit(new BlockingInputStream(json, release), sink);
+
+        Thread.currentThread().interrupt();
+        service.close();
+        assertTrue(Thread.interrupted());
+
+        // The accepted transform is not dropped
+        release.countDown();
+        result.get(10, TimeUnit.SECONDS);
+        assertEquals(expected, sink.toString(StandardCharsets.UTF_8));
+        service.close();
+    }
+
+    // Holds the first read until released, like a slow client
+    private static final class BlockingInputStream extends InputStream {
+        private final InputStream delegate;
+        private final CountDownLatch release;
+
+        BlockingInputStream(byte[] data, CountDownLatch release) {
+            this.delegate = new ByteArrayInputStream(data);
+            this.release = release;
+        }
+
+        @Override
+        public int read() throws IOException {
+            await();
+            return delegate.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            await();
+            return delegate.read(b, off, len);
+        }
+
+        private void await() throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Test;
+import org.rutz.MappingGenerator;
+import org.rutz.MappingPlan;
+import org.rutz.Utf8XmlWriter;
+import org.rutz.XmlNames;
+import org.rutz.util.BufferPool;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8XmlWriterTest {
+
+    private static final String[] NAMES = {"Company", "Branch", "\u00E9", "Tasks", "Task"};
+    private static final String[] TEXT_PARTS = {"plain", " ", "<", ">", "&", "\"'", "\r\n\t", "\u0001", "\u00E9", "\u20AC",
+            "\uD83D\uDE00", "\uD800", "\uDC00", "0123456789abcdef0123456789abcdef"};
+
+    @Test
+    void writesLikeTheJdkWriter() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        XMLStreamWriter jdk = XMLOutputFactory.newInstance().createXMLStreamWriter(expected, "UTF-8");
+        Utf8XmlWriter direct = new Utf8XmlWriter(actual, null, 64);
+
+        for (XMLStreamWriter writer : new XMLStreamWriter[]{jdk, direct}) {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("Company");
+            writer.writeStartElement("Empty");
+            writer.writeEndElement();
+            writer.writeStartElement("Name");
+            writer.writeCharacters("Tech <Innovators> & Co. \u2013 \u201CZ\u00FCrich\u201D \uD83D\uDE00");
+            writer.writeEndElement();
+            writer.writeStartElement("Open");
+            writer.writeEndDocument();
+            writer.close();
+        }
+
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    void randomEventsMatchTheJdkWriter() throws Exception {
+        XmlNames names = MappingPlan.compile(MappingGenerator.readMappingsFromCsv("src/main/resources/mappings.csv")).getXmlNames();
+        assertTrue(names.size() > 0);
+
+        for (int seed = 0; seed < 500; seed++) {
+            Random random = new Random(seed);
+            List<Object> events = randomEvents(random);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            XMLStreamWriter jdk = XMLOutputFactory.newInstance().createXMLStreamWriter(expected, "UTF-8");
+            replay(events, jdk);
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            Utf8XmlWriter direct = seed % 2 == 0
+                    ? new Utf8XmlWriter(actual, names, 8 + random.nextInt(40))
+                    : new Utf8XmlWriter(Channels.newChannel(actual), names, new BufferPool(8 + random.nextInt(40), 1));
+            replay(events, direct);
+
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray(), "seed " + seed);
+            assertEquals(actual.size(), direct.getBytesWritten());
+        }
+    }
+
+    @Test
+    void rejectsOtherEncodingsAndUnsupportedEvents() {
+        Utf8XmlWriter writer = new Utf8XmlWriter(new ByteArrayOutputStream(), null, 64);
+
+        assertThrows(XMLStreamException.class, () -> writer.writeStartDocument("ISO-8859-1", "1.0"));
+        assertThrows(UnsupportedOperationException.class, () -> writer.writeAttribute("id", "1"));
+        assertThrows(XMLStreamException.class, writer::writeEndElement);
+    }
+
+    // Start tags as names, end tags as null, text as a one-element array
+    private static List<Object> randomEvents(Random random) {
+        List<Object> events = new ArrayList<>();
+        int depth = 0;
+        for (int i = random.nextInt(30); i >= 0; i--) {
+            int choice = random.nextInt(3);
+            if (choice == 0) {
+                events.add(NAMES[random.nextInt(NAMES.length)]);
+                depth++;
+            } else if (choice == 1 && depth > 0) {
+                events.add(null);
+                depth--;
+            } else {
+                StringBuilder text = new StringBuilder();
+                for (int part = random.nextInt(5); part > 0; part--) {
+                    text.append(TEXT_PARTS[random.nextInt(TEXT_PARTS.length)]);
+                }
+                events.add(new String[]{text.toString()});
+            }
+        }
+        return events;
+    }
+
+    private static void replay(List<Object> events, XMLStreamWriter writer) throws Exception {
+        writer.writeStartDocument("UTF-8", "1.0");
+        for (Object event : events) {
+            if (event == null) {
+                writer.writeEndElement();
+            } else if (event instanceof String) {
+                writer.writeStartElement((String) event);
+            } else {
+                writer.writeCharacters(((String[]) event)[0]);
+            }
+        }
+        writer.writeEndDocument();
+        writer.close();
+    }
+}